@@ -0,0 +1,75 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.model.SInstruction;
+import hadeel.engine.model.SProgram;
+import hadeel.engine.parser.ParseResult;
+import hadeel.engine.parser.XMLParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Sample S-programs shipped under src/jmh/resources/programs
+public class BenchmarkPrograms {
+
+    public static final String ADDITION = "addition";
+    public static final String MULTIPLICATION = "multiplication";
+    public static final String NESTED = "nested";
+
+    public static String loadXml(String name) {
+        String resource = "/programs/" + name + ".xml";
+        try (InputStream in = BenchmarkPrograms.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown benchmark program: " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read " + resource, e);
+        }
+    }
+
+    public static SProgram load(String name) {
+        String xml = loadXml(name);
+        ParseResult result = quietly(() -> XMLParser.parseXMLString(xml));
+        if (!result.isSuccess()) {
+            throw new IllegalStateException("Failed to parse " + name + ": " + result.getErrorMessage());
+        }
+        return result.getProgram();
+    }
+
+    // Concatenates copies of the program's instructions; only meaningful for expansion, not execution
+    public static SProgram replicate(SProgram program, int copies) {
+        SProgram replicated = new SProgram(program.getName());
+        replicated.setFunctions(program.getFunctions());
+        for (int copy = 0; copy < copies; copy++) {
+            for (SInstruction instruction : program.getInstructions()) {
+                replicated.addInstruction(instruction.copy());
+            }
+        }
+        return replicated;
+    }
+
+    public static String render(SProgram program) {
+        StringBuilder builder = new StringBuilder();
+        List<SInstruction> instructions = program.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            builder.append(instructions.get(i).getFormattedDisplay(i + 1)).append('\n');
+        }
+        return builder.toString();
+    }
+
+    // The parser and debugger log to System.out; keep that out of the measured output
+    public static <T> T quietly(Supplier<T> action) {
+        PrintStream original = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            return action.get();
+        } finally {
+            System.setOut(original);
+        }
+    }
+}
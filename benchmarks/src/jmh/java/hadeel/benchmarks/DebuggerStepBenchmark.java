@@ -0,0 +1,51 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.SEmulatorEngine;
+import hadeel.engine.execution.CancellationToken;
+import hadeel.engine.execution.ExecutionDebugger;
+import hadeel.engine.model.SProgram;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+
+@State(Scope.Thread)
+public class DebuggerStepBenchmark {
+
+    @Param({"0", "2"})
+    public int degree;
+
+    private SEmulatorEngine engine;
+    private SProgram program;
+    private List<Integer> inputs;
+    private ExecutionDebugger debugger;
+
+    @Setup
+    public void setUp() {
+        engine = new SEmulatorEngine();
+        program = BenchmarkPrograms.load(BenchmarkPrograms.ADDITION);
+        // Large inputs keep each session long, so restarts are rare compared to steps
+        inputs = List.of(5000, 5000);
+        debugger = startSession();
+    }
+
+    private ExecutionDebugger startSession() {
+        return BenchmarkPrograms.quietly(() -> new ExecutionDebugger(engine, program, inputs, degree));
+    }
+
+    @Benchmark
+    public int step() {
+        if (debugger.isFinished()) {
+            debugger = startSession();
+        }
+        debugger.step();
+        return debugger.getCurrentLine();
+    }
+
+    // A whole session resumed to the end in one call; compare with ExecutionBenchmark at the same degree
+    @Benchmark
+    public int resumeToEnd() {
+        ExecutionDebugger session = startSession();
+        session.resume(Integer.MAX_VALUE, new CancellationToken());
+        return session.getCurrentCycles();
+    }
+}
@@ -0,0 +1,52 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.execution.ExecutionEngine;
+import hadeel.engine.execution.ExecutionTracer;
+import hadeel.engine.execution.ExpansionEngine;
+import hadeel.engine.execution.QuoteMemo;
+import hadeel.engine.model.ExecutionResult;
+import hadeel.engine.model.SProgram;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class ExecutionBenchmark {
+
+    // Addition is a plain loop, multiplication calls Plus through QUOTE, nested composes (Plus,x1,x2) and (Const7)
+    @Param({BenchmarkPrograms.ADDITION, BenchmarkPrograms.MULTIPLICATION, BenchmarkPrograms.NESTED})
+    public String programName;
+
+    @Param({"0", "2"})
+    public int degree;
+
+    @Param({"5,7", "40,60"})
+    public String inputValues;
+
+    private SProgram program;
+    private List<Integer> inputs;
+    private ExecutionEngine engine;
+    private SProgram expandedProgram;
+    private QuoteMemo sharedMemo;
+
+    @Setup
+    public void setUp() {
+        program = BenchmarkPrograms.load(programName);
+        inputs = Arrays.stream(inputValues.split(",")).map(Integer::valueOf).toList();
+        engine = new ExecutionEngine();
+        expandedProgram = ExpansionEngine.expand(program, degree);
+        sharedMemo = new QuoteMemo();
+    }
+
+    @Benchmark
+    public ExecutionResult execute() {
+        return engine.execute(program, inputs, degree);
+    }
+
+    // Pre-expanded, as the server runs it, with QUOTE results shared across invocations
+    @Benchmark
+    public ExecutionResult executeWithSharedMemo() {
+        return engine.executeExpanded(expandedProgram, inputs, degree, ExecutionTracer.NONE, sharedMemo);
+    }
+}
@@ -0,0 +1,27 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.execution.ExpansionEngine;
+import hadeel.engine.model.SProgram;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+public class ExpansionBenchmark {
+
+    @Param({BenchmarkPrograms.ADDITION, BenchmarkPrograms.MULTIPLICATION, BenchmarkPrograms.NESTED})
+    public String programName;
+
+    @Param({"0", "1", "2", "3"})
+    public int degree;
+
+    private SProgram program;
+
+    @Setup
+    public void setUp() {
+        program = BenchmarkPrograms.load(programName);
+    }
+
+    @Benchmark
+    public SProgram expand() {
+        return ExpansionEngine.expand(program, degree);
+    }
+}
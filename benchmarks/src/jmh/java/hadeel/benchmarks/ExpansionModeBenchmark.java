@@ -0,0 +1,44 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.execution.ExpansionEngine;
+import hadeel.engine.model.SProgram;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Sequential vs fork/join expansion by instruction count and degree
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExpansionModeBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int copies;
+
+    @Param({"1", "2", "3"})
+    public int degree;
+
+    private SProgram program;
+
+    @Setup
+    public void setUp() {
+        program = BenchmarkPrograms.replicate(BenchmarkPrograms.load(BenchmarkPrograms.NESTED), copies);
+
+        // Both modes must produce the same program, fresh names included
+        String sequential = BenchmarkPrograms.render(ExpansionEngine.expand(program, degree));
+        String parallel = BenchmarkPrograms.render(ExpansionEngine.expandParallel(program, degree));
+        if (!sequential.equals(parallel)) {
+            throw new IllegalStateException("Parallel expansion differs from sequential at degree " + degree);
+        }
+    }
+
+    @Benchmark
+    public SProgram sequential() {
+        return ExpansionEngine.expand(program, degree);
+    }
+
+    @Benchmark
+    public SProgram parallel() {
+        return ExpansionEngine.expandParallel(program, degree);
+    }
+}
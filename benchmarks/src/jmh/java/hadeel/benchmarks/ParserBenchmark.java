@@ -0,0 +1,36 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.parser.ParseResult;
+import hadeel.engine.parser.XMLParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+    @Param({BenchmarkPrograms.ADDITION, BenchmarkPrograms.MULTIPLICATION, BenchmarkPrograms.NESTED})
+    public String programName;
+
+    private String xml;
+    private PrintStream originalOut;
+
+    @Setup
+    public void setUp() {
+        xml = BenchmarkPrograms.loadXml(programName);
+        // Swapping System.out per invocation would dominate the measurement, so do it once per trial
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(originalOut);
+    }
+
+    @Benchmark
+    public ParseResult parseXMLString() {
+        return XMLParser.parseXMLString(xml);
+    }
+}
@@ -0,0 +1,111 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.parser.ParseResult;
+import hadeel.engine.parser.StreamingXMLParser;
+import hadeel.engine.parser.XMLParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// DOM vs StAX parsing of generated programs, for uploads (string, lenient) and files (strict, label checks)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParserModeBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int instructions;
+
+    private String xml;
+    private Path file;
+    private PrintStream originalOut;
+
+    @Setup
+    public void setUp() throws IOException {
+        xml = generate(instructions);
+        file = Files.createTempFile("semulator-parser", ".xml");
+        Files.write(file, xml.getBytes(StandardCharsets.UTF_8));
+        originalOut = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        String dom = BenchmarkPrograms.render(XMLParser.parseFileDom(file.toString()).getProgram());
+        String streaming = BenchmarkPrograms.render(StreamingXMLParser.parseFile(file.toFile()).getProgram());
+        if (!dom.equals(streaming)) {
+            throw new IllegalStateException("Streaming parser differs from DOM for " + instructions + " instructions");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.setOut(originalOut);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public ParseResult domString() {
+        return XMLParser.parseXMLStringDom(xml);
+    }
+
+    @Benchmark
+    public ParseResult streamingString() {
+        return StreamingXMLParser.parseXMLString(xml);
+    }
+
+    @Benchmark
+    public ParseResult domFile() {
+        return XMLParser.parseFileDom(file.toString());
+    }
+
+    @Benchmark
+    public ParseResult streamingFile() {
+        return StreamingXMLParser.parseFile(file.toFile());
+    }
+
+    // Loops of four instructions, each jumping back to its own label, plus one function
+    private static String generate(int instructions) {
+        StringBuilder builder = new StringBuilder(instructions * 160);
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<S-Program name=\"Generated\">\n<S-Instructions>\n");
+        for (int i = 0; i < instructions; i++) {
+            int loop = i / 4;
+            switch (i % 4) {
+                case 0:
+                    instruction(builder, "basic", "INCREASE", "x" + (loop % 5 + 1), "L" + loop, null, null);
+                    break;
+                case 1:
+                    instruction(builder, "synthetic", "ASSIGNMENT", "z" + (loop % 7 + 1), null,
+                        "assignedVariable", "x1");
+                    break;
+                case 2:
+                    instruction(builder, "basic", "DECREASE", "z" + (loop % 7 + 1), null, null, null);
+                    break;
+                default:
+                    instruction(builder, "basic", "JUMP_NOT_ZERO", "z" + (loop % 7 + 1), null, "JNZLabel", "L" + loop);
+                    break;
+            }
+        }
+        builder.append("</S-Instructions>\n<S-Functions>\n<S-Function name=\"Id\" user-string=\"id\">\n<S-Instructions>\n");
+        instruction(builder, "synthetic", "ASSIGNMENT", "y", null, "assignedVariable", "x1");
+        builder.append("</S-Instructions>\n</S-Function>\n</S-Functions>\n</S-Program>\n");
+        return builder.toString();
+    }
+
+    private static void instruction(StringBuilder builder, String type, String name, String variable, String label,
+                                    String argumentName, String argumentValue) {
+        builder.append("<S-Instruction type=\"").append(type).append("\" name=\"").append(name).append("\">");
+        builder.append("<S-Variable>").append(variable).append("</S-Variable>");
+        if (label != null) {
+            builder.append("<S-Label>").append(label).append("</S-Label>");
+        }
+        if (argumentName != null) {
+            builder.append("<S-Instruction-Arguments><S-Instruction-Argument name=\"").append(argumentName)
+                .append("\" value=\"").append(argumentValue).append("\"/></S-Instruction-Arguments>");
+        }
+        builder.append("</S-Instruction>\n");
+    }
+}
@@ -0,0 +1,104 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.execution.ExpansionEngine;
+import hadeel.engine.model.ExecutionResult;
+import hadeel.engine.model.SProgram;
+import hadeel.engine.parser.BinaryProgramFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Saving and loading many programs: Java serialization (the old saveState format) against the binary format.
+// "expanded" programs carry parent chains, which serialization writes out and the binary format shares.
+@State(Scope.Benchmark)
+public class ProgramFormatBenchmark {
+
+    @Param({"1000", "5000"})
+    public int programCount;
+
+    @Param({"source", "expanded"})
+    public String form;
+
+    private List<SProgram> programs;
+    private byte[] serialized;
+    private byte[] binary;
+    private Path binaryFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] names = {BenchmarkPrograms.ADDITION, BenchmarkPrograms.MULTIPLICATION, BenchmarkPrograms.NESTED};
+        List<SProgram> samples = new ArrayList<>();
+        for (String name : names) {
+            SProgram program = BenchmarkPrograms.load(name);
+            samples.add(form.equals("expanded")
+                ? BenchmarkPrograms.quietly(() -> ExpansionEngine.expand(program, program.getMaxDegree()))
+                : program);
+        }
+
+        // Deep copies, so every program is a distinct object graph as when parsed separately
+        programs = new ArrayList<>(programCount);
+        for (int i = 0; i < programCount; i++) {
+            programs.add(decodeJava(encodeJava(Collections.singletonList(samples.get(i % samples.size())))).get(0));
+        }
+
+        serialized = encodeJava(programs);
+        binary = BinaryProgramFormat.encode(programs, Collections.<ExecutionResult>emptyList());
+        binaryFile = Files.createTempFile("semulator-programs", ".bin");
+        Files.write(binaryFile, binary);
+        System.out.println("[ProgramFormatBenchmark] " + programCount + " " + form + " programs: serialized "
+            + serialized.length + " bytes, binary " + binary.length + " bytes");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(binaryFile);
+    }
+
+    @Benchmark
+    public byte[] saveSerialized() throws IOException {
+        return encodeJava(programs);
+    }
+
+    @Benchmark
+    public byte[] saveBinary() {
+        return BinaryProgramFormat.encode(programs, Collections.<ExecutionResult>emptyList());
+    }
+
+    @Benchmark
+    public List<SProgram> loadSerialized() throws IOException {
+        return decodeJava(serialized);
+    }
+
+    @Benchmark
+    public List<SProgram> loadBinary() throws IOException {
+        return BinaryProgramFormat.decode(ByteBuffer.wrap(binary)).getPrograms();
+    }
+
+    @Benchmark
+    public List<SProgram> loadBinaryFile() throws IOException {
+        return BinaryProgramFormat.read(binaryFile).getPrograms();
+    }
+
+    private static byte[] encodeJava(List<SProgram> programs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>(programs));
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<SProgram> decodeJava(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (List<SProgram>) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
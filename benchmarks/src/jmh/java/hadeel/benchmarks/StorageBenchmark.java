@@ -0,0 +1,103 @@
+package hadeel.benchmarks;
+
+import hadeel.server.model.Architecture;
+import hadeel.server.model.ExecutionRecord;
+import hadeel.server.storage.StorageEngine;
+import hadeel.server.storage.StorageRecord;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// Durable write throughput (each append waits for its fsync) and recovery time from the log or a snapshot
+public class StorageBenchmark {
+    private static final long SEGMENT_BYTES = 8L * 1024 * 1024;
+
+    @State(Scope.Benchmark)
+    public static class Log {
+        StorageEngine engine;
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("semulator-wal-bench");
+            engine = StorageEngine.open(directory, SEGMENT_BYTES, 0);
+            engine.append(StorageRecord.userCreated("bench", Integer.MAX_VALUE)).join();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            engine.close();
+            deleteRecursively(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+        @Param({"10000", "100000"})
+        public int records;
+
+        // "log" replays every record; "snapshot" loads the compacted state instead
+        @Param({"log", "snapshot"})
+        public String source;
+
+        Path directory;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            directory = Files.createTempDirectory("semulator-recovery-bench");
+            try (StorageEngine engine = StorageEngine.open(directory, SEGMENT_BYTES, 0)) {
+                engine.append(StorageRecord.userCreated("bench", 1000));
+                for (int i = 0; i < records; i++) {
+                    engine.append(i % 2 == 0 ? StorageRecord.creditsDeducted("bench", 1)
+                        : StorageRecord.executionRecorded("bench", historyRecord(i)));
+                }
+                if (source.equals("snapshot")) {
+                    engine.checkpoint().join();
+                    while (engine.getLatestSnapshot() < 0) {
+                        Thread.sleep(10);
+                    }
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            deleteRecursively(directory);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void appendSingleWriter(Log log) {
+        log.engine.append(StorageRecord.creditsDeducted("bench", 1)).join();
+    }
+
+    // Concurrent writers share fsyncs through group commit
+    @Benchmark
+    @Threads(16)
+    public void appendConcurrentWriters(Log log) {
+        log.engine.append(StorageRecord.executionRecorded("bench", historyRecord(7))).join();
+    }
+
+    @Benchmark
+    public int recover(Recovery recovery) throws IOException {
+        try (StorageEngine engine = StorageEngine.open(recovery.directory, SEGMENT_BYTES, 0)) {
+            return engine.getRecoveredState().getHistorySize();
+        }
+    }
+
+    private static ExecutionRecord historyRecord(int run) {
+        return new ExecutionRecord(run, "Multiplication", false, Architecture.values()[0], 1,
+            Arrays.asList(run, 3), run * 3, 120, 125);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
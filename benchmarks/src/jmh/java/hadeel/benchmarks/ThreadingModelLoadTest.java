@@ -0,0 +1,102 @@
+package hadeel.benchmarks;
+
+import hadeel.engine.execution.ExecutionEngine;
+import hadeel.engine.execution.ExecutionTracer;
+import hadeel.engine.execution.ExpansionEngine;
+import hadeel.engine.model.SProgram;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Load test for the servlet threading models: a Tomcat-style pool of platform request threads versus one
+// virtual thread per request. As in the server, engine work always runs on a fixed pool of execution workers
+// and the request thread blocks until its run finishes. Idle debug requests block without using the engine.
+//
+// Run with: gradlew :benchmarks:loadTest [-Prequests=20000] [-PdebugShare=0.2] [-PidleMillis=50]
+public class ThreadingModelLoadTest {
+
+    // Tomcat's default maxThreads
+    private static final int PLATFORM_REQUEST_THREADS = 200;
+
+    private final SProgram expandedProgram;
+    private final int requests;
+    private final double debugShare;
+    private final long idleMillis;
+
+    public ThreadingModelLoadTest(int requests, double debugShare, long idleMillis) {
+        this.expandedProgram = ExpansionEngine.expand(BenchmarkPrograms.load(BenchmarkPrograms.MULTIPLICATION), 1);
+        this.requests = requests;
+        this.debugShare = debugShare;
+        this.idleMillis = idleMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        double debugShare = args.length > 1 ? Double.parseDouble(args[1]) : 0.2;
+        long idleMillis = args.length > 2 ? Long.parseLong(args[2]) : 50;
+
+        ThreadingModelLoadTest test = new ThreadingModelLoadTest(requests, debugShare, idleMillis);
+        System.out.printf("%d requests, %.0f%% idle debug requests of %d ms, %d execution workers%n",
+            requests, debugShare * 100, idleMillis, Runtime.getRuntime().availableProcessors());
+
+        // Warm the engine up so the first model measured is not penalised by JIT compilation
+        test.run("warmup", Executors.newVirtualThreadPerTaskExecutor(), false);
+
+        test.run("platform threads (" + PLATFORM_REQUEST_THREADS + ")",
+            Executors.newFixedThreadPool(PLATFORM_REQUEST_THREADS), true);
+        test.run("virtual threads", Executors.newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    private void run(String model, ExecutorService requestThreads, boolean report) throws Exception {
+        ExecutorService executionWorkers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        long[] latencies = new long[requests];
+        CountDownLatch done = new CountDownLatch(requests);
+        Random random = new Random(42);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int index = i;
+            boolean debug = random.nextDouble() < debugShare;
+            List<Integer> inputs = List.of(3 + random.nextInt(8), 3 + random.nextInt(8));
+            long submitted = System.nanoTime();
+
+            requestThreads.execute(() -> {
+                try {
+                    if (debug) {
+                        // An idle debug session: the request thread waits without doing engine work
+                        Thread.sleep(idleMillis);
+                    } else {
+                        executionWorkers.submit(() -> new ExecutionEngine()
+                            .executeExpanded(expandedProgram, inputs, 1, ExecutionTracer.NONE)).get();
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    latencies[index] = System.nanoTime() - submitted;
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        requestThreads.shutdown();
+        executionWorkers.shutdown();
+        if (!report) {
+            return;
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%-28s throughput %8.0f req/s   p50 %7.2f ms   p99 %7.2f ms   max %7.2f ms%n",
+            model,
+            requests / (elapsed / 1e9),
+            percentile(latencies, 0.50) / 1e6,
+            percentile(latencies, 0.99) / 1e6,
+            latencies[latencies.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -9,6 +9,8 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class HttpClientService {
     private final String baseUrl;
@@ -91,6 +93,60 @@ public class HttpClientService {
         return post("/api/execute", executeRequest, new TypeToken<Map<String, Object>>(){}.getType());
     }
 
+    // Queues the run and returns its jobId right away; poll getExecutionJob until state is COMPLETED
+    public Response<Map<String, Object>> submitExecution(Map<String, Object> executeRequest) {
+        return post("/api/execute/jobs", executeRequest, new TypeToken<Map<String, Object>>(){}.getType());
+    }
+
+    public Response<Map<String, Object>> getExecutionJob(String jobId, String username) {
+        return get("/api/execute/jobs/" + jobId + "?username=" + username,
+            new TypeToken<Map<String, Object>>(){}.getType());
+    }
+
+    // Runs one program over every input vector in "inputSets"; onResult sees each run as the server finishes it.
+    // The returned data is the batch summary (credits used, remaining credits).
+    public Response<Map<String, Object>> executeBatch(Map<String, Object> batchRequest,
+                                                      Consumer<Map<String, Object>> onResult) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/api/execute/batch"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(gson.toJson(batchRequest)))
+                .build();
+
+            HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+
+            if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                String body = response.body().reduce("", (acc, line) -> acc + line);
+                Map<String, Object> error = gson.fromJson(body, new TypeToken<Map<String, Object>>(){}.getType());
+                return new Response<>(false, null, (String) error.get("error"));
+            }
+
+            Map<String, Object> summary = null;
+            Iterator<String> lines = response.body().iterator();
+            while (lines.hasNext()) {
+                String line = lines.next();
+                if (line.isBlank()) {
+                    continue;
+                }
+                Map<String, Object> entry = gson.fromJson(line, new TypeToken<Map<String, Object>>(){}.getType());
+                if (Boolean.TRUE.equals(entry.get("summary"))) {
+                    summary = entry;
+                } else {
+                    onResult.accept(entry);
+                }
+            }
+
+            if (summary == null) {
+                return new Response<>(false, null, "Batch response ended without a summary");
+            }
+            boolean success = Boolean.TRUE.equals(summary.get("success"));
+            return new Response<>(success, summary, success ? null : (String) summary.get("error"));
+        } catch (Exception e) {
+            return new Response<>(false, null, e.getMessage());
+        }
+    }
+
     public Response<Map<String, Object>> startDebug(Map<String, Object> debugRequest) {
         return post("/api/debug/start", debugRequest, new TypeToken<Map<String, Object>>(){}.getType());
     }
@@ -105,6 +161,21 @@ public class HttpClientService {
         return post("/api/debug/stepback", body, new TypeToken<Map<String, Object>>(){}.getType());
     }
 
+    public Response<Map<String, Object>> debugGoToStep(String sessionId, int step) {
+        Map<String, Object> body = Map.of("sessionId", sessionId, "action", "goto", "step", step);
+        return post("/api/debug/navigate", body, new TypeToken<Map<String, Object>>(){}.getType());
+    }
+
+    public Response<Map<String, Object>> debugReverseContinue(String sessionId) {
+        Map<String, String> body = Map.of("sessionId", sessionId, "action", "reverseContinue");
+        return post("/api/debug/navigate", body, new TypeToken<Map<String, Object>>(){}.getType());
+    }
+
+    public Response<Map<String, Object>> debugLastChange(String sessionId, String variable) {
+        Map<String, String> body = Map.of("sessionId", sessionId, "action", "lastChange", "variable", variable);
+        return post("/api/debug/navigate", body, new TypeToken<Map<String, Object>>(){}.getType());
+    }
+
     public Response<Map<String, Object>> debugResume(String sessionId, String username) {
         Map<String, String> body = Map.of("sessionId", sessionId, "username", username);
         return post("/api/debug/resume", body, new TypeToken<Map<String, Object>>(){}.getType());
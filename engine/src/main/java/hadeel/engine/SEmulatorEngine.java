@@ -5,6 +5,9 @@ import hadeel.engine.parser.*;
 import hadeel.engine.execution.*;
 import java.util.*;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class SEmulatorEngine {
     private SProgram currentProgram;
@@ -193,14 +196,9 @@ public class SEmulatorEngine {
     
     public boolean saveState(String filePath) {
         try {
-            FileOutputStream fileOut = new FileOutputStream(filePath + ".semulator");
-            ObjectOutputStream out = new ObjectOutputStream(fileOut);
-            
-            out.writeObject(currentProgram);
-            out.writeObject(executionHistory);
-            
-            out.close();
-            fileOut.close();
+            List<SProgram> programs = currentProgram != null
+                ? Collections.singletonList(currentProgram) : Collections.emptyList();
+            BinaryProgramFormat.write(Paths.get(filePath + ".semulator"), programs, executionHistory);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -208,17 +206,33 @@ public class SEmulatorEngine {
         }
     }
     
-    @SuppressWarnings("unchecked")
     public boolean loadState(String filePath) {
+        Path path = Paths.get(filePath + ".semulator");
         try {
-            FileInputStream fileIn = new FileInputStream(filePath + ".semulator");
-            ObjectInputStream in = new ObjectInputStream(fileIn);
-            
+            if (!BinaryProgramFormat.isBinaryFormat(readPrefix(path))) {
+                return loadLegacyState(path);
+            }
+            BinaryProgramFormat.Contents contents = BinaryProgramFormat.read(path);
+            currentProgram = contents.getPrograms().isEmpty() ? null : contents.getPrograms().get(0);
+            executionHistory = new ArrayList<>(contents.getResults());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private byte[] readPrefix(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return in.readNBytes(4);
+        }
+    }
+    
+    // Files saved before the binary format used Java serialization
+    @SuppressWarnings("unchecked")
+    private boolean loadLegacyState(Path path) {
+        try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(path))) {
             currentProgram = (SProgram) in.readObject();
             executionHistory = (List<ExecutionResult>) in.readObject();
-            
-            in.close();
-            fileIn.close();
             return true;
         } catch (IOException | ClassNotFoundException e) {
             return false;
@@ -0,0 +1,141 @@
+package hadeel.engine.execution;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A debugger condition such as "z3 == 0" or "cycles > 5000": two operands, each a variable, a number or
+// the cycle count, compared with ==, !=, <, <=, > or >=. Variables are resolved to registers when the
+// condition is compiled, so testing it is a few array reads and never allocates.
+final class BreakCondition {
+
+    private static final Pattern SYNTAX = Pattern.compile("\\s*(-?\\w+)\\s*(==|!=|<=|>=|<|>)\\s*(-?\\w+)\\s*");
+
+    private static final int CONSTANT = 0;
+    private static final int REGISTER = 1;
+    private static final int CYCLES = 2;
+
+    private static final int EQUAL = 0;
+    private static final int NOT_EQUAL = 1;
+    private static final int LESS = 2;
+    private static final int LESS_OR_EQUAL = 3;
+    private static final int GREATER = 4;
+    private static final int GREATER_OR_EQUAL = 5;
+
+    private final String text;
+    private final int leftKind;
+    private final int left;
+    private final int comparison;
+    private final int rightKind;
+    private final int right;
+
+    private BreakCondition(String text, int leftKind, int left, int comparison, int rightKind, int right) {
+        this.text = text;
+        this.leftKind = leftKind;
+        this.left = left;
+        this.comparison = comparison;
+        this.rightKind = rightKind;
+        this.right = right;
+    }
+
+    // Inputs the program never reads keep their value for the whole run, so they compile to constants
+    static BreakCondition compile(String text, CompiledProgram program, Map<String, Integer> constants) {
+        Matcher matcher = text != null ? SYNTAX.matcher(text) : null;
+        if (matcher == null || !matcher.matches()) {
+            throw new IllegalArgumentException("Invalid condition '" + text
+                + "': expected <variable|number|cycles> <==|!=|<|<=|>|>=> <variable|number|cycles>");
+        }
+
+        int[] leftOperand = operand(matcher.group(1), program, constants);
+        int[] rightOperand = operand(matcher.group(3), program, constants);
+        boolean leftCycles = leftOperand[0] == CYCLES;
+        boolean rightCycles = rightOperand[0] == CYCLES;
+        // A cycle condition can only change where the count passes its constant, which resume relies on
+        if ((leftCycles && rightOperand[0] != CONSTANT) || (rightCycles && leftOperand[0] != CONSTANT)) {
+            throw new IllegalArgumentException("Invalid condition '" + text + "': cycles can only be compared with a number");
+        }
+
+        return new BreakCondition(text.trim(), leftOperand[0], leftOperand[1], comparison(matcher.group(2)),
+            rightOperand[0], rightOperand[1]);
+    }
+
+    private static int[] operand(String token, CompiledProgram program, Map<String, Integer> constants) {
+        if (token.equals("cycles")) {
+            return new int[]{CYCLES, 0};
+        }
+        if (token.matches("-?\\d+")) {
+            try {
+                return new int[]{CONSTANT, Integer.parseInt(token)};
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Number out of range: " + token);
+            }
+        }
+        int register = program.getRegister(token);
+        if (register >= 0) {
+            return new int[]{REGISTER, register};
+        }
+        Integer constant = constants.get(token);
+        if (constant != null) {
+            return new int[]{CONSTANT, constant};
+        }
+        throw new IllegalArgumentException("Unknown variable: " + token);
+    }
+
+    private static int comparison(String operator) {
+        switch (operator) {
+            case "==": return EQUAL;
+            case "!=": return NOT_EQUAL;
+            case "<": return LESS;
+            case "<=": return LESS_OR_EQUAL;
+            case ">": return GREATER;
+            default: return GREATER_OR_EQUAL;
+        }
+    }
+
+    boolean holds(int[] registers, int cycles) {
+        int a = value(leftKind, left, registers, cycles);
+        int b = value(rightKind, right, registers, cycles);
+        switch (comparison) {
+            case EQUAL: return a == b;
+            case NOT_EQUAL: return a != b;
+            case LESS: return a < b;
+            case LESS_OR_EQUAL: return a <= b;
+            case GREATER: return a > b;
+            default: return a >= b;
+        }
+    }
+
+    private static int value(int kind, int operand, int[] registers, int cycles) {
+        switch (kind) {
+            case REGISTER: return registers[operand];
+            case CYCLES: return cycles;
+            default: return operand;
+        }
+    }
+
+    // Marks the registers the condition reads
+    void markReads(boolean[] registers) {
+        if (leftKind == REGISTER) {
+            registers[left] = true;
+        }
+        if (rightKind == REGISTER) {
+            registers[right] = true;
+        }
+    }
+
+    // The constant a cycle condition compares against, or -1 when it does not read the cycle count
+    int cycleThreshold() {
+        if (leftKind == CYCLES) {
+            return Math.max(right, 0);
+        }
+        if (rightKind == CYCLES) {
+            return Math.max(left, 0);
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
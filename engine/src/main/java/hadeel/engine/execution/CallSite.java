@@ -0,0 +1,70 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.SFunction;
+
+// A QUOTE or nested call resolved at compile time: target function, caller argument slots, nested calls
+public class CallSite {
+
+    // Marks an argument that is computed by a nested call rather than read from a register
+    public static final int NESTED = -1;
+
+    static class Binding {
+        final CompiledProgram body;
+        final int[] parameterRegisters;
+
+        Binding(CompiledProgram body, int[] parameterRegisters) {
+            this.body = body;
+            this.parameterRegisters = parameterRegisters;
+        }
+    }
+
+    private final String functionName;
+    private final SFunction function;
+    private final int[] argumentRegisters;
+    private final CallSite[] nestedCalls;
+    private Binding binding;
+
+    CallSite(String functionName, SFunction function, int[] argumentRegisters, CallSite[] nestedCalls) {
+        this.functionName = functionName;
+        this.function = function;
+        this.argumentRegisters = argumentRegisters;
+        this.nestedCalls = nestedCalls;
+    }
+
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    // Null when no function of that name was in scope at compile time
+    public SFunction getFunction() {
+        return function;
+    }
+
+    public int getArgumentCount() {
+        return argumentRegisters.length;
+    }
+
+    int[] getArgumentRegisters() {
+        return argumentRegisters;
+    }
+
+    CallSite[] getNestedCalls() {
+        return nestedCalls;
+    }
+
+    Binding getBinding() {
+        return binding;
+    }
+
+    // Bodies are compiled lazily so recursive functions do not recurse at compile time.
+    // Binding is immutable, so a racing second bind only repeats the same work.
+    Binding bind(CompiledProgram body) {
+        int[] parameterRegisters = new int[argumentRegisters.length];
+        for (int i = 0; i < parameterRegisters.length; i++) {
+            parameterRegisters[i] = body.getRegister("x" + (i + 1));
+        }
+        Binding bound = new Binding(body, parameterRegisters);
+        binding = bound;
+        return bound;
+    }
+}
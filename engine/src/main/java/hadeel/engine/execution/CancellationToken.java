@@ -0,0 +1,14 @@
+package hadeel.engine.execution;
+
+// Shared between the thread running a program and whoever may stop it (timeouts, shutdown, a user abort)
+public class CancellationToken {
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
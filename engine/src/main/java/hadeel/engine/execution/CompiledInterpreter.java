@@ -0,0 +1,336 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.*;
+import java.util.*;
+
+public class CompiledInterpreter {
+
+    // Function results are never negative, so this marks a call to an unknown function
+    private static final int UNRESOLVED = -1;
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    // The cancellation flag is volatile, so it is polled every 1024 instructions rather than every one
+    private static final int CANCELLATION_CHECK_MASK = 1023;
+
+    private final Map<SFunction, CompiledProgram> compiledFunctions = new IdentityHashMap<>();
+    private final ExecutionTracer tracer;
+    private final QuoteMemo executionMemo;
+    private final QuoteMemo sharedMemo;
+
+    private CancellationToken cancellation;
+    // Null while running; set when a budget or cancellation stops the run
+    private ExecutionStatus stopStatus;
+    // Where the last top-level run stopped and how many instructions it ran
+    private int stoppedAt;
+    private long stepsRun;
+    // Counted only while tracing: jumps taken, and the instructions a scan for their labels would have visited
+    private long jumpsTaken;
+    private long labelScanStepsAvoided;
+
+    public CompiledInterpreter() {
+        this(ExecutionTracer.NONE);
+    }
+
+    public CompiledInterpreter(ExecutionTracer tracer) {
+        this(tracer, null);
+    }
+
+    // sharedMemo may be null; it outlives this execution, while the execution memo does not
+    public CompiledInterpreter(ExecutionTracer tracer, QuoteMemo sharedMemo) {
+        this.tracer = tracer;
+        this.executionMemo = new QuoteMemo();
+        this.sharedMemo = sharedMemo;
+    }
+
+    public ExecutionResult execute(CompiledProgram program, List<Integer> inputs, int degree) {
+        return execute(program, inputs, degree, UNLIMITED, new CancellationToken());
+    }
+
+    // Stops before the first instruction whose cycles would exceed cycleBudget, so the cut-off is deterministic
+    public ExecutionResult execute(CompiledProgram program, List<Integer> inputs, int degree,
+                                   int cycleBudget, CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        this.stopStatus = null;
+        this.jumpsTaken = 0;
+        this.labelScanStepsAvoided = 0;
+
+        int[] registers = new int[program.getRegisterCount()];
+        boolean[] written = new boolean[program.getRegisterCount()];
+        Map<String, Integer> finalVariables = new HashMap<>();
+
+        for (int i = 0; i < inputs.size(); i++) {
+            String name = "x" + (i + 1);
+            int register = program.getRegister(name);
+            if (register >= 0) {
+                registers[register] = inputs.get(i);
+                written[register] = true;
+            } else {
+                // Inputs the program never references still show up in the final state
+                finalVariables.put(name, inputs.get(i));
+            }
+        }
+        registers[CompiledProgram.OUTPUT_REGISTER] = 0;
+        written[CompiledProgram.OUTPUT_REGISTER] = true;
+
+        int cycles = run(program, registers, written, 0, Math.max(0, cycleBudget), Long.MAX_VALUE, null, null);
+
+        if (tracer.isEnabled() && executionMemo.getHits() > 0) {
+            tracer.onMessage("CompiledInterpreter", "QUOTE memo: " + executionMemo.getHits() + " hits, "
+                + executionMemo.getCyclesSaved() + " function cycles not re-run");
+        }
+        if (tracer.isEnabled() && jumpsTaken > 0) {
+            tracer.onMessage("CompiledInterpreter", "Jumps: " + jumpsTaken + " taken through the jump table, "
+                + labelScanStepsAvoided + " label scan steps avoided");
+        }
+
+        for (int register = 0; register < registers.length; register++) {
+            if (written[register]) {
+                finalVariables.put(program.getRegisterName(register), registers[register]);
+            }
+        }
+
+        ExecutionResult result = new ExecutionResult(
+            registers[CompiledProgram.OUTPUT_REGISTER],
+            ExecutionContext.sortVariables(finalVariables),
+            cycles,
+            degree,
+            inputs
+        );
+        if (stopStatus != null) {
+            result.setStatus(stopStatus);
+            if (tracer.isEnabled()) {
+                tracer.onMessage("CompiledInterpreter", "Stopped early (" + stopStatus + ") after " + cycles + " cycles");
+            }
+        }
+        return result;
+    }
+
+    // Continues a paused run of the program on its register file, starting at pc. It stops at the end, before
+    // an instruction the budget cannot pay for, after maxSteps instructions, or on reaching a pc marked in
+    // pauseAt (null for none) once at least one instruction ran. Every stop falls between two instructions,
+    // so calling it again with getStoppedAt() carries on exactly where it left off.
+    public int resume(CompiledProgram program, int[] registers, boolean[] written, int pc, int cycleBudget,
+                      long maxSteps, boolean[] pauseAt, CancellationToken cancellation) {
+        return resume(program, registers, written, pc, cycleBudget, maxSteps, pauseAt, null, cancellation);
+    }
+
+    // As above, also marking in visited (null for none) every line the run executes
+    public int resume(CompiledProgram program, int[] registers, boolean[] written, int pc, int cycleBudget,
+                      long maxSteps, boolean[] pauseAt, boolean[] visited, CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        this.stopStatus = null;
+        return run(program, registers, written, pc, Math.max(0, cycleBudget), maxSteps, pauseAt, visited);
+    }
+
+    // Null when the last resume ended the program, reached a pause point or ran its maxSteps
+    public ExecutionStatus getStopStatus() {
+        return stopStatus;
+    }
+
+    public int getStoppedAt() {
+        return stoppedAt;
+    }
+
+    public long getStepsRun() {
+        return stepsRun;
+    }
+
+    private int run(CompiledProgram program, int[] r, boolean[] written, int startPc, int budget,
+                    long maxSteps, boolean[] pauseAt, boolean[] visited) {
+        InstructionName[] opcodes = program.getOpcodes();
+        int[] registers = program.getRegisters();
+        int[] operands = program.getOperands();
+        int[] jumpTargets = program.getJumpTargets();
+        int[] cycles = program.getCycles();
+        int length = opcodes.length;
+        boolean tracing = tracer.isEnabled();
+
+        int pc = startPc;
+        int consumed = 0;
+        long steps = 0;
+        int value;
+
+        execution:
+        while (pc < length) {
+            if (steps == maxSteps || (pauseAt != null && steps > 0 && pauseAt[pc])) {
+                break;
+            }
+            if (cycles[pc] > budget - consumed) {
+                stopStatus = ExecutionStatus.BUDGET_EXCEEDED;
+                break;
+            }
+            if ((++steps & CANCELLATION_CHECK_MASK) == 0 && cancellation.isCancelled()) {
+                stopStatus = ExecutionStatus.CANCELLED;
+                steps--;
+                break;
+            }
+
+            int index = pc;
+            int register = registers[pc];
+            consumed += cycles[pc];
+            if (visited != null) {
+                visited[index] = true;
+            }
+
+            switch (opcodes[pc]) {
+                case INCREASE:
+                    value = r[register] + 1;
+                    r[register] = value < 0 ? 0 : value;
+                    written[register] = true;
+                    pc++;
+                    break;
+                case DECREASE:
+                    if (r[register] > 0) {
+                        r[register]--;
+                        written[register] = true;
+                    }
+                    pc++;
+                    break;
+                case JUMP_NOT_ZERO:
+                    pc = r[register] != 0 ? jumpTargets[pc] : pc + 1;
+                    break;
+                case ZERO_VARIABLE:
+                    r[register] = 0;
+                    written[register] = true;
+                    pc++;
+                    break;
+                case GOTO_LABEL:
+                    pc = jumpTargets[pc];
+                    break;
+                case ASSIGNMENT:
+                    value = r[operands[pc]];
+                    r[register] = value < 0 ? 0 : value;
+                    written[register] = true;
+                    pc++;
+                    break;
+                case CONSTANT_ASSIGNMENT:
+                    value = operands[pc];
+                    r[register] = value < 0 ? 0 : value;
+                    written[register] = true;
+                    pc++;
+                    break;
+                case JUMP_ZERO:
+                    pc = r[register] == 0 ? jumpTargets[pc] : pc + 1;
+                    break;
+                case JUMP_EQUAL_CONSTANT:
+                    pc = r[register] == operands[pc] ? jumpTargets[pc] : pc + 1;
+                    break;
+                case JUMP_EQUAL_VARIABLE:
+                    pc = r[register] == r[operands[pc]] ? jumpTargets[pc] : pc + 1;
+                    break;
+                case QUOTE:
+                    value = invoke(program, program.getCallSites()[pc], r);
+                    if (stopStatus != null) {
+                        // The call never finished, so neither did the QUOTE: leave pc on it, unbilled
+                        consumed -= cycles[index];
+                        steps--;
+                        break execution;
+                    }
+                    if (value != UNRESOLVED) {
+                        r[register] = value;
+                        written[register] = true;
+                    }
+                    pc++;
+                    break;
+                default:
+                    // NEUTRAL, and instructions the engine has no runtime support for
+                    pc++;
+            }
+
+            if (tracing) {
+                // Only a taken jump leaves the next instruction; a jump to EXIT needs no scan
+                if (pc != index + 1) {
+                    jumpsTaken++;
+                    labelScanStepsAvoided += pc < length ? pc + 1 : 0;
+                }
+                tracer.onInstruction(program.getName(), index, opcodes[index],
+                    program.getRegisterName(register), r[register], consumed);
+            }
+        }
+
+        // Callee runs finish first, so a top-level run always writes these last
+        stoppedAt = pc;
+        stepsRun = steps;
+        return consumed;
+    }
+
+    // Runs a function body in its own register file; the callee's cycles are not billed to the caller,
+    // so they are not budgeted either. A body that never terminates is stopped through the cancellation token.
+    private int invoke(CompiledProgram caller, CallSite site, int[] callerRegisters) {
+        SFunction function = site.getFunction();
+        if (function == null) {
+            return UNRESOLVED;
+        }
+
+        int[] argumentRegisters = site.getArgumentRegisters();
+        CallSite[] nestedCalls = site.getNestedCalls();
+        int[] values = new int[argumentRegisters.length];
+        for (int i = 0; i < values.length; i++) {
+            int value = nestedCalls[i] != null
+                ? evaluateNested(caller, nestedCalls[i], callerRegisters)
+                : callerRegisters[argumentRegisters[i]];
+            values[i] = value < 0 ? 0 : value;
+        }
+
+        QuoteMemo.Entry memoized = lookupMemo(function, values);
+        if (memoized != null) {
+            if (tracer.isEnabled()) {
+                tracer.onCall(site.getFunctionName(), memoized.getResult());
+            }
+            return memoized.getResult();
+        }
+
+        CallSite.Binding binding = site.getBinding();
+        if (binding == null) {
+            binding = site.bind(compiledFunctions.computeIfAbsent(function,
+                f -> ProgramCompiler.compile(f, caller.getScope())));
+        }
+
+        int[] registers = new int[binding.body.getRegisterCount()];
+        int[] parameterRegisters = binding.parameterRegisters;
+        for (int i = 0; i < values.length; i++) {
+            if (parameterRegisters[i] >= 0) {
+                registers[parameterRegisters[i]] = values[i];
+            }
+        }
+
+        int calleeCycles = run(binding.body, registers, new boolean[registers.length], 0, UNLIMITED,
+            Long.MAX_VALUE, null, null);
+
+        if (stopStatus != null) {
+            return UNRESOLVED;
+        }
+
+        int result = registers[CompiledProgram.OUTPUT_REGISTER];
+        executionMemo.record(function, values, result, calleeCycles);
+        if (sharedMemo != null) {
+            sharedMemo.record(function, values, result, calleeCycles);
+        }
+
+        if (tracer.isEnabled()) {
+            tracer.onCall(site.getFunctionName(), result);
+        }
+        return result;
+    }
+
+    private QuoteMemo.Entry lookupMemo(SFunction function, int[] values) {
+        QuoteMemo.Entry entry = executionMemo.lookup(function, values);
+        if (entry == null && sharedMemo != null) {
+            entry = sharedMemo.lookup(function, values);
+            if (entry != null) {
+                executionMemo.record(function, values, entry.getResult(), entry.getCycles());
+            }
+        }
+        return entry;
+    }
+
+    public QuoteMemo getExecutionMemo() {
+        return executionMemo;
+    }
+
+    private int evaluateNested(CompiledProgram caller, CallSite site, int[] callerRegisters) {
+        int value = invoke(caller, site, callerRegisters);
+        return value == UNRESOLVED ? 0 : value;
+    }
+}
@@ -0,0 +1,94 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.InstructionName;
+import hadeel.engine.model.SFunction;
+import hadeel.engine.model.SProgram;
+
+import java.util.Map;
+
+public class CompiledProgram {
+
+    // Register 0 always holds y so results can be read without a lookup
+    public static final int OUTPUT_REGISTER = 0;
+
+    private final String name;
+    private final InstructionName[] opcodes;
+    private final int[] registers;
+    private final int[] operands;
+    private final int[] jumpTargets;
+    private final int[] cycles;
+    private final CallSite[] callSites;
+    private final String[] registerNames;
+    private final Map<String, Integer> registerIndex;
+    private final SProgram scope;
+
+    CompiledProgram(String name, InstructionName[] opcodes, int[] registers, int[] operands,
+                    int[] jumpTargets, int[] cycles, CallSite[] callSites,
+                    String[] registerNames, Map<String, Integer> registerIndex,
+                    SProgram scope) {
+        this.name = name;
+        this.opcodes = opcodes;
+        this.registers = registers;
+        this.operands = operands;
+        this.jumpTargets = jumpTargets;
+        this.cycles = cycles;
+        this.callSites = callSites;
+        this.registerNames = registerNames;
+        this.registerIndex = registerIndex;
+        this.scope = scope;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int length() {
+        return opcodes.length;
+    }
+
+    public int getRegisterCount() {
+        return registerNames.length;
+    }
+
+    public String getRegisterName(int register) {
+        return registerNames[register];
+    }
+
+    // Returns -1 when the program never references the variable
+    public int getRegister(String variable) {
+        Integer register = registerIndex.get(variable);
+        return register != null ? register : -1;
+    }
+
+    public SFunction findFunction(String functionName) {
+        return scope.getFunction(functionName);
+    }
+
+    SProgram getScope() {
+        return scope;
+    }
+
+    InstructionName[] getOpcodes() {
+        return opcodes;
+    }
+
+    int[] getRegisters() {
+        return registers;
+    }
+
+    int[] getOperands() {
+        return operands;
+    }
+
+    int[] getJumpTargets() {
+        return jumpTargets;
+    }
+
+    int[] getCycles() {
+        return cycles;
+    }
+
+    CallSite[] getCallSites() {
+        return callSites;
+    }
+}
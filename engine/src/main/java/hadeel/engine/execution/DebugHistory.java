@@ -0,0 +1,506 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.InstructionName;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+// Step history of a debug session, kept in chunks of CHUNK_STEPS consecutive steps. Each chunk holds the full
+// register file from before its first step, and optionally one delta per step: the line and cycles before
+// the step, and the register it changed with the old value. Single steps record their deltas as they go;
+// a resume runs the core at full speed and only opens chunks, leaving their deltas out. The core is
+// deterministic, so a chunk's deltas can always be rebuilt by replaying it from its checkpoint, which is
+// done the first time a step back needs them. Chunks are also indexed by the lines they ran and the registers
+// they changed, so searching backwards is a binary search per line or register that only replays the chunks
+// the index names, into scratch arrays so a search never keeps a resumed chunk's deltas around.
+class DebugHistory {
+
+    static final int CHUNK_STEPS = 4096;
+
+    private static final int NO_CHANGE = -1;
+
+    private static class Chunk {
+        final int firstStep;
+        final int line;
+        final int cycles;
+        final int[] registers;
+        int count;
+        // Null until the chunk's deltas are recorded or rebuilt
+        int[] lines;
+        int[] cyclesBefore;
+        int[] changed;
+        int[] oldValues;
+
+        Chunk(int firstStep, int line, int cycles, int[] registers) {
+            this.firstStep = firstStep;
+            this.line = line;
+            this.cycles = cycles;
+            this.registers = registers;
+        }
+
+        boolean hasDeltas() {
+            return lines != null;
+        }
+
+        void allocateDeltas(int capacity) {
+            lines = new int[capacity];
+            cyclesBefore = new int[capacity];
+            changed = new int[capacity];
+            oldValues = new int[capacity];
+        }
+
+        void growDeltas() {
+            int capacity = Math.min(lines.length * 2, CHUNK_STEPS);
+            lines = Arrays.copyOf(lines, capacity);
+            cyclesBefore = Arrays.copyOf(cyclesBefore, capacity);
+            changed = Arrays.copyOf(changed, capacity);
+            oldValues = Arrays.copyOf(oldValues, capacity);
+        }
+
+        void dropDeltas() {
+            lines = null;
+            cyclesBefore = null;
+            changed = null;
+            oldValues = null;
+        }
+    }
+
+    // Ascending chunk numbers, trimmed from the end as chunks are dropped
+    private static class ChunkList {
+        private int[] chunks = new int[4];
+        private int size;
+
+        // Returns whether the chunk was new to the list
+        boolean add(int chunk) {
+            if (size > 0 && chunks[size - 1] == chunk) {
+                return false;
+            }
+            if (size == chunks.length) {
+                chunks = Arrays.copyOf(chunks, size * 2);
+            }
+            chunks[size++] = chunk;
+            return true;
+        }
+
+        // Largest chunk below the given one, or -1
+        int lastBefore(int chunk) {
+            int index = firstAtOrAfter(chunk) - 1;
+            return index >= 0 ? chunks[index] : -1;
+        }
+
+        // Returns how many entries it dropped
+        int trimFrom(int chunk) {
+            int kept = firstAtOrAfter(chunk);
+            int dropped = size - kept;
+            size = kept;
+            return dropped;
+        }
+
+        private int firstAtOrAfter(int chunk) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (chunks[mid] < chunk) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final CompiledProgram program;
+    private final CompiledInterpreter interpreter;
+    // Chunk i starts at step i * CHUNK_STEPS, and none is left empty
+    private final List<Chunk> chunks;
+    private int size;
+
+    // Indexed by line: chunks with a step that started there. Indexed by register: chunks with a recorded step
+    // that changed it, or a resumed step on a line that writes it. Undoing steps leaves a chunk listed, so a
+    // list may name a chunk without a match, but never misses one that has one. Null until first needed.
+    private final ChunkList[] chunksByLine;
+    private final ChunkList[] chunksByRegister;
+    private long indexEntries;
+    // Lines the core marked while running the last chunk at full speed, indexed the next time they are needed
+    private final boolean[] visited;
+    private boolean visitedPending;
+
+    private final int[] replayRegisters;
+    private final boolean[] replayWritten;
+    // Reused when a search has to look inside a chunk that has no deltas
+    private Chunk scratch;
+
+    DebugHistory(CompiledProgram program, CompiledInterpreter interpreter) {
+        this.program = program;
+        this.interpreter = interpreter;
+        this.chunks = new ArrayList<>();
+        this.chunksByLine = new ChunkList[program.length()];
+        this.chunksByRegister = new ChunkList[program.getRegisterCount()];
+        this.visited = new boolean[program.length()];
+        this.replayRegisters = new int[program.getRegisterCount()];
+        this.replayWritten = new boolean[program.getRegisterCount()];
+    }
+
+    // Steps recorded so far; the session's current position
+    int size() {
+        return size;
+    }
+
+    // Called before every step or run with the state it starts from; starts a chunk when the last is full
+    void ensureChunk(int line, int cycles, int[] registers) {
+        if (chunks.isEmpty() || last().count == CHUNK_STEPS) {
+            indexVisited();
+            chunks.add(new Chunk(size, line, cycles, registers.clone()));
+        }
+    }
+
+    // How many steps the current chunk still takes; a run must stop there so the next chunk gets its checkpoint
+    int stepsLeftInChunk() {
+        return CHUNK_STEPS - last().count;
+    }
+
+    // Where a full-speed run marks the lines it executes; skip then has them indexed for the current chunk
+    boolean[] visitedLines() {
+        return visited;
+    }
+
+    // A chunk a run left without deltas stays that way; its steps are replayed when needed
+    void record(int line, int cyclesBefore, int register, int oldValue, int newValue) {
+        Chunk chunk = last();
+        int current = chunks.size() - 1;
+        index(chunksByLine, line, current);
+        if (oldValue != newValue) {
+            index(chunksByRegister, register, current);
+        }
+        if (!chunk.hasDeltas()) {
+            if (chunk.count > 0) {
+                chunk.count++;
+                size++;
+                return;
+            }
+            chunk.allocateDeltas(64);
+        }
+        int i = chunk.count;
+        if (i == chunk.lines.length) {
+            chunk.growDeltas();
+        }
+        chunk.lines[i] = line;
+        chunk.cyclesBefore[i] = cyclesBefore;
+        chunk.changed[i] = oldValue != newValue ? register : NO_CHANGE;
+        chunk.oldValues[i] = oldValue;
+        chunk.count++;
+        size++;
+    }
+
+    // Accounts for steps the core ran without recording them
+    void skip(long steps) {
+        Chunk chunk = last();
+        if (steps == 0) {
+            dropIfEmpty(chunk);
+            return;
+        }
+        chunk.dropDeltas();
+        chunk.count += (int) steps;
+        size += (int) steps;
+        visitedPending = true;
+    }
+
+    // Reverts the register changed by the last step and drops it; returns {line, cycles} before that step
+    void undo(int[] registers, int[] lineAndCycles) {
+        Chunk chunk = last();
+        if (!chunk.hasDeltas()) {
+            materialize(chunk);
+        }
+        int i = --chunk.count;
+        size--;
+        if (chunk.changed[i] != NO_CHANGE) {
+            registers[chunk.changed[i]] = chunk.oldValues[i];
+        }
+        lineAndCycles[0] = chunk.lines[i];
+        lineAndCycles[1] = chunk.cyclesBefore[i];
+        dropIfEmpty(chunk);
+    }
+
+    // Restores the state after the given step from the checkpoint of its chunk, running the core over at
+    // most one chunk of steps, and forgets every later step
+    void goTo(int step, int[] registers, int[] lineAndCycles) {
+        int index = step / CHUNK_STEPS;
+        Chunk chunk = chunks.get(index);
+        if (chunks.size() > index + 1) {
+            dropChunksFrom(index + 1);
+        }
+
+        System.arraycopy(chunk.registers, 0, registers, 0, registers.length);
+        int into = step - chunk.firstStep;
+        int consumed = interpreter.resume(program, registers, replayWritten, chunk.line,
+            CompiledInterpreter.UNLIMITED, into, null, new CancellationToken());
+        lineAndCycles[0] = into > 0 ? interpreter.getStoppedAt() : chunk.line;
+        lineAndCycles[1] = chunk.cycles + consumed;
+
+        chunk.count = into;
+        size = step;
+        dropIfEmpty(chunk);
+    }
+
+    // Latest step before the given one that started on a line marked in lines, or -1
+    int lastStepOnLine(boolean[] lines, int before) {
+        return searchBack(before, lines, NO_CHANGE);
+    }
+
+    // Latest step before the given one that changed the register, or -1
+    int lastChangeOf(int register, int before) {
+        return searchBack(before, null, register);
+    }
+
+    private int searchBack(int before, boolean[] lines, int register) {
+        int end = Math.min(before, size);
+        if (end <= 0) {
+            return -1;
+        }
+        indexVisited();
+        int[] wanted = null;
+        if (lines != null) {
+            int count = 0;
+            wanted = new int[lines.length];
+            for (int line = 0; line < lines.length; line++) {
+                if (lines[line]) {
+                    wanted[count++] = line;
+                }
+            }
+            wanted = Arrays.copyOf(wanted, count);
+        }
+
+        int c = (end - 1) / CHUNK_STEPS + 1;
+        while ((c = lastCandidate(wanted, register, c)) >= 0) {
+            Chunk chunk = chunks.get(c);
+            Chunk deltas = chunk;
+            if (!chunk.hasDeltas()) {
+                if (scratch == null) {
+                    scratch = new Chunk(0, 0, 0, null);
+                    scratch.allocateDeltas(CHUNK_STEPS);
+                }
+                replay(chunk, scratch);
+                deltas = scratch;
+            }
+            for (int i = Math.min(chunk.count, end - chunk.firstStep) - 1; i >= 0; i--) {
+                if (lines != null ? lines[deltas.lines[i]] : deltas.changed[i] == register) {
+                    return chunk.firstStep + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Latest chunk below limit the index names for any of the lines, or for the register when lines is null
+    private int lastCandidate(int[] lines, int register, int limit) {
+        if (lines == null) {
+            ChunkList list = chunksByRegister[register];
+            return list != null ? list.lastBefore(limit) : -1;
+        }
+        int last = -1;
+        for (int line : lines) {
+            ChunkList list = chunksByLine[line];
+            if (list != null) {
+                last = Math.max(last, list.lastBefore(limit));
+            }
+        }
+        return last;
+    }
+
+    private void index(ChunkList[] lists, int slot, int chunk) {
+        ChunkList list = lists[slot];
+        if (list == null) {
+            list = new ChunkList();
+            lists[slot] = list;
+        }
+        if (list.add(chunk)) {
+            indexEntries++;
+        }
+    }
+
+    // Adds the lines the last full-speed runs marked to the index under the current chunk. Their registers
+    // are indexed by the instruction, which may list a chunk where the value happened not to change.
+    private void indexVisited() {
+        if (!visitedPending) {
+            return;
+        }
+        visitedPending = false;
+        int current = chunks.size() - 1;
+        InstructionName[] opcodes = program.getOpcodes();
+        int[] writes = program.getRegisters();
+        for (int line = 0; line < visited.length; line++) {
+            if (visited[line]) {
+                visited[line] = false;
+                index(chunksByLine, line, current);
+                if (ExecutionDebugger.writesRegister(opcodes[line])) {
+                    index(chunksByRegister, writes[line], current);
+                }
+            }
+        }
+    }
+
+    // Forgets chunk first and every later one, with their index entries and any marks not yet indexed
+    private void dropChunksFrom(int first) {
+        while (chunks.size() > first) {
+            chunks.remove(chunks.size() - 1);
+        }
+        if (visitedPending) {
+            Arrays.fill(visited, false);
+            visitedPending = false;
+        }
+        for (ChunkList list : chunksByLine) {
+            if (list != null) {
+                indexEntries -= list.trimFrom(first);
+            }
+        }
+        for (ChunkList list : chunksByRegister) {
+            if (list != null) {
+                indexEntries -= list.trimFrom(first);
+            }
+        }
+    }
+
+    private void materialize(Chunk chunk) {
+        chunk.allocateDeltas(Math.max(chunk.count, 64));
+        replay(chunk, chunk);
+    }
+
+    // Re-runs the chunk one instruction at a time from its checkpoint, writing its deltas into target
+    private void replay(Chunk chunk, Chunk target) {
+        int[] r = replayRegisters;
+        System.arraycopy(chunk.registers, 0, r, 0, r.length);
+        int[] writes = program.getRegisters();
+        CancellationToken cancellation = new CancellationToken();
+        int pc = chunk.line;
+        int cycles = chunk.cycles;
+        for (int i = 0; i < chunk.count; i++) {
+            int register = writes[pc];
+            int old = r[register];
+            target.lines[i] = pc;
+            target.cyclesBefore[i] = cycles;
+            target.oldValues[i] = old;
+            cycles += interpreter.resume(program, r, replayWritten, pc, CompiledInterpreter.UNLIMITED, 1, null,
+                cancellation);
+            target.changed[i] = r[register] != old ? register : NO_CHANGE;
+            pc = interpreter.getStoppedAt();
+        }
+    }
+
+    // Writes every chunk out, deltas included so reading back needs no replay, and then forgets them
+    void spillTo(DataOutputStream out) throws IOException {
+        indexVisited();
+        out.writeInt(size);
+        out.writeInt(chunks.size());
+        for (Chunk chunk : chunks) {
+            out.writeInt(chunk.line);
+            out.writeInt(chunk.cycles);
+            out.writeInt(chunk.count);
+            writeInts(out, chunk.registers, chunk.registers.length);
+            out.writeBoolean(chunk.hasDeltas());
+            if (chunk.hasDeltas()) {
+                writeInts(out, chunk.lines, chunk.count);
+                writeInts(out, chunk.cyclesBefore, chunk.count);
+                writeInts(out, chunk.changed, chunk.count);
+                writeInts(out, chunk.oldValues, chunk.count);
+            }
+        }
+        writeIndex(out, chunksByLine);
+        writeIndex(out, chunksByRegister);
+        chunks.clear();
+        Arrays.fill(chunksByLine, null);
+        Arrays.fill(chunksByRegister, null);
+        indexEntries = 0;
+        scratch = null;
+    }
+
+    // Reads back what spillTo wrote
+    void restoreFrom(DataInputStream in) throws IOException {
+        chunks.clear();
+        size = in.readInt();
+        int chunkCount = in.readInt();
+        for (int c = 0; c < chunkCount; c++) {
+            int line = in.readInt();
+            int cycles = in.readInt();
+            int count = in.readInt();
+            Chunk chunk = new Chunk(c * CHUNK_STEPS, line, cycles, readInts(in, program.getRegisterCount()));
+            chunk.count = count;
+            if (in.readBoolean()) {
+                chunk.allocateDeltas(Math.max(count, 64));
+                readInts(in, chunk.lines, count);
+                readInts(in, chunk.cyclesBefore, count);
+                readInts(in, chunk.changed, count);
+                readInts(in, chunk.oldValues, count);
+            }
+            chunks.add(chunk);
+        }
+        readIndex(in, chunksByLine);
+        readIndex(in, chunksByRegister);
+    }
+
+    private static void writeIndex(DataOutputStream out, ChunkList[] lists) throws IOException {
+        for (ChunkList list : lists) {
+            if (list == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(list.size);
+                writeInts(out, list.chunks, list.size);
+            }
+        }
+    }
+
+    private void readIndex(DataInputStream in, ChunkList[] lists) throws IOException {
+        for (int slot = 0; slot < lists.length; slot++) {
+            int count = in.readInt();
+            if (count == 0) {
+                lists[slot] = null;
+                continue;
+            }
+            ChunkList list = new ChunkList();
+            list.chunks = readInts(in, count);
+            list.size = count;
+            lists[slot] = list;
+            indexEntries += count;
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        readInts(in, values, count);
+        return values;
+    }
+
+    private static void readInts(DataInputStream in, int[] values, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            values[i] = in.readInt();
+        }
+    }
+
+    private Chunk last() {
+        return chunks.get(chunks.size() - 1);
+    }
+
+    private void dropIfEmpty(Chunk chunk) {
+        if (chunk.count == 0) {
+            dropChunksFrom(chunks.size() - 1);
+        }
+    }
+
+    // Checkpoints, delta arrays, index entries and the search scratch
+    long estimateBytes() {
+        long bytes = (scratch != null ? 16L * CHUNK_STEPS : 0) + 4L * indexEntries;
+        for (Chunk chunk : chunks) {
+            bytes += 48 + 4L * chunk.registers.length + (chunk.hasDeltas() ? 16L * chunk.lines.length : 0);
+        }
+        return bytes;
+    }
+}
@@ -3,230 +3,439 @@ package hadeel.engine.execution;
 import hadeel.engine.SEmulatorEngine;
 import hadeel.engine.model.*;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
-import java.util.Set;
-import java.util.HashSet;
 
 public class ExecutionDebugger {
 
-    // Inner class for storing debug states
-    private static class DebugState {
-        final int line;
-        final Map<String, Integer> variables;
-        final int cycles;
-
-        DebugState(int line, Map<String, Integer> variables, int cycles) {
-            this.line = line;
-            this.variables = new HashMap<>(variables);
-            this.cycles = cycles;
-        }
-    }
     private SEmulatorEngine engine;
     private SProgram program;
+    private SProgram expandedProgram;
     private List<Integer> inputs;
     private int degree;
     private int currentLine;
-    private Map<String, Integer> variables;
     private int cyclesConsumed;
     private boolean finished;
     private ExecutionResult result;
     private List<SInstruction> instructions;
     private Set<Integer> breakpoints;
-    private List<DebugState> executionHistory;
-    private int historyIndex;
+    private boolean[] breakpointLines;
+    // Indexed by line; null where the breakpoint always fires
+    private BreakCondition[] lineConditions;
+    private BreakCondition[] conditions;
+    private boolean[] watchedRegisters;
+    private int[] cycleThresholds;
+    // Lines whose instruction writes a watched register or one a condition reads; resume executes them
+    // one at a time to check what they changed, and runs everything else at full speed
+    private boolean[] inspectLines;
+    private boolean[] pauseLines;
+    private String stopReason;
+    private String stopDetail;
+
+    // The session runs on the same compiled core as a normal execute; its state is the register file
+    private final CompiledProgram compiled;
+    private final CompiledInterpreter interpreter;
+    private final int[] registers;
+    private final boolean[] written;
+    private final Map<String, Integer> unreferencedInputs;
+    private final DebugHistory history;
+    private final int[] undone = new int[2];
 
     public ExecutionDebugger(SEmulatorEngine engine, SProgram program, List<Integer> inputs, int degree) {
+        // Use the program parameter directly, not engine.expandProgram() which depends on engine's currentProgram
+        this(engine, program, degree > 0 ? expandForDebug(program, degree) : null, inputs, degree);
+    }
+
+    // For callers that already hold the program expanded to the requested degree (e.g. from a cache)
+    public static ExecutionDebugger forExpandedProgram(SEmulatorEngine engine, SProgram expandedProgram,
+                                                       List<Integer> inputs, int degree) {
+        return new ExecutionDebugger(engine, expandedProgram, expandedProgram, inputs, degree);
+    }
+
+    private ExecutionDebugger(SEmulatorEngine engine, SProgram program, SProgram expandedProgram,
+                              List<Integer> inputs, int degree) {
         this.engine = engine;
         this.program = program;
+        this.expandedProgram = expandedProgram;
         this.inputs = inputs;
         this.degree = degree;
         this.currentLine = 0;
-        this.variables = new HashMap<>();
         this.cyclesConsumed = 0;
         this.finished = false;
-        this.breakpoints = new HashSet<>();
-        this.executionHistory = new ArrayList<>();
-        this.historyIndex = -1;
 
-        initializeVariables();
+        SProgram running = expandedProgram != null ? expandedProgram : program;
+        this.instructions = running.getInstructions();
+        this.compiled = ProgramCompiler.compile(running);
+        this.interpreter = new CompiledInterpreter();
+        this.registers = new int[compiled.getRegisterCount()];
+        this.written = new boolean[compiled.getRegisterCount()];
+        this.unreferencedInputs = new HashMap<>();
+        this.history = new DebugHistory(compiled, interpreter);
 
-        // Save initial state
-        saveCurrentState();
+        initializeVariables();
+        this.conditions = new BreakCondition[0];
+        this.watchedRegisters = new boolean[compiled.getRegisterCount()];
+        setBreakpoints(Collections.emptySet());
+    }
 
-        if (degree > 0) {
-            // Use the program parameter directly, not engine.expandProgram() which depends on engine's currentProgram
-            SProgram expanded = ExpansionEngine.expand(program, degree);
-            if (expanded != null) {
-                this.instructions = expanded.getInstructions();
-            } else {
-                System.out.println("[ExecutionDebugger] ERROR: Failed to expand program to degree " + degree);
-                this.instructions = program.getInstructions();
-            }
-        } else {
-            this.instructions = program.getInstructions();
+    private static SProgram expandForDebug(SProgram program, int degree) {
+        SProgram expanded = ExpansionEngine.expand(program, degree);
+        if (expanded == null) {
+            System.out.println("[ExecutionDebugger] ERROR: Failed to expand program to degree " + degree);
         }
+        return expanded;
     }
 
     public void setBreakpoints(Set<Integer> breakpoints) {
+        setBreakpoints(breakpoints, Collections.emptyMap());
+    }
+
+    // A line with a condition is a breakpoint that only stops a resume when the condition holds on arriving
+    // there. Throws IllegalArgumentException, leaving the breakpoints unchanged, if a condition is invalid.
+    public void setBreakpoints(Set<Integer> breakpoints, Map<Integer, String> conditions) {
+        BreakCondition[] compiledConditions = new BreakCondition[instructions.size()];
+        for (Map.Entry<Integer, String> entry : conditions.entrySet()) {
+            int line = entry.getKey();
+            if (line >= 0 && line < compiledConditions.length) {
+                compiledConditions[line] = BreakCondition.compile(entry.getValue(), compiled, unreferencedInputs);
+            }
+        }
+
         this.breakpoints = new HashSet<>(breakpoints);
+        this.breakpoints.addAll(conditions.keySet());
+        this.breakpointLines = new boolean[instructions.size()];
+        for (int line : this.breakpoints) {
+            if (line >= 0 && line < breakpointLines.length) {
+                breakpointLines[line] = true;
+            }
+        }
+        this.lineConditions = compiledConditions;
+        updatePauseLines();
+    }
+
+    // A resume stops right after a step that changes any of these variables
+    public void setWatchpoints(Collection<String> variables) {
+        boolean[] watched = new boolean[compiled.getRegisterCount()];
+        for (String variable : variables) {
+            int register = compiled.getRegister(variable);
+            if (register < 0) {
+                throw new IllegalArgumentException("Unknown variable: " + variable);
+            }
+            watched[register] = true;
+        }
+        this.watchedRegisters = watched;
+        updatePauseLines();
+    }
+
+    // A resume stops right after any step that leaves one of these conditions true, wherever it happens
+    public void setBreakConditions(Collection<String> conditions) {
+        BreakCondition[] compiledConditions = new BreakCondition[conditions.size()];
+        int i = 0;
+        for (String condition : conditions) {
+            compiledConditions[i++] = BreakCondition.compile(condition, compiled, unreferencedInputs);
+        }
+        this.conditions = compiledConditions;
+        updatePauseLines();
+    }
+
+    private void updatePauseLines() {
+        boolean[] inspected = watchedRegisters.clone();
+        int thresholds = 0;
+        for (BreakCondition condition : conditions) {
+            condition.markReads(inspected);
+            if (condition.cycleThreshold() >= 0) {
+                thresholds++;
+            }
+        }
+        cycleThresholds = new int[thresholds];
+        thresholds = 0;
+        for (BreakCondition condition : conditions) {
+            if (condition.cycleThreshold() >= 0) {
+                cycleThresholds[thresholds++] = condition.cycleThreshold();
+            }
+        }
+
+        InstructionName[] opcodes = compiled.getOpcodes();
+        int[] writes = compiled.getRegisters();
+        inspectLines = new boolean[opcodes.length];
+        pauseLines = new boolean[opcodes.length];
+        for (int line = 0; line < opcodes.length; line++) {
+            inspectLines[line] = inspected[writes[line]] && writesRegister(opcodes[line]);
+            pauseLines[line] = inspectLines[line] || breakpointLines[line];
+        }
+    }
+
+    static boolean writesRegister(InstructionName opcode) {
+        switch (opcode) {
+            case INCREASE:
+            case DECREASE:
+            case ZERO_VARIABLE:
+            case ASSIGNMENT:
+            case CONSTANT_ASSIGNMENT:
+            case QUOTE:
+                return true;
+            default:
+                return false;
+        }
     }
 
     public boolean isAtBreakpoint() {
         return breakpoints.contains(currentLine);
     }
 
-    private void initializeVariables() {
-        variables.put("y", 0);
-        variables.put("z", 0);
+    // BREAKPOINT, WATCHPOINT or CONDITION when the last resume stopped on one, otherwise null
+    public String getStopReason() {
+        return stopReason;
+    }
 
-        for (int i = 1; i <= 10; i++) {
-            variables.put("x" + i, i <= inputs.size() ? inputs.get(i - 1) : 0);
-        }
+    // The line, the variable's change, or the condition that stopped the last resume
+    public String getStopDetail() {
+        return stopDetail;
+    }
 
-        for (int i = 1; i <= 10; i++) {
-            variables.put("r" + i, 0);
+    private void initializeVariables() {
+        for (int i = 0; i < inputs.size(); i++) {
+            String name = "x" + (i + 1);
+            int register = compiled.getRegister(name);
+            if (register >= 0) {
+                registers[register] = inputs.get(i);
+            } else {
+                unreferencedInputs.put(name, inputs.get(i));
+            }
         }
     }
 
     public void step() {
+        step(new CancellationToken());
+    }
+
+    // A QUOTE runs its whole function within the step; if cancellation stops the function first, the
+    // session stays before the QUOTE
+    public void step(CancellationToken cancellation) {
+        stopReason = null;
+        stopDetail = null;
         if (finished || currentLine >= instructions.size()) {
             finish();
             return;
         }
+        stepOnce(CompiledInterpreter.UNLIMITED, cancellation);
+        if (currentLine >= instructions.size()) {
+            finish();
+        }
+    }
 
-        SInstruction inst = instructions.get(currentLine);
-        executeInstruction(inst);
-        cyclesConsumed += inst.getCycles();
-        currentLine++;
+    // Runs one instruction and records its delta; returns the cycles it took, or -1 when the budget or
+    // cancellation stopped it before it ran
+    private int stepOnce(int cycleBudget, CancellationToken cancellation) {
+        int lineBefore = currentLine;
+        int cyclesBefore = cyclesConsumed;
+        int register = compiled.getRegisters()[lineBefore];
+        int before = registers[register];
+
+        history.ensureChunk(lineBefore, cyclesBefore, registers);
+        int consumed = interpreter.resume(compiled, registers, written, lineBefore, cycleBudget, 1, null,
+            cancellation);
+        if (interpreter.getStepsRun() == 0) {
+            history.skip(0);
+            return -1;
+        }
+        cyclesConsumed += consumed;
+        currentLine = interpreter.getStoppedAt();
+        history.record(lineBefore, cyclesBefore, register, before, registers[register]);
+        return consumed;
+    }
 
-        // Save state after step
-        saveCurrentState();
+    // Runs until a breakpoint, watchpoint or break condition fires, the program ends, or an instruction the
+    // remaining cycleBudget cannot pay for. Returns null when it stopped for one of the first two reasons
+    // (getStopReason tells which), otherwise why it stopped early. Stretches where nothing can fire run on
+    // the core at full speed, recording only chunk checkpoints; stepping back into them replays them.
+    public ExecutionStatus resume(int cycleBudget, CancellationToken cancellation) {
+        stopReason = null;
+        stopDetail = null;
+        int[] costs = compiled.getCycles();
+        int[] writes = compiled.getRegisters();
+        int used = 0;
+        boolean moved = false;
+        // A condition that holds already would fire after whatever step comes next
+        boolean inspectNext = holdingCondition() != null;
+
+        while (!finished && currentLine < instructions.size()) {
+            if (moved && breakpointFires(currentLine)) {
+                return null;
+            }
 
+            if (inspectNext || inspectLines[currentLine] || cycleCheckDue(costs[currentLine])) {
+                inspectNext = false;
+                int register = writes[currentLine];
+                int before = registers[register];
+                int consumed = stepOnce(cycleBudget - used, cancellation);
+                if (consumed < 0) {
+                    return interpreter.getStopStatus();
+                }
+                used += consumed;
+                moved = true;
+
+                if (watchedRegisters[register] && registers[register] != before) {
+                    stopReason = "WATCHPOINT";
+                    stopDetail = compiled.getRegisterName(register) + " changed from " + before + " to "
+                        + registers[register];
+                    break;
+                }
+                BreakCondition holding = holdingCondition();
+                if (holding != null) {
+                    stopReason = "CONDITION";
+                    stopDetail = holding.toString();
+                    break;
+                }
+                continue;
+            }
+
+            int allowed = cycleBudget - used;
+            int cap = cyclesBeforeThreshold();
+            history.ensureChunk(currentLine, cyclesConsumed, registers);
+            int consumed = interpreter.resume(compiled, registers, written, currentLine, Math.min(allowed, cap),
+                history.stepsLeftInChunk(), pauseLines, history.visitedLines(), cancellation);
+            history.skip(interpreter.getStepsRun());
+            used += consumed;
+            cyclesConsumed += consumed;
+            currentLine = interpreter.getStoppedAt();
+            moved |= interpreter.getStepsRun() > 0;
+
+            ExecutionStatus status = interpreter.getStopStatus();
+            // Stopping short of a cycle threshold is not the user's budget running out; the next step is inspected
+            if (status != null && !(status == ExecutionStatus.BUDGET_EXCEEDED && cap < allowed)) {
+                return status;
+            }
+        }
         if (currentLine >= instructions.size()) {
             finish();
         }
+        return null;
     }
 
-    public boolean canStepBack() {
-        return historyIndex > 0;
+    private boolean breakpointFires(int line) {
+        if (!breakpointLines[line]) {
+            return false;
+        }
+        BreakCondition condition = lineConditions[line];
+        if (condition != null && !condition.holds(registers, cyclesConsumed)) {
+            return false;
+        }
+        stopReason = "BREAKPOINT";
+        stopDetail = condition != null ? "line " + line + " when " + condition : "line " + line;
+        return true;
     }
 
-    public void stepBack() {
-        if (canStepBack()) {
-            historyIndex--;
-            restoreState(executionHistory.get(historyIndex));
+    private BreakCondition holdingCondition() {
+        for (BreakCondition condition : conditions) {
+            if (condition.holds(registers, cyclesConsumed)) {
+                return condition;
+            }
         }
+        return null;
     }
 
-    private void saveCurrentState() {
-        DebugState state = new DebugState(currentLine, variables, cyclesConsumed);
+    // A cycle condition can only change truth on the step that takes the count to or past its threshold,
+    // or on the one that leaves it
+    private boolean cycleCheckDue(int cost) {
+        for (int threshold : cycleThresholds) {
+            if (cyclesConsumed <= threshold && threshold <= cyclesConsumed + cost) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        // If we're stepping back and then forward, remove future history
-        if (historyIndex < executionHistory.size() - 1) {
-            executionHistory = executionHistory.subList(0, historyIndex + 1);
+    // Cycles a full-speed run may use without reaching any threshold still ahead
+    private int cyclesBeforeThreshold() {
+        int cap = CompiledInterpreter.UNLIMITED;
+        for (int threshold : cycleThresholds) {
+            if (threshold > cyclesConsumed) {
+                cap = Math.min(cap, threshold - 1 - cyclesConsumed);
+            }
         }
+        return cap;
+    }
 
-        executionHistory.add(state);
-        historyIndex = executionHistory.size() - 1;
+    public boolean canStepBack() {
+        return history.size() > 0;
     }
 
-    private void restoreState(DebugState state) {
-        this.currentLine = state.line;
-        this.variables = new HashMap<>(state.variables);
-        this.cyclesConsumed = state.cycles;
-        this.finished = false;
+    public void stepBack() {
+        if (canStepBack()) {
+            history.undo(registers, undone);
+            currentLine = undone[0];
+            cyclesConsumed = undone[1];
+            finished = false;
+        }
     }
 
-    private void executeInstruction(SInstruction inst) {
-        String var = inst.getVariable();
+    // Steps taken since the session started, not counting steps that were undone
+    public int getStepCount() {
+        return history.size();
+    }
 
-        switch (inst.getName()) {
-            case INCREASE:
-                variables.put(var, variables.getOrDefault(var, 0) + 1);
-                break;
-            case DECREASE:
-                variables.put(var, variables.getOrDefault(var, 0) - 1);
-                break;
-            case NEUTRAL:
-                break;
-            case JUMP_NOT_ZERO:
-                if (variables.getOrDefault(var, 0) != 0) {
-                    String label = inst.getArgument("JNZLabel");
-                    currentLine = findLabelLine(label) - 1;
-                }
-                break;
-            case ZERO_VARIABLE:
-                variables.put(var, 0);
-                break;
-            case GOTO_LABEL:
-                String label = inst.getArgument("gotoLabel");
-                if ("EXIT".equals(label)) {
-                    currentLine = instructions.size() - 1;
-                } else {
-                    currentLine = findLabelLine(label) - 1;
-                }
-                break;
-            case ASSIGNMENT:
-                String sourceVar = inst.getArgument("assignedVariable");
-                variables.put(var, variables.getOrDefault(sourceVar, 0));
-                break;
-            case CONSTANT_ASSIGNMENT:
-                int value = Integer.parseInt(inst.getArgument("constantValue"));
-                variables.put(var, value);
-                break;
-            case JUMP_ZERO:
-                if (variables.getOrDefault(var, 0) == 0) {
-                    String jzLabel = inst.getArgument("JZLabel");
-                    currentLine = findLabelLine(jzLabel) - 1;
-                }
-                break;
-            case JUMP_EQUAL_CONSTANT:
-                int constant = Integer.parseInt(inst.getArgument("constantValue"));
-                if (variables.getOrDefault(var, 0) == constant) {
-                    String jecLabel = inst.getArgument("JEConstantLabel");
-                    currentLine = findLabelLine(jecLabel) - 1;
-                }
-                break;
-            case JUMP_EQUAL_VARIABLE:
-                String compareVar = inst.getArgument("variableName");
-                if (variables.getOrDefault(var, 0) == variables.getOrDefault(compareVar, 0)) {
-                    String jevLabel = inst.getArgument("JEVariableLabel");
-                    currentLine = findLabelLine(jevLabel) - 1;
-                }
-                break;
+    // Moves back to the state after the given number of steps by restoring the checkpoint before it and
+    // re-running at most one history chunk
+    public void goToStep(int step) {
+        if (step < 0 || step >= history.size()) {
+            return;
         }
+        history.goTo(step, registers, undone);
+        currentLine = undone[0];
+        cyclesConsumed = undone[1];
+        finished = false;
     }
 
-    private int findLabelLine(String label) {
-        if ("EXIT".equals(label)) {
-            return instructions.size();
-        }
+    // Moves back to the latest earlier point where execution stood on a breakpoint. Without one it goes
+    // back to the start and returns false.
+    public boolean reverseContinue() {
+        int step = history.lastStepOnLine(breakpointLines, history.size());
+        goToStep(Math.max(step, 0));
+        return step >= 0;
+    }
 
-        for (int i = 0; i < instructions.size(); i++) {
-            if (label != null && label.equals(instructions.get(i).getLabel())) {
-                return i;
-            }
+    // Moves back to just before the latest step that changed the variable, so the current line is the
+    // instruction that changed it. Steps that wrote the value it already had do not count.
+    public boolean reverseToLastChange(String variable) {
+        int register = compiled.getRegister(variable);
+        int step = register >= 0 ? history.lastChangeOf(register, history.size()) : -1;
+        if (step < 0) {
+            return false;
         }
-        // If label not found, continue to next instruction
-        return currentLine + 1;
+        goToStep(step);
+        return true;
+    }
+
+    public long getHistoryBytes() {
+        return history.estimateBytes();
+    }
+
+    // Moves the step history out to the stream and frees it. The current state stays, so the session can
+    // still be displayed, but it must not step or navigate until restoreHistory has read the history back.
+    public void spillHistory(DataOutputStream out) throws IOException {
+        history.spillTo(out);
+    }
+
+    public void restoreHistory(DataInputStream in) throws IOException {
+        history.restoreFrom(in);
     }
 
     private void finish() {
         finished = true;
         result = new ExecutionResult(
-            variables.get("y"),           // outputValue
-            new HashMap<>(variables),      // finalVariables
-            cyclesConsumed,                // cyclesConsumed
-            degree,                        // degree
-            inputs                         // inputs
+            registers[CompiledProgram.OUTPUT_REGISTER],  // outputValue
+            getCurrentVariables(),                        // finalVariables
+            cyclesConsumed,                               // cyclesConsumed
+            degree,                                       // degree
+            inputs                                        // inputs
         );
 
-        if (degree > 0) {
-            // Use the program parameter directly, not engine.expandProgram()
-            SProgram expandedProgram = ExpansionEngine.expand(program, degree);
-            if (expandedProgram != null) {
-                result.setExpandedProgram(expandedProgram);
-            }
+        // The program was expanded once when the session started; reuse it
+        if (degree > 0 && expandedProgram != null) {
+            result.setExpandedProgram(expandedProgram);
         }
     }
 
@@ -239,7 +448,15 @@ public class ExecutionDebugger {
     }
 
     public Map<String, Integer> getCurrentVariables() {
-        return new HashMap<>(variables);
+        Map<String, Integer> variables = new HashMap<>(unreferencedInputs);
+        for (int register = 0; register < registers.length; register++) {
+            String name = compiled.getRegisterName(register);
+            if (!name.isEmpty()) {
+                variables.put(name, registers[register]);
+            }
+        }
+        // Sorted for display, but copied out of the TreeMap, whose comparator never finds "y" on lookup
+        return new LinkedHashMap<>(ExecutionContext.sortVariables(variables));
     }
 
     public int getCurrentCycles() {
@@ -249,4 +466,4 @@ public class ExecutionDebugger {
     public ExecutionResult getResult() {
         return result;
     }
-}
\ No newline at end of file
+}
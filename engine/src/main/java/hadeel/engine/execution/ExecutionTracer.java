@@ -0,0 +1,18 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.InstructionName;
+
+public interface ExecutionTracer {
+
+    ExecutionTracer NONE = new NoOpTracer();
+
+    // Checked once per run so a disabled tracer costs a single branch per instruction
+    boolean isEnabled();
+
+    void onInstruction(String body, int index, InstructionName instruction, String variable,
+                       int value, int cycles);
+
+    void onCall(String functionName, int result);
+
+    void onMessage(String source, String message);
+}
@@ -0,0 +1,40 @@
+package hadeel.engine.execution;
+
+// Per-expansion naming state: fresh labels and z-variables are numbered within one expand() call
+public class ExpansionContext {
+    private static final int FIRST_FRESH_INDEX = 1000;
+
+    private int labelCounter;
+    private int variableCounter;
+
+    public ExpansionContext() {
+        this(FIRST_FRESH_INDEX, FIRST_FRESH_INDEX);
+    }
+
+    public ExpansionContext(int labelCounter, int variableCounter) {
+        this.labelCounter = labelCounter;
+        this.variableCounter = variableCounter;
+    }
+
+    public String nextLabel() {
+        return "L" + (labelCounter++);
+    }
+
+    public String nextVariable() {
+        return "z" + (variableCounter++);
+    }
+
+    // Moves past names that were handed out by other contexts (e.g. parallel expansion chunks)
+    public void advance(int labels, int variables) {
+        labelCounter += labels;
+        variableCounter += variables;
+    }
+
+    public int getLabelCounter() {
+        return labelCounter;
+    }
+
+    public int getVariableCounter() {
+        return variableCounter;
+    }
+}
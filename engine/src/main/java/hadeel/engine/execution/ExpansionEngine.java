@@ -2,14 +2,21 @@ package hadeel.engine.execution;
 
 import hadeel.engine.model.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class ExpansionEngine {
-    private static int labelCounter = 1;
-    private static int variableCounter = 1;
-    
+
+    // Below this many instructions per chunk, fork/join overhead outweighs the copying work
+    public static final int PARALLEL_CHUNK_SIZE = 2048;
+
     public static SProgram expand(SProgram program, int targetDegree) {
+        return expand(program, targetDegree, ExecutionTracer.NONE);
+    }
+
+    public static SProgram expand(SProgram program, int targetDegree, ExecutionTracer tracer) {
         if (program == null) {
-            System.out.println("[ExpansionEngine] ERROR: Input program is null");
+            tracer.onMessage("ExpansionEngine", "ERROR: Input program is null");
             return null;
         }
 
@@ -17,29 +24,44 @@ public class ExpansionEngine {
             return copyProgram(program);
         }
 
-        resetCounters();
+        // Fresh label/variable numbering is per call, so concurrent expansions never interfere
+        ExpansionContext context = new ExpansionContext();
         SProgram expandedProgram = copyProgram(program);
 
         for (int degree = 0; degree < targetDegree; degree++) {
-            System.out.println("[ExpansionEngine] Expanding degree " + (degree + 1) + "/" + targetDegree);
-            expandedProgram = expandOneDegree(expandedProgram);
+            expandedProgram = expandOneDegree(expandedProgram, context);
             if (expandedProgram == null) {
-                System.out.println("[ExpansionEngine] ERROR: expandOneDegree returned null at degree " + (degree + 1));
+                tracer.onMessage("ExpansionEngine", "ERROR: expandOneDegree returned null at degree " + (degree + 1));
                 return null;
             }
-            System.out.println("[ExpansionEngine] After degree " + (degree + 1) + ": " + expandedProgram.getInstructions().size() + " instructions");
+            if (tracer.isEnabled()) {
+                tracer.onMessage("ExpansionEngine", "After degree " + (degree + 1) + "/" + targetDegree + ": "
+                    + expandedProgram.getInstructions().size() + " instructions");
+            }
         }
 
         return expandedProgram;
     }
     
-    private static SProgram expandOneDegree(SProgram program) {
+    private static SProgram expandOneDegree(SProgram program, ExpansionContext context) {
         SProgram expanded = new SProgram(program.getName());
         expanded.setFunctions(program.getFunctions());
+        expanded.setFunctionScope(program.getFunctionScope());
 
-        for (SInstruction instruction : program.getInstructions()) {
+        List<SInstruction> instructions = program.getInstructions();
+        expanded.setInstructions(expandRange(instructions, 0, instructions.size(), program, context));
+
+        return expanded;
+    }
+
+    private static List<SInstruction> expandRange(List<SInstruction> instructions, int from, int to,
+                                                  SProgram program, ExpansionContext context) {
+        List<SInstruction> expanded = new ArrayList<>();
+
+        for (int i = from; i < to; i++) {
+            SInstruction instruction = instructions.get(i);
             if (instruction.getType() == InstructionType.SYNTHETIC) {
-                List<SInstruction> expandedInstructions = expandInstruction(instruction, program);
+                List<SInstruction> expandedInstructions = expandInstruction(instruction, program, context);
 
                 if (!expandedInstructions.isEmpty() && instruction.getLabel() != null) {
                     expandedInstructions.get(0).setLabel(instruction.getLabel());
@@ -47,40 +69,179 @@ public class ExpansionEngine {
 
                 for (SInstruction exp : expandedInstructions) {
                     exp.setParent(instruction);
-                    expanded.addInstruction(exp);
+                    expanded.add(exp);
                 }
             } else {
-                expanded.addInstruction(instruction.copy());
+                expanded.add(instruction.copy());
+            }
+        }
+
+        return expanded;
+    }
+
+    public static SProgram expandParallel(SProgram program, int targetDegree) {
+        return expandParallel(program, targetDegree, ForkJoinPool.commonPool(), ExecutionTracer.NONE);
+    }
+
+    // Same output as expand(), instruction for instruction and name for name
+    public static SProgram expandParallel(SProgram program, int targetDegree, ForkJoinPool pool,
+                                          ExecutionTracer tracer) {
+        if (program == null) {
+            tracer.onMessage("ExpansionEngine", "ERROR: Input program is null");
+            return null;
+        }
+
+        if (targetDegree <= 0) {
+            return copyProgram(program);
+        }
+
+        ExpansionContext context = new ExpansionContext();
+        SProgram expandedProgram = copyProgram(program);
+
+        for (int degree = 0; degree < targetDegree; degree++) {
+            expandedProgram = expandOneDegreeParallel(expandedProgram, context, pool);
+            if (tracer.isEnabled()) {
+                tracer.onMessage("ExpansionEngine", "After degree " + (degree + 1) + "/" + targetDegree + ": "
+                    + expandedProgram.getInstructions().size() + " instructions (parallel)");
             }
         }
 
+        return expandedProgram;
+    }
+
+    private static SProgram expandOneDegreeParallel(SProgram program, ExpansionContext context, ForkJoinPool pool) {
+        List<SInstruction> instructions = program.getInstructions();
+        int chunkCount = (instructions.size() + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        if (chunkCount <= 1) {
+            return expandOneDegree(program, context);
+        }
+
+        // Each chunk starts numbering where the sequential walk would have been at its first instruction
+        int[] labelStarts = new int[chunkCount];
+        int[] variableStarts = new int[chunkCount];
+        int labels = 0;
+        int variables = 0;
+        for (int i = 0; i < instructions.size(); i++) {
+            if (i % PARALLEL_CHUNK_SIZE == 0) {
+                labelStarts[i / PARALLEL_CHUNK_SIZE] = context.getLabelCounter() + labels;
+                variableStarts[i / PARALLEL_CHUNK_SIZE] = context.getVariableCounter() + variables;
+            }
+            SInstruction instruction = instructions.get(i);
+            labels += freshLabelsFor(instruction);
+            variables += freshVariablesFor(instruction);
+        }
+
+        List<List<SInstruction>> chunks = new ArrayList<>(Collections.nCopies(chunkCount, null));
+        pool.invoke(new ExpandChunks(program, 0, chunkCount, labelStarts, variableStarts, chunks));
+        context.advance(labels, variables);
+
+        List<SInstruction> expandedInstructions = new ArrayList<>();
+        for (List<SInstruction> chunk : chunks) {
+            expandedInstructions.addAll(chunk);
+        }
+
+        SProgram expanded = new SProgram(program.getName());
+        expanded.setFunctions(program.getFunctions());
+        expanded.setFunctionScope(program.getFunctionScope());
+        expanded.setInstructions(expandedInstructions);
         return expanded;
     }
 
-    private static List<SInstruction> expandInstruction(SInstruction instruction, SProgram program) {
+    private static class ExpandChunks extends RecursiveAction {
+        private final SProgram program;
+        private final int fromChunk;
+        private final int toChunk;
+        private final int[] labelStarts;
+        private final int[] variableStarts;
+        private final List<List<SInstruction>> results;
+
+        ExpandChunks(SProgram program, int fromChunk, int toChunk, int[] labelStarts, int[] variableStarts,
+                     List<List<SInstruction>> results) {
+            this.program = program;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+            this.labelStarts = labelStarts;
+            this.variableStarts = variableStarts;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (toChunk - fromChunk > 1) {
+                int middle = (fromChunk + toChunk) >>> 1;
+                invokeAll(new ExpandChunks(program, fromChunk, middle, labelStarts, variableStarts, results),
+                    new ExpandChunks(program, middle, toChunk, labelStarts, variableStarts, results));
+                return;
+            }
+
+            List<SInstruction> instructions = program.getInstructions();
+            int from = fromChunk * PARALLEL_CHUNK_SIZE;
+            int to = Math.min(from + PARALLEL_CHUNK_SIZE, instructions.size());
+            ExpansionContext context = new ExpansionContext(labelStarts[fromChunk], variableStarts[fromChunk]);
+            results.set(fromChunk, expandRange(instructions, from, to, program, context));
+        }
+    }
+
+    // Must match the nextLabel()/nextVariable() calls made by the expandX methods below
+    private static int freshLabelsFor(SInstruction instruction) {
+        if (instruction.getType() != InstructionType.SYNTHETIC) {
+            return 0;
+        }
+        switch (instruction.getName()) {
+            case ZERO_VARIABLE:
+            case JUMP_ZERO:
+            case JUMP_EQUAL_CONSTANT:
+                return 1;
+            case JUMP_EQUAL_VARIABLE:
+                return 3;
+            case ASSIGNMENT:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private static int freshVariablesFor(SInstruction instruction) {
+        if (instruction.getType() != InstructionType.SYNTHETIC) {
+            return 0;
+        }
+        switch (instruction.getName()) {
+            case GOTO_LABEL:
+            case JUMP_EQUAL_CONSTANT:
+                return 1;
+            case ASSIGNMENT:
+            case JUMP_EQUAL_VARIABLE:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    private static List<SInstruction> expandInstruction(SInstruction instruction, SProgram program,
+                                                        ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
 
         switch (instruction.getName()) {
             case ZERO_VARIABLE:
-                expanded.addAll(expandZeroVariable(instruction));
+                expanded.addAll(expandZeroVariable(instruction, context));
                 break;
             case GOTO_LABEL:
-                expanded.addAll(expandGotoLabel(instruction));
+                expanded.addAll(expandGotoLabel(instruction, context));
                 break;
             case ASSIGNMENT:
-                expanded.addAll(expandAssignment(instruction));
+                expanded.addAll(expandAssignment(instruction, context));
                 break;
             case CONSTANT_ASSIGNMENT:
-                expanded.addAll(expandConstantAssignment(instruction));
+                expanded.addAll(expandConstantAssignment(instruction, context));
                 break;
             case JUMP_ZERO:
-                expanded.addAll(expandJumpZero(instruction));
+                expanded.addAll(expandJumpZero(instruction, context));
                 break;
             case JUMP_EQUAL_CONSTANT:
-                expanded.addAll(expandJumpEqualConstant(instruction));
+                expanded.addAll(expandJumpEqualConstant(instruction, context));
                 break;
             case JUMP_EQUAL_VARIABLE:
-                expanded.addAll(expandJumpEqualVariable(instruction));
+                expanded.addAll(expandJumpEqualVariable(instruction, context));
                 break;
             default:
                 // QUOTE and other unknown instructions are NOT expanded - they stay as-is
@@ -91,9 +252,9 @@ public class ExpansionEngine {
         return expanded;
     }
     
-    private static List<SInstruction> expandZeroVariable(SInstruction instruction) {
+    private static List<SInstruction> expandZeroVariable(SInstruction instruction, ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
-        String label = getNextLabel();
+        String label = context.nextLabel();
         
         SInstruction decrease = new SInstruction(InstructionType.BASIC, 
             InstructionName.DECREASE, instruction.getVariable());
@@ -109,9 +270,9 @@ public class ExpansionEngine {
         return expanded;
     }
     
-    private static List<SInstruction> expandGotoLabel(SInstruction instruction) {
+    private static List<SInstruction> expandGotoLabel(SInstruction instruction, ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
-        String tempVar = getNextVariable();
+        String tempVar = context.nextVariable();
         String targetLabel = instruction.getArgument("gotoLabel");
         
         SInstruction increase = new SInstruction(InstructionType.BASIC, 
@@ -127,15 +288,15 @@ public class ExpansionEngine {
         return expanded;
     }
     
-    private static List<SInstruction> expandAssignment(SInstruction instruction) {
+    private static List<SInstruction> expandAssignment(SInstruction instruction, ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
         String sourceVar = instruction.getArgument("assignedVariable");
         String targetVar = instruction.getVariable();
-        String tempVar = getNextVariable();
-        String label1 = getNextLabel();
-        String label2 = getNextLabel();
-        String label3 = getNextLabel();
-        String zeroLabel = getNextLabel();
+        String tempVar = context.nextVariable();
+        String label1 = context.nextLabel();
+        String label2 = context.nextLabel();
+        String label3 = context.nextLabel();
+        String zeroLabel = context.nextLabel();
         
         // Zero target variable using basic instructions only
         SInstruction zeroDecrease = new SInstruction(InstructionType.BASIC, 
@@ -154,7 +315,7 @@ public class ExpansionEngine {
         expanded.add(checkSource);
         
         // Goto end using basic instructions only
-        String gotoTemp = getNextVariable();
+        String gotoTemp = context.nextVariable();
         SInstruction gotoIncrease = new SInstruction(InstructionType.BASIC, 
             InstructionName.INCREASE, gotoTemp);
         expanded.add(gotoIncrease);
@@ -204,7 +365,7 @@ public class ExpansionEngine {
         return expanded;
     }
     
-    private static List<SInstruction> expandConstantAssignment(SInstruction instruction) {
+    private static List<SInstruction> expandConstantAssignment(SInstruction instruction, ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
         String targetVar = instruction.getVariable();
         int constant = Integer.parseInt(instruction.getArgument("constantValue"));
@@ -222,10 +383,10 @@ public class ExpansionEngine {
         return expanded;
     }
     
-    private static List<SInstruction> expandJumpZero(SInstruction instruction) {
+    private static List<SInstruction> expandJumpZero(SInstruction instruction, ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
         String targetLabel = instruction.getArgument("JZLabel");
-        String skipLabel = getNextLabel();
+        String skipLabel = context.nextLabel();
         
         SInstruction jumpNotZero = new SInstruction(InstructionType.BASIC, 
             InstructionName.JUMP_NOT_ZERO, instruction.getVariable());
@@ -245,12 +406,12 @@ public class ExpansionEngine {
         return expanded;
     }
     
-    private static List<SInstruction> expandJumpEqualConstant(SInstruction instruction) {
+    private static List<SInstruction> expandJumpEqualConstant(SInstruction instruction, ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
         String targetLabel = instruction.getArgument("JEConstantLabel");
         int constant = Integer.parseInt(instruction.getArgument("constantValue"));
-        String tempVar = getNextVariable();
-        String skipLabel = getNextLabel();
+        String tempVar = context.nextVariable();
+        String skipLabel = context.nextLabel();
         
         SInstruction assignment = new SInstruction(InstructionType.SYNTHETIC, 
             InstructionName.ASSIGNMENT, tempVar);
@@ -286,15 +447,15 @@ public class ExpansionEngine {
         return expanded;
     }
     
-    private static List<SInstruction> expandJumpEqualVariable(SInstruction instruction) {
+    private static List<SInstruction> expandJumpEqualVariable(SInstruction instruction, ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
         String targetLabel = instruction.getArgument("JEVariableLabel");
         String var2 = instruction.getArgument("variableName");
-        String temp1 = getNextVariable();
-        String temp2 = getNextVariable();
-        String label1 = getNextLabel();
-        String label2 = getNextLabel();
-        String label3 = getNextLabel();
+        String temp1 = context.nextVariable();
+        String temp2 = context.nextVariable();
+        String label1 = context.nextLabel();
+        String label2 = context.nextLabel();
+        String label3 = context.nextLabel();
         
         SInstruction assign1 = new SInstruction(InstructionType.SYNTHETIC, 
             InstructionName.ASSIGNMENT, temp1);
@@ -350,55 +511,30 @@ public class ExpansionEngine {
             copy.addInstruction(instruction.copy());
         }
         copy.setFunctions(program.getFunctions());
+        copy.setFunctionScope(program.getFunctionScope());
         return copy;
     }
     
-    private static void resetCounters() {
-        labelCounter = 1000;
-        variableCounter = 1000;
-    }
-    
-    private static String getNextLabel() {
-        return "L" + (labelCounter++);
-    }
-    
-    private static String getNextVariable() {
-        return "z" + (variableCounter++);
-    }
-
-    private static List<SInstruction> expandQuote(SInstruction instruction, SProgram program) {
+    private static List<SInstruction> expandQuote(SInstruction instruction, SProgram program,
+                                                  ExpansionContext context) {
         List<SInstruction> expanded = new ArrayList<>();
 
         String functionName = instruction.getArgument("functionName");
         String functionArguments = instruction.getArgument("functionArguments");
 
-        System.out.println("[expandQuote] Expanding QUOTE: function=" + functionName + ", args=" + functionArguments + ", outputVar=" + instruction.getVariable());
-
         if (functionName == null) {
-            System.out.println("[expandQuote] ERROR: No function name");
             return expanded;
         }
 
-        // Find the function in the program
-        SFunction function = null;
-        for (SFunction func : program.getFunctions()) {
-            if (func.getName().equals(functionName)) {
-                function = func;
-                break;
-            }
-        }
+        // Find the function in the program or its shared scope
+        SFunction function = program.getFunction(functionName);
 
         if (function == null) {
-            System.out.println("[expandQuote] ERROR: Function not found: " + functionName);
-            System.out.println("[expandQuote] Available functions: " + program.getFunctions().stream().map(f -> f.getName()).collect(java.util.stream.Collectors.joining(", ")));
             return expanded;
         }
 
-        System.out.println("[expandQuote] Found function: " + functionName + " with " + function.getInstructions().size() + " instructions");
-
         // Parse function arguments - handle both simple variables and nested function calls
         List<String> arguments = parseArguments(functionArguments);
-        System.out.println("[expandQuote] Parsed " + arguments.size() + " arguments: " + arguments);
 
         // Process each argument - if it's a function call, expand it first
         Map<String, String> parameterMapping = new HashMap<>();
@@ -407,8 +543,8 @@ public class ExpansionEngine {
         for (String arg : arguments) {
             if (arg.startsWith("(") && arg.endsWith(")")) {
                 // This is a nested function call - expand it to a temporary variable
-                String tempVar = getNextVariable();
-                List<SInstruction> nestedExpansion = expandFunctionExpression(arg, tempVar, program);
+                String tempVar = context.nextVariable();
+                List<SInstruction> nestedExpansion = expandFunctionExpression(arg, tempVar, program, context);
                 expanded.addAll(nestedExpansion);
                 parameterMapping.put("x" + argIndex, tempVar);
             } else {
@@ -443,16 +579,14 @@ public class ExpansionEngine {
         // Assign unique temp variables for each function-local variable
         for (String var : functionVariables) {
             if (!variableRenaming.containsKey(var)) {
-                variableRenaming.put(var, getNextVariable());
+                variableRenaming.put(var, context.nextVariable());
             }
         }
 
-        System.out.println("[expandQuote] Variable renaming for " + functionName + ": " + variableRenaming);
-
         // Create a label renaming map to handle function-local labels
         // Each function's EXIT label should be renamed to a unique label that points to after the function
         Map<String, String> labelRenaming = new HashMap<>();
-        String functionExitLabel = getNextLabel();
+        String functionExitLabel = context.nextLabel();
         labelRenaming.put("EXIT", functionExitLabel);
 
         // Also rename any other labels in the function to avoid collisions
@@ -460,7 +594,7 @@ public class ExpansionEngine {
             if (funcInst.getLabel() != null && !funcInst.getLabel().isEmpty()) {
                 String label = funcInst.getLabel();
                 if (!labelRenaming.containsKey(label)) {
-                    labelRenaming.put(label, getNextLabel());
+                    labelRenaming.put(label, context.nextLabel());
                 }
             }
             // Check for labels in jump arguments
@@ -468,14 +602,12 @@ public class ExpansionEngine {
                 if (argValue != null && !argValue.isEmpty() && !labelRenaming.containsKey(argValue)) {
                     // This might be a label reference
                     if (argValue.matches("[A-Z][A-Z0-9_]*") || argValue.matches("L\\d+")) {
-                        labelRenaming.put(argValue, getNextLabel());
+                        labelRenaming.put(argValue, context.nextLabel());
                     }
                 }
             }
         }
 
-        System.out.println("[expandQuote] Label renaming for " + functionName + ": " + labelRenaming);
-
         // Inline the function's instructions with parameter and label substitution
         String outputVariable = instruction.getVariable();
 
@@ -562,7 +694,8 @@ public class ExpansionEngine {
         return arguments;
     }
 
-    private static List<SInstruction> expandFunctionExpression(String expression, String outputVar, SProgram program) {
+    private static List<SInstruction> expandFunctionExpression(String expression, String outputVar,
+                                                               SProgram program, ExpansionContext context) {
         // Remove outer parentheses
         expression = expression.substring(1, expression.length() - 1).trim();
 
@@ -581,8 +714,6 @@ public class ExpansionEngine {
             funcArgs = expression.substring(firstComma + 1).trim();
         }
 
-        System.out.println("[expandFunctionExpression] Expanding nested function: " + funcName + " with args: '" + funcArgs + "' to var: " + outputVar);
-
         // Create a QUOTE instruction for this nested function call
         SInstruction quoteInst = new SInstruction();
         quoteInst.setType(InstructionType.SYNTHETIC);
@@ -592,7 +723,7 @@ public class ExpansionEngine {
         quoteInst.addArgument("functionArguments", funcArgs);
 
         // Recursively expand this QUOTE instruction
-        return expandQuote(quoteInst, program);
+        return expandQuote(quoteInst, program, context);
     }
 
     private static int findFirstComma(String str) {
@@ -0,0 +1,92 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.InstructionName;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Writes the trace to a file of at most maxBytes; entries past that are left out and tracing stops
+public class FileTracer implements ExecutionTracer, Closeable {
+
+    private final Path path;
+    private final BufferedWriter writer;
+    private final long maxBytes;
+    private long bytesWritten;
+    private volatile boolean truncated;
+    private IOException failure;
+
+    public FileTracer(Path path, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Trace size limit must be positive");
+        }
+        this.path = path;
+        this.maxBytes = maxBytes;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+    }
+
+    // Stops tracing after the first write failure instead of failing the execution
+    @Override
+    public boolean isEnabled() {
+        return failure == null && !truncated;
+    }
+
+    @Override
+    public void onInstruction(String body, int index, InstructionName instruction, String variable,
+                              int value, int cycles) {
+        write(TraceFormat.instruction(body, index, instruction, variable, value, cycles));
+    }
+
+    @Override
+    public void onCall(String functionName, int result) {
+        write(TraceFormat.call(functionName, result));
+    }
+
+    @Override
+    public void onMessage(String source, String message) {
+        write(TraceFormat.message(source, message));
+    }
+
+    private synchronized void write(String entry) {
+        if (failure != null || truncated) {
+            return;
+        }
+        // Entries are ASCII apart from variable and function names, so chars are close enough to bytes
+        long size = entry.length() + 1L;
+        if (bytesWritten + size > maxBytes) {
+            truncated = true;
+            return;
+        }
+        try {
+            writer.write(entry);
+            writer.newLine();
+            bytesWritten += size;
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // True when entries were left out because the file reached its size limit
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
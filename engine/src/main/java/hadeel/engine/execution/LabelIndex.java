@@ -0,0 +1,43 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.SInstruction;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LabelIndex {
+
+    public static final String EXIT_LABEL = "EXIT";
+    public static final int NOT_FOUND = -1;
+
+    private final Map<String, Integer> positions;
+    private final int exitIndex;
+
+    private LabelIndex(Map<String, Integer> positions, int exitIndex) {
+        this.positions = positions;
+        this.exitIndex = exitIndex;
+    }
+
+    // Built once per program or function body; the first instruction carrying a label wins
+    public static LabelIndex build(List<SInstruction> instructions) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            String label = instructions.get(i).getLabel();
+            if (label != null) {
+                positions.putIfAbsent(label, i);
+            }
+        }
+        return new LabelIndex(positions, instructions.size());
+    }
+
+    // EXIT resolves to one past the last instruction; unknown labels resolve to NOT_FOUND
+    public int resolve(String label) {
+        if (EXIT_LABEL.equals(label)) {
+            return exitIndex;
+        }
+
+        Integer position = label != null ? positions.get(label) : null;
+        return position != null ? position : NOT_FOUND;
+    }
+}
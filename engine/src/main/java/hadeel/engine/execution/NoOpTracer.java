@@ -0,0 +1,24 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.InstructionName;
+
+public class NoOpTracer implements ExecutionTracer {
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void onInstruction(String body, int index, InstructionName instruction, String variable,
+                              int value, int cycles) {
+    }
+
+    @Override
+    public void onCall(String functionName, int result) {
+    }
+
+    @Override
+    public void onMessage(String source, String message) {
+    }
+}
@@ -0,0 +1,165 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.*;
+import java.util.*;
+
+public class ProgramCompiler {
+
+    public static CompiledProgram compile(SProgram program) {
+        return compile(program.getName(), program.getInstructions(), program);
+    }
+
+    // Calls in the body resolve like calls made from the scope program
+    public static CompiledProgram compile(SFunction function, SProgram scope) {
+        return compile(function.getName(), function.getInstructions(), scope);
+    }
+
+    private static CompiledProgram compile(String name, List<SInstruction> instructions,
+                                           SProgram scope) {
+        int length = instructions.size();
+        InstructionName[] opcodes = new InstructionName[length];
+        int[] registers = new int[length];
+        int[] operands = new int[length];
+        int[] jumpTargets = new int[length];
+        int[] cycles = new int[length];
+        CallSite[] callSites = new CallSite[length];
+
+        Map<String, Integer> registerIndex = new HashMap<>();
+        List<String> registerNames = new ArrayList<>();
+        allocateRegister("y", registerIndex, registerNames);
+
+        LabelIndex labelIndex = LabelIndex.build(instructions);
+
+        for (int i = 0; i < length; i++) {
+            SInstruction instruction = instructions.get(i);
+            InstructionName opcode = instruction.getName();
+
+            opcodes[i] = opcode;
+            cycles[i] = instruction.getCycles();
+            registers[i] = allocateRegister(instruction.getVariable(), registerIndex, registerNames);
+            jumpTargets[i] = i + 1;
+
+            switch (opcode) {
+                case JUMP_NOT_ZERO:
+                    jumpTargets[i] = resolveLabel(instruction.getArgument("JNZLabel"), i, labelIndex);
+                    break;
+                case GOTO_LABEL:
+                    jumpTargets[i] = resolveLabel(instruction.getArgument("gotoLabel"), i, labelIndex);
+                    break;
+                case JUMP_ZERO:
+                    jumpTargets[i] = resolveLabel(instruction.getArgument("JZLabel"), i, labelIndex);
+                    break;
+                case ASSIGNMENT:
+                    operands[i] = allocateRegister(instruction.getArgument("assignedVariable"),
+                        registerIndex, registerNames);
+                    break;
+                case CONSTANT_ASSIGNMENT:
+                    operands[i] = Integer.parseInt(instruction.getArgument("constantValue"));
+                    break;
+                case JUMP_EQUAL_CONSTANT:
+                    operands[i] = Integer.parseInt(instruction.getArgument("constantValue"));
+                    jumpTargets[i] = resolveLabel(instruction.getArgument("JEConstantLabel"), i, labelIndex);
+                    break;
+                case JUMP_EQUAL_VARIABLE:
+                    operands[i] = allocateRegister(instruction.getArgument("variableName"),
+                        registerIndex, registerNames);
+                    jumpTargets[i] = resolveLabel(instruction.getArgument("JEVariableLabel"), i, labelIndex);
+                    break;
+                case QUOTE:
+                    callSites[i] = linkCall(instruction.getArgument("functionName"),
+                        instruction.getArgument("functionArguments"), scope, registerIndex, registerNames);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return new CompiledProgram(name, opcodes, registers, operands, jumpTargets, cycles, callSites,
+            registerNames.toArray(new String[0]), registerIndex, scope);
+    }
+
+    // EXIT and the end of the program share the same target; unknown labels fall through
+    private static int resolveLabel(String label, int index, LabelIndex labelIndex) {
+        int target = labelIndex.resolve(label);
+        return target != LabelIndex.NOT_FOUND ? target : index + 1;
+    }
+
+    private static int allocateRegister(String variable, Map<String, Integer> registerIndex,
+                                        List<String> registerNames) {
+        String name = variable != null ? variable : "";
+        Integer register = registerIndex.get(name);
+        if (register == null) {
+            register = registerNames.size();
+            registerIndex.put(name, register);
+            registerNames.add(name);
+        }
+        return register;
+    }
+
+    // Parses the call string once; argument variables only appear inside it, so their registers are reserved here
+    private static CallSite linkCall(String functionName, String functionArguments, SProgram scope,
+                                     Map<String, Integer> registerIndex, List<String> registerNames) {
+        List<String> arguments = splitArguments(functionArguments);
+        int[] argumentRegisters = new int[arguments.size()];
+        CallSite[] nestedCalls = new CallSite[arguments.size()];
+
+        for (int i = 0; i < arguments.size(); i++) {
+            String argument = arguments.get(i);
+            if (argument.startsWith("(") && argument.endsWith(")")) {
+                String expression = argument.substring(1, argument.length() - 1).trim();
+                int firstComma = findFirstComma(expression);
+                String nestedName = firstComma == -1 ? expression : expression.substring(0, firstComma).trim();
+                String nestedArguments = firstComma == -1 ? "" : expression.substring(firstComma + 1).trim();
+
+                nestedCalls[i] = linkCall(nestedName, nestedArguments, scope, registerIndex, registerNames);
+                argumentRegisters[i] = CallSite.NESTED;
+            } else {
+                argumentRegisters[i] = allocateRegister(argument, registerIndex, registerNames);
+            }
+        }
+
+        return new CallSite(functionName, scope.getFunction(functionName), argumentRegisters, nestedCalls);
+    }
+
+    private static List<String> splitArguments(String argumentsStr) {
+        List<String> arguments = new ArrayList<>();
+        if (argumentsStr == null || argumentsStr.trim().isEmpty()) {
+            return arguments;
+        }
+
+        int depth = 0;
+        StringBuilder current = new StringBuilder();
+
+        for (char c : argumentsStr.toCharArray()) {
+            if (c == '(') {
+                depth++;
+                current.append(c);
+            } else if (c == ')') {
+                depth--;
+                current.append(c);
+            } else if (c == ',' && depth == 0) {
+                arguments.add(current.toString().trim());
+                current = new StringBuilder();
+            } else {
+                current.append(c);
+            }
+        }
+
+        if (current.length() > 0) {
+            arguments.add(current.toString().trim());
+        }
+
+        return arguments;
+    }
+
+    private static int findFirstComma(String str) {
+        int depth = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+            else if (c == ',' && depth == 0) return i;
+        }
+        return -1;
+    }
+}
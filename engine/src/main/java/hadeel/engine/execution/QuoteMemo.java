@@ -0,0 +1,130 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.SFunction;
+
+import java.util.*;
+
+// Results of QUOTE calls by function name and argument values; S-functions are pure, so a hit replaces a run
+public class QuoteMemo {
+
+    public static final int DEFAULT_MAX_ENTRIES = 4096;
+
+    public static class Entry {
+        private final SFunction function;
+        private final int result;
+        private final int cycles;
+
+        Entry(SFunction function, int result, int cycles) {
+            this.function = function;
+            this.result = result;
+            this.cycles = cycles;
+        }
+
+        public int getResult() {
+            return result;
+        }
+
+        // Cycles the original call consumed inside the function body
+        public int getCycles() {
+            return cycles;
+        }
+    }
+
+    private static class Key {
+        final String functionName;
+        final int[] arguments;
+        final int hash;
+
+        Key(String functionName, int[] arguments) {
+            this.functionName = functionName;
+            this.arguments = arguments;
+            this.hash = 31 * functionName.hashCode() + Arrays.hashCode(arguments);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && functionName.equals(key.functionName)
+                && Arrays.equals(arguments, key.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long cyclesSaved;
+
+    public QuoteMemo() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public QuoteMemo(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // A hit only counts if it was recorded for the same function body, so a redefined name never matches
+    public synchronized Entry lookup(SFunction function, int[] arguments) {
+        Entry entry = entries.get(new Key(function.getName(), arguments));
+        if (entry == null || entry.function != function) {
+            misses++;
+            return null;
+        }
+        hits++;
+        cyclesSaved += entry.cycles;
+        return entry;
+    }
+
+    public synchronized void record(SFunction function, int[] arguments, int result, int cycles) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        entries.put(new Key(function.getName(), arguments.clone()), new Entry(function, result, cycles));
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // Function-body cycles that memo hits did not have to execute again
+    public synchronized long getCyclesSaved() {
+        return cyclesSaved;
+    }
+}
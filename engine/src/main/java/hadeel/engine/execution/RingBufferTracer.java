@@ -0,0 +1,67 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.InstructionName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Keeps only the most recent entries, so tracing a long run holds a fixed amount of memory
+public class RingBufferTracer implements ExecutionTracer {
+
+    private final String[] entries;
+    private int next;
+    private long recorded;
+
+    public RingBufferTracer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Trace capacity must be positive");
+        }
+        this.entries = new String[capacity];
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public synchronized void onInstruction(String body, int index, InstructionName instruction, String variable,
+                                           int value, int cycles) {
+        record(TraceFormat.instruction(body, index, instruction, variable, value, cycles));
+    }
+
+    @Override
+    public synchronized void onCall(String functionName, int result) {
+        record(TraceFormat.call(functionName, result));
+    }
+
+    @Override
+    public synchronized void onMessage(String source, String message) {
+        record(TraceFormat.message(source, message));
+    }
+
+    private void record(String entry) {
+        entries[next] = entry;
+        next = (next + 1) % entries.length;
+        recorded++;
+    }
+
+    // Oldest first
+    public synchronized List<String> getEntries() {
+        List<String> result = new ArrayList<>();
+        int size = (int) Math.min(recorded, entries.length);
+        int start = recorded > entries.length ? next : 0;
+        for (int i = 0; i < size; i++) {
+            result.add(entries[(start + i) % entries.length]);
+        }
+        return result;
+    }
+
+    public synchronized long getDroppedCount() {
+        return Math.max(0, recorded - entries.length);
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+}
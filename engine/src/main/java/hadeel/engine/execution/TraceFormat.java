@@ -0,0 +1,20 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.InstructionName;
+
+class TraceFormat {
+
+    static String instruction(String body, int index, InstructionName instruction, String variable,
+                              int value, int cycles) {
+        return "[" + body + "] #" + (index + 1) + " " + instruction + " " + variable + "=" + value
+            + " cycles=" + cycles;
+    }
+
+    static String call(String functionName, int result) {
+        return "[QUOTE] " + functionName + " -> " + result;
+    }
+
+    static String message(String source, String message) {
+        return "[" + source + "] " + message;
+    }
+}
@@ -72,6 +72,10 @@ public class ExecutionContext {
     }
     
     public Map<String, Integer> getVariablesSorted() {
+        return sortVariables(variables);
+    }
+
+    public static Map<String, Integer> sortVariables(Map<String, Integer> variables) {
         Map<String, Integer> sorted = new TreeMap<>(new VariableComparator());
         sorted.putAll(variables);
         return sorted;
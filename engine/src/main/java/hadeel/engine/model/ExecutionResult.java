@@ -2,15 +2,21 @@ package hadeel.engine.model;
 
 import java.util.Map;
 import java.util.List;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 public class ExecutionResult implements Serializable {
+    // Pinned to the UID of the class as first released, which legacy saved state was written with
+    private static final long serialVersionUID = 9028206530260838422L;
+
     private int outputValue;
     private Map<String, Integer> finalVariables;
     private int cyclesConsumed;
     private int degree;
     private List<Integer> inputs;
     private SProgram expandedProgram;
+    private ExecutionStatus status;
     
     public ExecutionResult(int outputValue, Map<String, Integer> finalVariables, 
                           int cyclesConsumed, int degree, List<Integer> inputs) {
@@ -19,6 +25,7 @@ public class ExecutionResult implements Serializable {
         this.cyclesConsumed = cyclesConsumed;
         this.degree = degree;
         this.inputs = inputs;
+        this.status = ExecutionStatus.COMPLETED;
     }
     
     public int getOutputValue() {
@@ -68,4 +75,25 @@ public class ExecutionResult implements Serializable {
     public void setExpandedProgram(SProgram expandedProgram) {
         this.expandedProgram = expandedProgram;
     }
+    
+    public ExecutionStatus getStatus() {
+        return status;
+    }
+    
+    public void setStatus(ExecutionStatus status) {
+        this.status = status;
+    }
+    
+    // False when the run stopped early; the result then reflects the state at that point
+    public boolean isComplete() {
+        return status == ExecutionStatus.COMPLETED;
+    }
+    
+    // Results saved before runs could stop early have no status; they all ran to completion
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (status == null) {
+            status = ExecutionStatus.COMPLETED;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package hadeel.engine.model;
+
+public enum ExecutionStatus {
+    COMPLETED,
+    BUDGET_EXCEEDED,
+    CANCELLED
+}
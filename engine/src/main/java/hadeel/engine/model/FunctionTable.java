@@ -0,0 +1,45 @@
+package hadeel.engine.model;
+
+import java.util.*;
+
+// Immutable name -> function table. Adding functions returns a new table with the next version, so a table
+// that has been handed out never changes and any number of programs can resolve against it at once.
+public final class FunctionTable {
+    public static final FunctionTable EMPTY = new FunctionTable(0, Collections.emptyMap());
+
+    private final long version;
+    private final Map<String, SFunction> functions;
+
+    private FunctionTable(long version, Map<String, SFunction> functions) {
+        this.version = version;
+        this.functions = functions;
+    }
+
+    // Copies the current entries once; existing names keep their function
+    public FunctionTable with(Collection<SFunction> added) {
+        if (added.isEmpty()) {
+            return this;
+        }
+        Map<String, SFunction> copy = new LinkedHashMap<>(functions);
+        for (SFunction function : added) {
+            copy.putIfAbsent(function.getName(), function);
+        }
+        return new FunctionTable(version + 1, Collections.unmodifiableMap(copy));
+    }
+
+    public SFunction get(String name) {
+        return functions.get(name);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return functions.size();
+    }
+
+    public Collection<SFunction> getFunctions() {
+        return functions.values();
+    }
+}
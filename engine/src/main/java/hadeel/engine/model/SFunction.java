@@ -5,6 +5,8 @@ import java.util.List;
 import java.io.Serializable;
 
 public class SFunction implements Serializable {
+    private static final long serialVersionUID = 6724628282332482217L;
+
     private String name;
     private String userString;
     private List<SInstruction> instructions;
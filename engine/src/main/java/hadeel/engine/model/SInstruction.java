@@ -7,6 +7,8 @@ import java.util.List;
 import java.io.Serializable;
 
 public class SInstruction implements Serializable {
+    private static final long serialVersionUID = 9151495171292447456L;
+
     private InstructionType type;
     private InstructionName name;
     private String variable;
@@ -8,9 +8,14 @@ import java.util.HashSet;
 import java.io.Serializable;
 
 public class SProgram implements Serializable {
+    // The UID computed for the class as first released, so files saved by earlier versions still load
+    private static final long serialVersionUID = -2534786546039524979L;
+
     private String name;
     private List<SInstruction> instructions;
     private List<SFunction> functions;
+    // Shared functions resolved after the program's own; attached per use, never saved with the program
+    private transient FunctionTable functionScope;
     
     public SProgram() {
         this.instructions = new ArrayList<>();
@@ -167,6 +172,24 @@ public class SProgram implements Serializable {
                 return function;
             }
         }
-        return null;
+        return functionScope != null ? functionScope.get(name) : null;
+    }
+    
+    public FunctionTable getFunctionScope() {
+        return functionScope != null ? functionScope : FunctionTable.EMPTY;
+    }
+    
+    public void setFunctionScope(FunctionTable functionScope) {
+        this.functionScope = functionScope;
+    }
+    
+    // Shares this program's instructions and functions; only the scope differs, so neither is modified
+    public SProgram withFunctionScope(FunctionTable scope) {
+        SProgram view = new SProgram();
+        view.name = name;
+        view.instructions = instructions;
+        view.functions = functions;
+        view.functionScope = scope;
+        return view;
     }
 }
\ No newline at end of file
@@ -0,0 +1,426 @@
+package hadeel.engine.parser;
+
+import hadeel.engine.model.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// Versioned binary encoding of programs and execution results.
+//
+// Layout: magic "SEMB", version byte, string table, programs, results. Every string (names, variables, labels,
+// argument keys and values) is stored once in the table and referenced by a varint index; opcodes are single
+// bytes. Instructions and programs are written once and referenced afterwards, so the parent chains of
+// expanded instructions share their ancestors instead of repeating them.
+public class BinaryProgramFormat {
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x53454D42;
+    // Small files are cheaper to read than to map
+    private static final long MAP_THRESHOLD_BYTES = 64 * 1024;
+
+    private static final int NULL_REF = 0;
+    private static final int NEW_REF = 1;
+    private static final int SYNTHETIC_FLAG = 0x80;
+
+    public static class Contents {
+        private final List<SProgram> programs;
+        private final List<ExecutionResult> results;
+
+        public Contents(List<SProgram> programs, List<ExecutionResult> results) {
+            this.programs = programs;
+            this.results = results;
+        }
+
+        public List<SProgram> getPrograms() {
+            return programs;
+        }
+
+        public List<ExecutionResult> getResults() {
+            return results;
+        }
+    }
+
+    public static class FormatException extends IOException {
+        public FormatException(String message) {
+            super(message);
+        }
+    }
+
+    public static byte[] encode(List<SProgram> programs, List<ExecutionResult> results) {
+        Encoder body = new Encoder();
+        body.writeVarint(programs.size());
+        for (SProgram program : programs) {
+            body.writeProgramRef(program);
+        }
+        body.writeVarint(results.size());
+        for (ExecutionResult result : results) {
+            body.writeResult(result);
+        }
+
+        Encoder header = new Encoder();
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeVarint(body.strings.size());
+        for (String value : body.strings) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            header.writeVarint(bytes.length);
+            header.writeBytes(bytes, 0, bytes.length);
+        }
+        header.writeBytes(body.buffer, 0, body.size);
+        return Arrays.copyOf(header.buffer, header.size);
+    }
+
+    public static Contents decode(ByteBuffer buffer) throws FormatException {
+        try {
+            Decoder decoder = new Decoder(buffer);
+            if (buffer.getInt() != MAGIC) {
+                throw new FormatException("Not an S-Emulator binary file");
+            }
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                throw new FormatException("Unsupported binary format version " + version);
+            }
+            decoder.readStringTable();
+
+            int programCount = decoder.readCount();
+            List<SProgram> programs = new ArrayList<>(programCount);
+            for (int i = 0; i < programCount; i++) {
+                programs.add(decoder.readProgramRef());
+            }
+            int resultCount = decoder.readCount();
+            List<ExecutionResult> results = new ArrayList<>(resultCount);
+            for (int i = 0; i < resultCount; i++) {
+                results.add(decoder.readResult());
+            }
+            return new Contents(programs, results);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new FormatException("Truncated or corrupt binary program data");
+        }
+    }
+
+    public static void write(Path path, List<SProgram> programs, List<ExecutionResult> results) throws IOException {
+        byte[] encoded = encode(programs, results);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            out.write(encoded);
+        }
+    }
+
+    // Large files are memory-mapped and decoded straight from the page cache
+    public static Contents read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAP_THRESHOLD_BYTES) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // Keep reading until full
+                }
+                buffer.flip();
+                return decode(buffer);
+            }
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    // True when the data starts with this format's magic number
+    public static boolean isBinaryFormat(byte[] prefix) {
+        return prefix.length >= 4 && ByteBuffer.wrap(prefix).getInt() == MAGIC;
+    }
+
+    private static class Encoder {
+        private byte[] buffer = new byte[4096];
+        private int size;
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Map<Object, Integer> objectIds = new IdentityHashMap<>();
+
+        void writeProgramRef(SProgram program) {
+            if (writeRef(program)) {
+                writeString(program.getName());
+                writeInstructions(program.getInstructions());
+                writeVarint(program.getFunctions().size());
+                for (SFunction function : program.getFunctions()) {
+                    writeString(function.getName());
+                    writeString(function.getUserString());
+                    writeInstructions(function.getInstructions());
+                }
+            }
+        }
+
+        void writeInstructions(List<SInstruction> instructions) {
+            writeVarint(instructions.size());
+            for (SInstruction instruction : instructions) {
+                writeInstructionRef(instruction);
+            }
+        }
+
+        void writeInstructionRef(SInstruction instruction) {
+            if (!writeRef(instruction)) {
+                return;
+            }
+            int opcode = instruction.getName().ordinal();
+            if (instruction.getType() == InstructionType.SYNTHETIC) {
+                opcode |= SYNTHETIC_FLAG;
+            }
+            writeByte(opcode);
+            writeString(instruction.getVariable());
+            writeString(instruction.getLabel());
+            writeVarint(instruction.getLineNumber());
+            Map<String, String> arguments = instruction.getArguments();
+            writeVarint(arguments.size());
+            for (Map.Entry<String, String> argument : arguments.entrySet()) {
+                writeString(argument.getKey());
+                writeString(argument.getValue());
+            }
+            writeInstructionRef(instruction.getParent());
+        }
+
+        void writeResult(ExecutionResult result) {
+            writeSignedVarint(result.getOutputValue());
+            Map<String, Integer> variables = result.getFinalVariables();
+            writeVarint(variables != null ? variables.size() : 0);
+            if (variables != null) {
+                for (Map.Entry<String, Integer> variable : variables.entrySet()) {
+                    writeString(variable.getKey());
+                    writeSignedVarint(variable.getValue());
+                }
+            }
+            writeVarint(result.getCyclesConsumed());
+            writeVarint(result.getDegree());
+            List<Integer> inputs = result.getInputs();
+            writeVarint(inputs != null ? inputs.size() : 0);
+            if (inputs != null) {
+                for (int input : inputs) {
+                    writeSignedVarint(input);
+                }
+            }
+            writeByte(result.getStatus().ordinal());
+            writeProgramRef(result.getExpandedProgram());
+        }
+
+        // Writes a null marker, a back-reference, or the "new object" marker; true when the object follows
+        boolean writeRef(Object object) {
+            if (object == null) {
+                writeVarint(NULL_REF);
+                return false;
+            }
+            Integer id = objectIds.get(object);
+            if (id != null) {
+                writeVarint(id + 2);
+                return false;
+            }
+            objectIds.put(object, objectIds.size());
+            writeVarint(NEW_REF);
+            return true;
+        }
+
+        // Index 0 stands for null, table entries start at 1
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            Integer id = stringIds.get(value);
+            if (id == null) {
+                id = strings.size() + 1;
+                stringIds.put(value, id);
+                strings.add(value);
+            }
+            writeVarint(id);
+        }
+
+        void writeSignedVarint(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static class Decoder {
+        private static final InstructionName[] OPCODES = InstructionName.values();
+        private static final ExecutionStatus[] STATUSES = ExecutionStatus.values();
+
+        private final ByteBuffer buffer;
+        private String[] strings;
+        private final List<Object> objects = new ArrayList<>();
+
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void readStringTable() {
+            int count = readCount();
+            strings = new String[count + 1];
+            byte[] scratch = new byte[64];
+            for (int i = 1; i <= count; i++) {
+                int length = readCount();
+                if (scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                buffer.get(scratch, 0, length);
+                strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+        }
+
+        SProgram readProgramRef() throws FormatException {
+            int ref = readVarint();
+            if (ref != NEW_REF) {
+                return (SProgram) resolve(ref, SProgram.class);
+            }
+            SProgram program = new SProgram();
+            objects.add(program);
+            program.setName(readString());
+            program.setInstructions(readInstructions());
+            int functionCount = readCount();
+            List<SFunction> functions = new ArrayList<>(functionCount);
+            for (int i = 0; i < functionCount; i++) {
+                SFunction function = new SFunction(readString(), readString());
+                function.setInstructions(readInstructions());
+                functions.add(function);
+            }
+            program.setFunctions(functions);
+            return program;
+        }
+
+        List<SInstruction> readInstructions() throws FormatException {
+            int count = readCount();
+            List<SInstruction> instructions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                instructions.add(readInstructionRef());
+            }
+            return instructions;
+        }
+
+        SInstruction readInstructionRef() throws FormatException {
+            int ref = readVarint();
+            if (ref != NEW_REF) {
+                return (SInstruction) resolve(ref, SInstruction.class);
+            }
+            SInstruction instruction = new SInstruction();
+            objects.add(instruction);
+            int opcode = buffer.get() & 0xFF;
+            int ordinal = opcode & ~SYNTHETIC_FLAG;
+            if (ordinal >= OPCODES.length) {
+                throw new FormatException("Unknown opcode " + ordinal);
+            }
+            instruction.setName(OPCODES[ordinal]);
+            instruction.setType((opcode & SYNTHETIC_FLAG) != 0 ? InstructionType.SYNTHETIC : InstructionType.BASIC);
+            instruction.setVariable(readString());
+            instruction.setLabel(readString());
+            instruction.setLineNumber(readVarint());
+            int argumentCount = readCount();
+            Map<String, String> arguments = new HashMap<>();
+            for (int i = 0; i < argumentCount; i++) {
+                arguments.put(readString(), readString());
+            }
+            instruction.setArguments(arguments);
+            instruction.setParent(readInstructionRef());
+            return instruction;
+        }
+
+        ExecutionResult readResult() throws FormatException {
+            int outputValue = readSignedVarint();
+            int variableCount = readCount();
+            // Written in the engine's display order, which a LinkedHashMap keeps
+            Map<String, Integer> variables = new LinkedHashMap<>();
+            for (int i = 0; i < variableCount; i++) {
+                variables.put(readString(), readSignedVarint());
+            }
+            int cycles = readVarint();
+            int degree = readVarint();
+            int inputCount = readCount();
+            List<Integer> inputs = new ArrayList<>(inputCount);
+            for (int i = 0; i < inputCount; i++) {
+                inputs.add(readSignedVarint());
+            }
+            ExecutionResult result = new ExecutionResult(outputValue, variables, cycles, degree, inputs);
+            int status = buffer.get() & 0xFF;
+            if (status >= STATUSES.length) {
+                throw new FormatException("Unknown execution status " + status);
+            }
+            result.setStatus(STATUSES[status]);
+            result.setExpandedProgram(readProgramRef());
+            return result;
+        }
+
+        private Object resolve(int ref, Class<?> type) throws FormatException {
+            if (ref == NULL_REF) {
+                return null;
+            }
+            int id = ref - 2;
+            if (id >= objects.size() || !type.isInstance(objects.get(id))) {
+                throw new FormatException("Invalid reference " + id);
+            }
+            return objects.get(id);
+        }
+
+        String readString() {
+            return strings[readVarint()];
+        }
+
+        // A count is bounded by the bytes left, so corrupt data fails instead of allocating huge lists
+        int readCount() {
+            int count = readVarint();
+            if (count < 0 || count > buffer.remaining()) {
+                throw new IllegalArgumentException("Invalid count " + count);
+            }
+            return count;
+        }
+
+        int readSignedVarint() {
+            int raw = readVarint();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,494 @@
+package hadeel.engine.parser;
+
+import hadeel.engine.model.*;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.util.*;
+
+// Single-pass StAX parser; builds the program while reading, so memory is bounded by the program itself rather
+// than by a DOM of the whole document. It accepts the same documents and reports the same errors as the DOM
+// parser it replaces, in the same order: strict mode follows XMLParser.parseFileDom (labels are validated and
+// instructions numbered), lenient mode follows XMLParser.parseXMLStringDom (bad instructions are skipped).
+//
+// The DOM parser looked elements up with getElementsByTagName, which sees every descendant, so one element can
+// be an instruction of the program and of several nested functions at once; each open scope is tracked for that.
+public class StreamingXMLParser {
+    private static final String PROGRAM = "S-Program";
+    private static final String INSTRUCTIONS = "S-Instructions";
+    private static final String INSTRUCTION = "S-Instruction";
+    private static final String FUNCTIONS = "S-Functions";
+    private static final String FUNCTION = "S-Function";
+    private static final String VARIABLE = "S-Variable";
+    private static final String LABEL = "S-Label";
+    private static final String ARGUMENTS = "S-Instruction-Arguments";
+    private static final String ARGUMENT = "S-Instruction-Argument";
+
+    private static final String[] LABEL_ARGUMENTS = {"JNZLabel", "gotoLabel", "JZLabel",
+        "JEConstantLabel", "JEVariableLabel", "JEFunctionLabel"};
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        // Uploaded documents must not make the server read local files or fetch URLs
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    public static ParseResult parseFile(File file) {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 65536)) {
+            return parse(INPUT_FACTORY.createXMLStreamReader(in), true);
+        } catch (Exception e) {
+            return failure("Error parsing XML file: " + e.getMessage());
+        }
+    }
+
+    public static ParseResult parseXMLString(String xmlContent) {
+        try {
+            return parse(INPUT_FACTORY.createXMLStreamReader(new StringReader(xmlContent)), false);
+        } catch (Exception e) {
+            return failure("Error parsing XML: " + e.getMessage());
+        }
+    }
+
+    private static ParseResult parse(XMLStreamReader reader, boolean strict) throws XMLStreamException {
+        try {
+            StreamingXMLParser parser = new StreamingXMLParser(reader, strict);
+            parser.readDocument();
+            return parser.buildResult();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static ParseResult failure(String error) {
+        ParseResult result = new ParseResult();
+        result.addError(error);
+        return result;
+    }
+
+    // An S-Function element and the instructions collected for it so far
+    private static class FunctionScope {
+        final int depth;
+        final SFunction function;
+        final boolean valid;
+        final List<String> errors = new ArrayList<>();
+        final List<SInstruction> instructions = new ArrayList<>();
+        boolean instructionsSeen;
+        int instructionsDepth = -1;
+
+        FunctionScope(int depth, SFunction function, boolean valid) {
+            this.depth = depth;
+            this.function = function;
+            this.valid = valid;
+        }
+    }
+
+    // An instruction element still being read. Its result goes into a reserved slot of every scope it
+    // belongs to, so instructions stay in start-tag order even when they nest.
+    private static class PendingInstruction {
+        final int depth;
+        final int programSlot;
+        final int lineNumber;
+        final List<FunctionScope> functions = new ArrayList<>();
+        final List<Integer> functionSlots = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        boolean valid = true;
+        InstructionType type;
+        InstructionName name;
+
+        StringBuilder variable;
+        int variableDepth = -1;
+        StringBuilder label;
+        int labelDepth = -1;
+        boolean argumentsSeen;
+        int argumentsDepth = -1;
+        final List<String> arguments = new ArrayList<>();
+
+        PendingInstruction(int depth, int programSlot, int lineNumber) {
+            this.depth = depth;
+            this.programSlot = programSlot;
+            this.lineNumber = lineNumber;
+        }
+
+        // Each scope gets its own object, as the DOM parser parsed the element once per scope
+        SInstruction build(int line) {
+            SInstruction instruction = new SInstruction(type, name, null);
+            if (variable != null) {
+                instruction.setVariable(variable.toString().trim());
+            }
+            if (label != null) {
+                instruction.setLabel(label.toString().trim());
+            }
+            for (int i = 0; i < arguments.size(); i += 2) {
+                instruction.addArgument(arguments.get(i), arguments.get(i + 1));
+            }
+            instruction.setLineNumber(line);
+            return instruction;
+        }
+    }
+
+    private final XMLStreamReader reader;
+    private final boolean strict;
+
+    private String rootName;
+    private String programName;
+    private List<SInstruction> programInstructions;
+    private final List<String> programErrors = new ArrayList<>();
+    private final List<FunctionScope> functions = new ArrayList<>();
+    private int programInstructionCount;
+
+    private int depth;
+    private int programInstructionsDepth = -1;
+    private boolean functionsSeen;
+    private int functionsDepth = -1;
+    private final Deque<FunctionScope> openFunctions = new ArrayDeque<>();
+    private final Deque<PendingInstruction> openInstructions = new ArrayDeque<>();
+
+    private StreamingXMLParser(XMLStreamReader reader, boolean strict) {
+        this.reader = reader;
+        this.strict = strict;
+    }
+
+    // The whole document is always read, so malformed XML is reported even after a semantic error
+    private void readDocument() throws XMLStreamException {
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    startElement(elementName());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!openInstructions.isEmpty()) {
+                        appendText();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void startElement(String name) {
+        if (depth == 1) {
+            rootName = name;
+            programName = attribute("name");
+            return;
+        }
+        if (!PROGRAM.equals(rootName)) {
+            return;
+        }
+
+        for (PendingInstruction open : openInstructions) {
+            startInsideInstruction(open, name);
+        }
+        startInstructionIfMember(name);
+
+        if (INSTRUCTIONS.equals(name)) {
+            // The first S-Instructions in the document holds the program body, wherever it is
+            if (programInstructions == null) {
+                programInstructions = new ArrayList<>();
+                programInstructionsDepth = depth;
+            }
+            for (FunctionScope scope : openFunctions) {
+                if (!scope.valid || scope.instructionsDepth >= 0) {
+                    continue;
+                }
+                if (strict && !scope.instructionsSeen) {
+                    scope.instructionsSeen = true;
+                    scope.instructionsDepth = depth;
+                } else if (!strict && depth == scope.depth + 1) {
+                    scope.instructionsDepth = depth;
+                }
+            }
+        } else if (FUNCTIONS.equals(name)) {
+            if (!functionsSeen) {
+                functionsSeen = true;
+                functionsDepth = depth;
+            }
+        } else if (FUNCTION.equals(name) && functionsDepth >= 0) {
+            startFunction();
+        }
+    }
+
+    private void endElement() {
+        PendingInstruction innermost = openInstructions.peek();
+        if (innermost != null && innermost.depth == depth) {
+            finishInstruction(openInstructions.pop());
+        }
+        for (PendingInstruction open : openInstructions) {
+            endInsideInstruction(open);
+        }
+
+        if (depth == programInstructionsDepth) {
+            programInstructionsDepth = -1;
+        }
+        for (FunctionScope scope : openFunctions) {
+            if (depth == scope.instructionsDepth) {
+                scope.instructionsDepth = -1;
+            }
+        }
+        FunctionScope function = openFunctions.peek();
+        if (function != null && function.depth == depth) {
+            openFunctions.pop();
+            if (!strict && function.valid) {
+                System.out.println("[parseFunction] Function " + function.function.getName() + " parsed with "
+                    + function.instructions.size() + " instructions");
+            }
+        }
+        if (depth == functionsDepth) {
+            functionsDepth = -1;
+        }
+    }
+
+    private void startFunction() {
+        String name = attribute("name");
+        String userString = attribute("user-string");
+        FunctionScope scope;
+        if (!strict) {
+            System.out.println("[parseFunction] Parsing function: " + name);
+            scope = new FunctionScope(depth, new SFunction(name, userString), true);
+        } else if (name.isEmpty()) {
+            scope = new FunctionScope(depth, null, false);
+            scope.errors.add("Function must have name attribute");
+        } else if (userString.isEmpty()) {
+            scope = new FunctionScope(depth, null, false);
+            scope.errors.add("Function must have user-string attribute");
+        } else {
+            scope = new FunctionScope(depth, new SFunction(name, userString), true);
+        }
+        functions.add(scope);
+        openFunctions.push(scope);
+    }
+
+    private boolean isProgramInstruction(String name) {
+        if (programInstructionsDepth < 0) {
+            return false;
+        }
+        return strict ? INSTRUCTION.equals(name) : depth == programInstructionsDepth + 1;
+    }
+
+    // Strict: any S-Instruction inside the function's first S-Instructions. Lenient: any direct child
+    // other than S-Instructions, or any direct child of such a wrapper.
+    private boolean isFunctionInstruction(FunctionScope scope, String name) {
+        if (!scope.valid) {
+            return false;
+        }
+        if (strict) {
+            return scope.instructionsDepth >= 0 && INSTRUCTION.equals(name);
+        }
+        return (depth == scope.depth + 1 && !INSTRUCTIONS.equals(name))
+            || (scope.instructionsDepth >= 0 && depth == scope.instructionsDepth + 1);
+    }
+
+    private void startInstructionIfMember(String name) {
+        boolean forProgram = isProgramInstruction(name);
+        PendingInstruction pending = null;
+        if (forProgram) {
+            programInstructionCount++;
+            programInstructions.add(null);
+            pending = new PendingInstruction(depth, programInstructions.size() - 1, programInstructionCount);
+        }
+        // Functions in start order, to match the order their errors were reported in
+        Iterator<FunctionScope> scopes = openFunctions.descendingIterator();
+        while (scopes.hasNext()) {
+            FunctionScope scope = scopes.next();
+            if (isFunctionInstruction(scope, name)) {
+                if (pending == null) {
+                    pending = new PendingInstruction(depth, -1, 0);
+                }
+                scope.instructions.add(null);
+                pending.functions.add(scope);
+                pending.functionSlots.add(scope.instructions.size() - 1);
+            }
+        }
+        if (pending == null) {
+            return;
+        }
+
+        readInstructionAttributes(pending);
+        if (forProgram) {
+            programErrors.addAll(pending.errors);
+        }
+        for (FunctionScope scope : pending.functions) {
+            scope.errors.addAll(pending.errors);
+        }
+        openInstructions.push(pending);
+    }
+
+    private void readInstructionAttributes(PendingInstruction pending) {
+        String type = attribute("type");
+        if (type.isEmpty()) {
+            reject(pending, "Instruction must have type attribute", "Instruction missing type attribute");
+            return;
+        }
+        try {
+            pending.type = InstructionType.fromString(type);
+        } catch (IllegalArgumentException e) {
+            reject(pending, "Invalid instruction type: " + type, "Invalid instruction type: " + type);
+            return;
+        }
+
+        String name = attribute("name");
+        if (name.isEmpty()) {
+            reject(pending, "Instruction must have name attribute", "Instruction missing name attribute");
+            return;
+        }
+        try {
+            pending.name = InstructionName.fromString(name);
+        } catch (IllegalArgumentException e) {
+            reject(pending, "Invalid instruction name: " + name, "Invalid instruction name: " + name);
+        }
+    }
+
+    private void reject(PendingInstruction pending, String strictError, String lenientError) {
+        pending.valid = false;
+        if (strict) {
+            pending.errors.add(strictError);
+        } else {
+            System.out.println("[parseInstruction] ERROR: " + lenientError);
+        }
+    }
+
+    // Only the first S-Variable, S-Label and S-Instruction-Arguments count, as with getElementsByTagName
+    private void startInsideInstruction(PendingInstruction pending, String name) {
+        if (VARIABLE.equals(name) && pending.variable == null) {
+            pending.variable = new StringBuilder();
+            pending.variableDepth = depth;
+        } else if (LABEL.equals(name) && pending.label == null) {
+            pending.label = new StringBuilder();
+            pending.labelDepth = depth;
+        } else if (ARGUMENTS.equals(name) && !pending.argumentsSeen) {
+            pending.argumentsSeen = true;
+            pending.argumentsDepth = depth;
+        } else if (ARGUMENT.equals(name) && pending.argumentsDepth >= 0) {
+            pending.arguments.add(attribute("name"));
+            pending.arguments.add(attribute("value"));
+        }
+    }
+
+    private void endInsideInstruction(PendingInstruction pending) {
+        if (depth == pending.variableDepth) {
+            pending.variableDepth = -1;
+        }
+        if (depth == pending.labelDepth) {
+            pending.labelDepth = -1;
+        }
+        if (depth == pending.argumentsDepth) {
+            pending.argumentsDepth = -1;
+        }
+    }
+
+    private void appendText() {
+        for (PendingInstruction pending : openInstructions) {
+            if (pending.variableDepth >= 0) {
+                pending.variable.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+            if (pending.labelDepth >= 0) {
+                pending.label.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            }
+        }
+    }
+
+    private void finishInstruction(PendingInstruction pending) {
+        if (!pending.valid) {
+            return;
+        }
+        if (pending.programSlot >= 0) {
+            // Line numbers were only assigned by the strict parser
+            programInstructions.set(pending.programSlot, pending.build(strict ? pending.lineNumber : 0));
+        }
+        for (int i = 0; i < pending.functions.size(); i++) {
+            pending.functions.get(i).instructions.set(pending.functionSlots.get(i), pending.build(0));
+        }
+    }
+
+    private ParseResult buildResult() {
+        ParseResult result = new ParseResult();
+        if (!PROGRAM.equals(rootName)) {
+            result.addError("Root element must be S-Program");
+            return result;
+        }
+        if (programName.trim().isEmpty()) {
+            result.addError("Program must have a name attribute");
+            return result;
+        }
+        if (programInstructions == null) {
+            result.addError("Program must contain S-Instructions element");
+            return result;
+        }
+
+        SProgram program = new SProgram(programName.trim());
+        // Slots of rejected instructions stay empty
+        programInstructions.removeIf(Objects::isNull);
+        program.setInstructions(programInstructions);
+        for (FunctionScope scope : functions) {
+            if (scope.valid) {
+                scope.instructions.removeIf(Objects::isNull);
+                scope.function.setInstructions(scope.instructions);
+                program.addFunction(scope.function);
+            }
+        }
+
+        if (!strict) {
+            System.out.println("[XMLParser] Parsed " + programInstructions.size() + " instructions and "
+                + program.getFunctions().size() + " functions");
+            result.setProgram(program);
+            return result;
+        }
+
+        for (String error : programErrors) {
+            result.addError(error);
+        }
+        for (FunctionScope scope : functions) {
+            for (String error : scope.errors) {
+                result.addError(error);
+            }
+        }
+        Set<String> definedLabels = new HashSet<>();
+        Set<String> referencedLabels = new HashSet<>();
+        for (SInstruction instruction : programInstructions) {
+            if (instruction.getLabel() != null && !instruction.getLabel().isEmpty()) {
+                definedLabels.add(instruction.getLabel());
+            }
+            for (String argument : LABEL_ARGUMENTS) {
+                String label = instruction.getArgument(argument);
+                if (label != null && !label.isEmpty()) {
+                    referencedLabels.add(label);
+                }
+            }
+        }
+        for (String label : referencedLabels) {
+            if (!label.equals("EXIT") && !definedLabels.contains(label)) {
+                result.addError("Reference to undefined label: " + label);
+            }
+        }
+        if (result.isSuccess()) {
+            result.setProgram(program);
+        }
+        return result;
+    }
+
+    // Qualified name, which is what the DOM parser matched on
+    private String elementName() {
+        String prefix = reader.getPrefix();
+        return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    // Missing attributes read as "", like Element.getAttribute
+    private String attribute(String name) {
+        String value = reader.getAttributeValue(null, name);
+        return value != null ? value : "";
+    }
+}
@@ -10,8 +10,28 @@ import java.util.*;
 import org.xml.sax.InputSource;
 
 public class XMLParser {
+    // Uploads and files go through the streaming parser; -Dsemulator.parser.dom=true restores the DOM parser
+    private static final boolean DOM_PARSER = Boolean.getBoolean("semulator.parser.dom");
     
     public static ParseResult parseFile(String filePath) {
+        if (DOM_PARSER) {
+            return parseFileDom(filePath);
+        }
+        ParseResult result = checkFilePath(filePath);
+        if (!result.isSuccess()) {
+            return result;
+        }
+        return StreamingXMLParser.parseFile(new File(filePath));
+    }
+    
+    public static ParseResult parseXMLString(String xmlContent) {
+        if (DOM_PARSER) {
+            return parseXMLStringDom(xmlContent);
+        }
+        return StreamingXMLParser.parseXMLString(xmlContent);
+    }
+    
+    private static ParseResult checkFilePath(String filePath) {
         ParseResult result = new ParseResult();
         
         if (!filePath.toLowerCase().endsWith(".xml")) {
@@ -19,11 +39,18 @@ public class XMLParser {
             return result;
         }
         
-        File file = new File(filePath);
-        if (!file.exists()) {
+        if (!new File(filePath).exists()) {
             result.addError("File does not exist: " + filePath);
+        }
+        return result;
+    }
+    
+    public static ParseResult parseFileDom(String filePath) {
+        ParseResult result = checkFilePath(filePath);
+        if (!result.isSuccess()) {
             return result;
         }
+        File file = new File(filePath);
         
         try {
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -211,7 +238,7 @@ public class XMLParser {
         }
     }
 
-    public static ParseResult parseXMLString(String xmlContent) {
+    public static ParseResult parseXMLStringDom(String xmlContent) {
         ParseResult result = new ParseResult();
 
         try {
@@ -0,0 +1,45 @@
+package hadeel.engine.validation;
+
+import hadeel.engine.model.*;
+import java.util.*;
+
+public class FunctionReferences {
+
+    // Every function the instructions call: QUOTE and JUMP_EQUAL_FUNCTION targets plus the calls nested in
+    // their functionArguments, e.g. both Plus and Const7 in (Plus,x1,(Const7))
+    public static Set<String> collect(List<SInstruction> instructions) {
+        Set<String> names = new LinkedHashSet<>();
+        for (SInstruction inst : instructions) {
+            if (inst.getName() != InstructionName.QUOTE && inst.getName() != InstructionName.JUMP_EQUAL_FUNCTION) {
+                continue;
+            }
+            String functionName = inst.getArgument("functionName");
+            if (functionName != null) {
+                names.add(functionName);
+            }
+            collectNested(inst.getArgument("functionArguments"), names);
+        }
+        return names;
+    }
+
+    // Every '(' opens a call whose name runs up to the next ',', '(' or ')'
+    private static void collectNested(String arguments, Set<String> names) {
+        if (arguments == null) {
+            return;
+        }
+        int length = arguments.length();
+        for (int i = 0; i < length; i++) {
+            if (arguments.charAt(i) != '(') {
+                continue;
+            }
+            int end = i + 1;
+            while (end < length && "(),".indexOf(arguments.charAt(end)) < 0) {
+                end++;
+            }
+            String name = arguments.substring(i + 1, end).trim();
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package hadeel.engine;
+
+import hadeel.engine.execution.ExecutionEngine;
+import hadeel.engine.model.*;
+import hadeel.engine.parser.BinaryProgramFormat;
+import hadeel.engine.parser.ParseResult;
+import hadeel.engine.parser.XMLParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Saving and loading in the binary format must give back the same programs, functions, labels and history, and
+// data that is cut short or damaged must fail with a FormatException rather than load as something else
+class BinaryProgramFormatTest {
+
+    private static final List<String> PROGRAMS = List.of("coverage", "multiplication", "nested");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripKeepsProgramsFunctionsAndLabels() throws IOException {
+        List<SProgram> programs = new ArrayList<>();
+        List<ExecutionResult> results = new ArrayList<>();
+        for (String name : PROGRAMS) {
+            SProgram program = load(name);
+            programs.add(program);
+            for (int degree = 0; degree <= program.getMaxDegree(); degree++) {
+                results.add(new ExecutionEngine().execute(program, List.of(3, 2), degree));
+            }
+        }
+        // The same expanded program twice is written once and read back as one object
+        results.add(results.get(results.size() - 1));
+
+        BinaryProgramFormat.Contents contents = BinaryProgramFormat.decode(
+            ByteBuffer.wrap(BinaryProgramFormat.encode(programs, results)));
+
+        assertEquals(programs.size(), contents.getPrograms().size());
+        for (int i = 0; i < programs.size(); i++) {
+            SProgram decoded = contents.getPrograms().get(i);
+            assertEquals(render(programs.get(i)), render(decoded));
+            assertEquals(programs.get(i).getUsedLabels(), decoded.getUsedLabels());
+            assertEquals(programs.get(i).getMaxDegree(), decoded.getMaxDegree());
+        }
+        assertEquals(results.size(), contents.getResults().size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(render(results.get(i)), render(contents.getResults().get(i)), "result " + i);
+        }
+        List<ExecutionResult> decodedResults = contents.getResults();
+        assertSame(decodedResults.get(decodedResults.size() - 2).getExpandedProgram(),
+            decodedResults.get(decodedResults.size() - 1).getExpandedProgram());
+    }
+
+    // Small files are read into a buffer and large ones are memory-mapped; both must decode the same
+    @Test
+    void readsBackWhatItWroteAtAnySize() throws IOException {
+        SProgram program = load("multiplication");
+        for (int runs : List.of(1, 2000)) {
+            List<ExecutionResult> results = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                results.add(new ExecutionEngine().execute(program, List.of(i % 7, i % 5 + i), i % 2));
+            }
+            Path file = directory.resolve("state" + runs + ".semulator");
+            BinaryProgramFormat.write(file, List.of(program), results);
+
+            BinaryProgramFormat.Contents contents = BinaryProgramFormat.read(file);
+            assertEquals(render(program), render(contents.getPrograms().get(0)));
+            for (int i = 0; i < runs; i++) {
+                assertEquals(render(results.get(i)), render(contents.getResults().get(i)), "result " + i);
+            }
+        }
+        assertTrue(Files.size(directory.resolve("state2000.semulator")) > 64 * 1024, "large file too small to map");
+    }
+
+    @Test
+    void savedStateLoadsIntoAFreshEngine() throws IOException {
+        Path xml = directory.resolve("nested.xml");
+        try (InputStream in = getClass().getResourceAsStream("/programs/nested.xml")) {
+            assertNotNull(in, "missing program nested");
+            Files.copy(in, xml);
+        }
+        SEmulatorEngine engine = new SEmulatorEngine();
+        assertTrue(engine.loadProgram(xml.toString()).isSuccess());
+        engine.executeProgram(List.of(4, 1), 0);
+        engine.executeProgram(List.of(2, 6), 1);
+        String base = directory.resolve("saved").toString();
+        assertTrue(engine.saveState(base));
+
+        SEmulatorEngine reloaded = new SEmulatorEngine();
+        assertTrue(reloaded.loadState(base));
+        assertEquals(render(engine.getCurrentProgram()), render(reloaded.getCurrentProgram()));
+        assertEquals(engine.getLabels(), reloaded.getLabels());
+        assertEquals(engine.displayExecutionHistory(), reloaded.displayExecutionHistory());
+        assertEquals(engine.executeProgram(List.of(3, 3), 1).getOutputValue(),
+            reloaded.executeProgram(List.of(3, 3), 1).getOutputValue());
+    }
+
+    @Test
+    void rejectsTruncatedData() {
+        byte[] encoded = encodedSample();
+        for (int length = 0; length < encoded.length; length++) {
+            ByteBuffer prefix = ByteBuffer.wrap(Arrays.copyOf(encoded, length));
+            assertThrows(BinaryProgramFormat.FormatException.class, () -> BinaryProgramFormat.decode(prefix),
+                "accepted the first " + length + " of " + encoded.length + " bytes");
+        }
+    }
+
+    @Test
+    void rejectsWrongMagicAndVersion() {
+        byte[] wrongMagic = encodedSample();
+        wrongMagic[0] ^= 0x20;
+        assertFalse(BinaryProgramFormat.isBinaryFormat(wrongMagic));
+        assertThrows(BinaryProgramFormat.FormatException.class,
+            () -> BinaryProgramFormat.decode(ByteBuffer.wrap(wrongMagic)));
+
+        byte[] wrongVersion = encodedSample();
+        wrongVersion[4] = (byte) (BinaryProgramFormat.VERSION + 1);
+        assertTrue(BinaryProgramFormat.isBinaryFormat(wrongVersion));
+        assertThrows(BinaryProgramFormat.FormatException.class,
+            () -> BinaryProgramFormat.decode(ByteBuffer.wrap(wrongVersion)));
+    }
+
+    // A damaged byte may still decode to something, but anything else it causes must be a FormatException
+    @Test
+    void corruptBytesFailOnlyWithFormatException() {
+        byte[] encoded = encodedSample();
+        Random random = new Random(17);
+        int rejected = 0;
+        for (int trial = 0; trial < 5000; trial++) {
+            byte[] corrupt = encoded.clone();
+            int flips = 1 + random.nextInt(3);
+            for (int i = 0; i < flips; i++) {
+                corrupt[5 + random.nextInt(corrupt.length - 5)] = (byte) random.nextInt(256);
+            }
+            try {
+                BinaryProgramFormat.decode(ByteBuffer.wrap(corrupt));
+            } catch (BinaryProgramFormat.FormatException e) {
+                rejected++;
+            } catch (RuntimeException e) {
+                fail("trial " + trial + " failed with " + e);
+            }
+        }
+        assertTrue(rejected > 0);
+    }
+
+    private static byte[] encodedSample() {
+        try {
+            SProgram program = load("nested");
+            return BinaryProgramFormat.encode(List.of(program),
+                List.of(new ExecutionEngine().execute(program, List.of(5, 1), program.getMaxDegree())));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String render(ExecutionResult result) {
+        return result.getOutputValue() + " " + result.getFinalVariables() + " " + result.getCyclesConsumed() + " "
+            + result.getDegree() + " " + result.getInputs() + " " + result.getStatus() + "\n"
+            + (result.getExpandedProgram() != null ? render(result.getExpandedProgram()) : "no expanded program");
+    }
+
+    private static String render(SProgram program) {
+        StringBuilder builder = new StringBuilder(String.valueOf(program.getName())).append('\n');
+        render(builder, program.getInstructions());
+        for (SFunction function : program.getFunctions()) {
+            builder.append("function ").append(function.getName()).append(' ').append(function.getUserString())
+                .append('\n');
+            render(builder, function.getInstructions());
+        }
+        return builder.toString();
+    }
+
+    // Every field the format stores, with each instruction's chain of parents it was expanded from
+    private static void render(StringBuilder builder, List<SInstruction> instructions) {
+        for (SInstruction instruction : instructions) {
+            for (SInstruction current = instruction; current != null; current = current.getParent()) {
+                builder.append(current.getName()).append(' ').append(current.getType()).append(' ')
+                    .append(current.getVariable()).append(' ').append(current.getLabel()).append(' ')
+                    .append(current.getLineNumber()).append(' ').append(new TreeMap<>(current.getArguments()))
+                    .append(current.getParent() != null ? " <- " : "\n");
+            }
+        }
+    }
+
+    private static SProgram load(String name) throws IOException {
+        try (InputStream in = BinaryProgramFormatTest.class.getResourceAsStream("/programs/" + name + ".xml")) {
+            assertNotNull(in, "missing program " + name);
+            ParseResult result = XMLParser.parseXMLString(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            assertTrue(result.isSuccess(), result.getErrorMessage());
+            return result.getProgram();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package hadeel.engine;
+
+import hadeel.engine.model.ExecutionResult;
+import hadeel.engine.model.ExecutionStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// legacy/multiplication.semulator was written by the Java-serialization saveState that predates the binary
+// format: the multiplication benchmark program, run on (3, 4) at degree 0 and (5, 6) at degree 1
+class LegacyStateTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadsStateSavedWithJavaSerialization() throws IOException {
+        String base = copyFixture("multiplication");
+
+        SEmulatorEngine engine = new SEmulatorEngine();
+        assertTrue(engine.loadState(base));
+        assertEquals("Mul", engine.getProgramName());
+
+        List<ExecutionResult> history = engine.getExecutionHistory();
+        assertEquals(2, history.size());
+        assertEquals(12, history.get(0).getOutputValue());
+        assertEquals(0, history.get(0).getDegree());
+        assertEquals(30, history.get(1).getOutputValue());
+        assertEquals(1, history.get(1).getDegree());
+        for (ExecutionResult result : history) {
+            assertEquals(ExecutionStatus.COMPLETED, result.getStatus());
+        }
+    }
+
+    @Test
+    void resavesLegacyStateInTheBinaryFormat() throws IOException {
+        String base = copyFixture("multiplication");
+        SEmulatorEngine engine = new SEmulatorEngine();
+        assertTrue(engine.loadState(base));
+
+        String resaved = directory.resolve("resaved").toString();
+        assertTrue(engine.saveState(resaved));
+
+        SEmulatorEngine reloaded = new SEmulatorEngine();
+        assertTrue(reloaded.loadState(resaved));
+        assertEquals(2, reloaded.getExecutionHistory().size());
+        assertEquals(56, reloaded.executeProgram(List.of(7, 8), 1).getOutputValue());
+    }
+
+    // loadState and saveState add the .semulator extension themselves
+    private String copyFixture(String name) throws IOException {
+        Path target = directory.resolve(name + ".semulator");
+        try (InputStream in = getClass().getResourceAsStream("/legacy/" + name + ".semulator")) {
+            assertNotNull(in, "missing fixture " + name);
+            Files.copy(in, target);
+        }
+        return directory.resolve(name).toString();
+    }
+}
@@ -0,0 +1,326 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.*;
+import hadeel.engine.parser.ParseResult;
+import hadeel.engine.parser.XMLParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The compiled interpreter replaced ExecutionEngine's tree-walking interpreter, so every run must still give what
+// that interpreter gave: the same output, cycles and final variables. The old interpreter is kept below as the
+// oracle. "coverage" uses every instruction, clamping at 0, EXIT from function bodies, unknown labels and
+// functions, and QUOTEs nested in QUOTE arguments.
+class CompiledInterpreterDifferentialTest {
+
+    private static final List<String> PROGRAMS = List.of("coverage", "multiplication", "nested");
+
+    @Test
+    void compiledRunsMatchLegacyInterpreter() throws Exception {
+        int runs = 0;
+        for (String name : PROGRAMS) {
+            SProgram program = load(name);
+            for (int degree = 0; degree <= program.getMaxDegree(); degree++) {
+                SProgram expanded = ExpansionEngine.expand(program, degree);
+                for (List<Integer> inputs : inputSets()) {
+                    ExecutionResult expected = new LegacyInterpreter(expanded, Integer.MAX_VALUE, Long.MAX_VALUE)
+                        .run(inputs, degree);
+                    ExecutionResult actual = new ExecutionEngine().executeExpanded(expanded, inputs, degree,
+                        ExecutionTracer.NONE);
+                    assertSameResult(expected, actual, name + " degree " + degree + " inputs " + inputs);
+                    runs++;
+                }
+            }
+        }
+        assertTrue(runs > 0);
+    }
+
+    // The budget is new, but the legacy interpreter stopped before the same instruction would give the same state
+    @Test
+    void budgetStopsWhereLegacyInterpreterWould() throws Exception {
+        int stopped = 0;
+        for (String name : PROGRAMS) {
+            SProgram program = load(name);
+            for (int degree : List.of(0, program.getMaxDegree())) {
+                SProgram expanded = ExpansionEngine.expand(program, degree);
+                List<Integer> inputs = List.of(3, 2);
+                int fullCycles = new ExecutionEngine().executeExpanded(expanded, inputs, degree, ExecutionTracer.NONE)
+                    .getCyclesConsumed();
+                for (int budget = 0; budget <= fullCycles; budget++) {
+                    ExecutionResult expected = new LegacyInterpreter(expanded, budget, Long.MAX_VALUE)
+                        .run(inputs, degree);
+                    ExecutionResult actual = new ExecutionEngine().executeExpanded(expanded, inputs, degree,
+                        ExecutionTracer.NONE, null, budget, new CancellationToken());
+                    assertSameResult(expected, actual, name + " degree " + degree + " budget " + budget);
+                    assertEquals(budget == fullCycles, actual.isComplete(), name + " budget " + budget);
+                    if (actual.getStatus() == ExecutionStatus.BUDGET_EXCEEDED) {
+                        stopped++;
+                    }
+                }
+            }
+        }
+        assertTrue(stopped > 0, "no run stopped on its budget");
+    }
+
+    @Test
+    void cancelledRunMatchesLegacyInterpreterAfterTheSameSteps() throws Exception {
+        // The top-level loop runs x1 times, far past the first poll of the token
+        SProgram program = load("coverage");
+        List<Integer> inputs = List.of(5000, 3);
+        CompiledProgram compiled = ProgramCompiler.compile(program);
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+
+        CompiledInterpreter interpreter = new CompiledInterpreter();
+        ExecutionResult actual = interpreter.execute(compiled, inputs, 0, CompiledInterpreter.UNLIMITED, cancellation);
+
+        assertEquals(ExecutionStatus.CANCELLED, actual.getStatus());
+        assertTrue(interpreter.getStepsRun() > 0, "cancellation is only polled, so a few steps still run");
+        ExecutionResult expected = new LegacyInterpreter(program, Integer.MAX_VALUE, interpreter.getStepsRun())
+            .run(inputs, 0);
+        assertEquals(expected.getCyclesConsumed(), actual.getCyclesConsumed());
+        assertEquals(expected.getOutputValue(), actual.getOutputValue());
+        assertEquals(new HashMap<>(expected.getFinalVariables()), new HashMap<>(actual.getFinalVariables()));
+
+        ExecutionResult complete = new ExecutionEngine().executeExpanded(program, inputs, 0, ExecutionTracer.NONE);
+        assertTrue(actual.getCyclesConsumed() < complete.getCyclesConsumed(), "cancelled run went to completion");
+    }
+
+    private static List<List<Integer>> inputSets() {
+        List<List<Integer>> sets = new ArrayList<>();
+        for (int x1 = 0; x1 <= 4; x1++) {
+            for (int x2 = 0; x2 <= 6; x2++) {
+                sets.add(List.of(x1, x2));
+            }
+        }
+        // Missing inputs read as 0; inputs the program never reads still appear in its final variables
+        sets.add(List.of());
+        sets.add(List.of(5));
+        sets.add(List.of(2, 9, 4));
+        return sets;
+    }
+
+    private static void assertSameResult(ExecutionResult expected, ExecutionResult actual, String description) {
+        assertEquals(expected.getStatus(), actual.getStatus(), description + ": status");
+        assertEquals(expected.getOutputValue(), actual.getOutputValue(), description + ": output");
+        assertEquals(expected.getCyclesConsumed(), actual.getCyclesConsumed(), description + ": cycles");
+        assertEquals(new HashMap<>(expected.getFinalVariables()), new HashMap<>(actual.getFinalVariables()),
+            description + ": variables");
+    }
+
+    private static SProgram load(String name) throws IOException {
+        try (InputStream in = CompiledInterpreterDifferentialTest.class.getResourceAsStream("/programs/" + name + ".xml")) {
+            assertNotNull(in, "missing program " + name);
+            ParseResult result = XMLParser.parseXMLString(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            assertTrue(result.isSuccess(), result.getErrorMessage());
+            return result.getProgram();
+        }
+    }
+
+    // ExecutionEngine's interpreter before programs were compiled, without its logging. It only adds a stop before
+    // the first top-level instruction the budget cannot pay for, and after maxSteps top-level instructions.
+    private static final class LegacyInterpreter {
+        private static final String TEMP_PREFIX = "temp_";
+
+        private final SProgram program;
+        private final int budget;
+        private final long maxSteps;
+        private int temps;
+
+        LegacyInterpreter(SProgram program, int budget, long maxSteps) {
+            this.program = program;
+            this.budget = budget;
+            this.maxSteps = maxSteps;
+        }
+
+        ExecutionResult run(List<Integer> inputs, int degree) {
+            ExecutionContext context = new ExecutionContext();
+            Map<String, Integer> inputVariables = new HashMap<>();
+            for (int i = 0; i < inputs.size(); i++) {
+                inputVariables.put("x" + (i + 1), inputs.get(i));
+            }
+            context.initializeInputVariables(inputVariables);
+
+            ExecutionStatus status = ExecutionStatus.COMPLETED;
+            List<SInstruction> instructions = program.getInstructions();
+            long steps = 0;
+            while (!context.isTerminated() && context.getCurrentInstructionIndex() < instructions.size()) {
+                SInstruction instruction = instructions.get(context.getCurrentInstructionIndex());
+                if (steps == maxSteps) {
+                    status = ExecutionStatus.CANCELLED;
+                    break;
+                }
+                if (instruction.getCycles() > budget - context.getCyclesConsumed()) {
+                    status = ExecutionStatus.BUDGET_EXCEEDED;
+                    break;
+                }
+                steps++;
+                execute(instruction, context, instructions);
+            }
+
+            // Nested calls left their zeroed temporaries behind; they were never program variables
+            Map<String, Integer> variables = new HashMap<>(context.getVariables());
+            variables.keySet().removeIf(variable -> variable.startsWith(TEMP_PREFIX));
+            ExecutionResult result = new ExecutionResult(context.getOutputValue(),
+                ExecutionContext.sortVariables(variables), context.getCyclesConsumed(), degree, inputs);
+            result.setStatus(status);
+            return result;
+        }
+
+        private void execute(SInstruction instruction, ExecutionContext context, List<SInstruction> instructions) {
+            context.addCycles(instruction.getCycles());
+            String variable = instruction.getVariable();
+
+            switch (instruction.getName()) {
+                case INCREASE:
+                    context.incrementVariable(variable);
+                    context.nextInstruction();
+                    break;
+                case DECREASE:
+                    context.decrementVariable(variable);
+                    context.nextInstruction();
+                    break;
+                case JUMP_NOT_ZERO:
+                    jumpIf(context.getVariable(variable) != 0, instruction.getArgument("JNZLabel"), context,
+                        instructions);
+                    break;
+                case ZERO_VARIABLE:
+                    context.setVariable(variable, 0);
+                    context.nextInstruction();
+                    break;
+                case GOTO_LABEL:
+                    jumpToLabel(instruction.getArgument("gotoLabel"), context, instructions);
+                    break;
+                case ASSIGNMENT:
+                    context.setVariable(variable, context.getVariable(instruction.getArgument("assignedVariable")));
+                    context.nextInstruction();
+                    break;
+                case CONSTANT_ASSIGNMENT:
+                    context.setVariable(variable, Integer.parseInt(instruction.getArgument("constantValue")));
+                    context.nextInstruction();
+                    break;
+                case JUMP_ZERO:
+                    jumpIf(context.getVariable(variable) == 0, instruction.getArgument("JZLabel"), context,
+                        instructions);
+                    break;
+                case JUMP_EQUAL_CONSTANT:
+                    jumpIf(context.getVariable(variable) == Integer.parseInt(instruction.getArgument("constantValue")),
+                        instruction.getArgument("JEConstantLabel"), context, instructions);
+                    break;
+                case JUMP_EQUAL_VARIABLE:
+                    jumpIf(context.getVariable(variable) == context.getVariable(instruction.getArgument("variableName")),
+                        instruction.getArgument("JEVariableLabel"), context, instructions);
+                    break;
+                case QUOTE:
+                    quote(instruction, context);
+                    context.nextInstruction();
+                    break;
+                default:
+                    // NEUTRAL, and instructions without runtime support
+                    context.nextInstruction();
+            }
+        }
+
+        private void jumpIf(boolean condition, String label, ExecutionContext context,
+                            List<SInstruction> instructions) {
+            if (condition) {
+                jumpToLabel(label, context, instructions);
+            } else {
+                context.nextInstruction();
+            }
+        }
+
+        // EXIT ends the body being run; an unknown label falls through
+        private void jumpToLabel(String label, ExecutionContext context, List<SInstruction> instructions) {
+            if ("EXIT".equals(label)) {
+                context.terminate();
+                return;
+            }
+            for (int i = 0; i < instructions.size(); i++) {
+                if (label.equals(instructions.get(i).getLabel())) {
+                    context.setCurrentInstructionIndex(i);
+                    return;
+                }
+            }
+            context.nextInstruction();
+        }
+
+        // Runs the function on a fresh context; its cycles are not added to the caller's
+        private void quote(SInstruction instruction, ExecutionContext context) {
+            SFunction function = program.getFunction(instruction.getArgument("functionName"));
+            if (function == null) {
+                return;
+            }
+
+            ExecutionContext functionContext = new ExecutionContext();
+            List<String> arguments = parseArguments(instruction.getArgument("functionArguments"));
+            for (int i = 0; i < arguments.size(); i++) {
+                String argument = arguments.get(i);
+                int value = argument.startsWith("(") && argument.endsWith(")")
+                    ? evaluateNested(argument, context)
+                    : context.getVariable(argument);
+                functionContext.setVariable("x" + (i + 1), value);
+            }
+
+            List<SInstruction> body = function.getInstructions();
+            while (!functionContext.isTerminated() && functionContext.getCurrentInstructionIndex() < body.size()) {
+                execute(body.get(functionContext.getCurrentInstructionIndex()), functionContext, body);
+            }
+            context.setVariable(instruction.getVariable(), functionContext.getVariable("y"));
+        }
+
+        private int evaluateNested(String expression, ExecutionContext context) {
+            expression = expression.substring(1, expression.length() - 1).trim();
+            int comma = firstTopLevelComma(expression);
+
+            SInstruction call = new SInstruction();
+            call.setType(InstructionType.SYNTHETIC);
+            call.setName(InstructionName.QUOTE);
+            call.setVariable(TEMP_PREFIX + temps++);
+            call.addArgument("functionName", comma == -1 ? expression : expression.substring(0, comma).trim());
+            call.addArgument("functionArguments", comma == -1 ? "" : expression.substring(comma + 1).trim());
+
+            quote(call, context);
+            int result = context.getVariable(call.getVariable());
+            context.setVariable(call.getVariable(), 0);
+            return result;
+        }
+
+        private static List<String> parseArguments(String arguments) {
+            List<String> parsed = new ArrayList<>();
+            if (arguments == null || arguments.trim().isEmpty()) {
+                return parsed;
+            }
+            String rest = arguments;
+            int comma;
+            while ((comma = firstTopLevelComma(rest)) != -1) {
+                parsed.add(rest.substring(0, comma).trim());
+                rest = rest.substring(comma + 1);
+            }
+            if (!rest.isEmpty()) {
+                parsed.add(rest.trim());
+            }
+            return parsed;
+        }
+
+        private static int firstTopLevelComma(String text) {
+            int depth = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
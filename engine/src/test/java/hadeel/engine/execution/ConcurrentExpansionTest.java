@@ -0,0 +1,91 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.SInstruction;
+import hadeel.engine.model.SProgram;
+import hadeel.engine.parser.ParseResult;
+import hadeel.engine.parser.XMLParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Expansion keeps its fresh-name counters per call, so concurrent expansions must each produce exactly what
+// a lone sequential expansion does. With shared counters the names interleave across threads.
+class ConcurrentExpansionTest {
+
+    private static final int THREADS = 16;
+    private static final int EXPANSIONS_PER_THREAD = 250;
+
+    @Test
+    void concurrentExpansionsMatchSequentialBaseline() throws Exception {
+        List<SProgram> programs = List.of(load("multiplication"), load("nested"));
+
+        // Every (program, degree) pair, expanded alone before any threads start
+        List<SProgram> cases = new ArrayList<>();
+        List<Integer> degrees = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (SProgram program : programs) {
+            for (int degree = 0; degree <= program.getMaxDegree(); degree++) {
+                cases.add(program);
+                degrees.add(degree);
+                expected.add(render(ExpansionEngine.expand(program, degree)));
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                workers.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < EXPANSIONS_PER_THREAD; i++) {
+                        int c = (thread + i) % cases.size();
+                        // Half of the calls take the fork/join path, which must give the same names
+                        SProgram expanded = i % 2 == 0
+                            ? ExpansionEngine.expand(cases.get(c), degrees.get(c))
+                            : ExpansionEngine.expandParallel(cases.get(c), degrees.get(c));
+                        if (!expected.get(c).equals(render(expanded))) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(0, mismatches.get(), "expansions that differ from their sequential baseline");
+    }
+
+    private static SProgram load(String name) throws IOException {
+        try (InputStream in = ConcurrentExpansionTest.class.getResourceAsStream("/programs/" + name + ".xml")) {
+            assertNotNull(in, "missing program " + name);
+            ParseResult result = XMLParser.parseXMLString(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            assertTrue(result.isSuccess(), result.getErrorMessage());
+            return result.getProgram();
+        }
+    }
+
+    private static String render(SProgram program) {
+        StringBuilder builder = new StringBuilder();
+        List<SInstruction> instructions = program.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            builder.append(instructions.get(i).getFormattedDisplay(i + 1)).append('\n');
+        }
+        return builder.toString();
+    }
+}
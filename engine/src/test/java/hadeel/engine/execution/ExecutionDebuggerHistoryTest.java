@@ -0,0 +1,199 @@
+package hadeel.engine.execution;
+
+import hadeel.engine.model.SProgram;
+import hadeel.engine.parser.ParseResult;
+import hadeel.engine.parser.XMLParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Debug history keeps per-step deltas with a checkpoint per chunk, and only checkpoints for stretches a resume ran
+// at full speed. Whichever way a step was taken, moving back to it must give exactly the state a fresh session
+// has after stepping that far. The coverage program's top-level loop runs x1 times, spanning several chunks.
+class ExecutionDebuggerHistoryTest {
+
+    private static final List<Integer> INPUTS = List.of(5000, 3);
+    private static final int TARGETS = 300;
+
+    @Test
+    void steppingBackReturnsToEveryRecordedState() throws Exception {
+        for (int degree : List.of(0, 1)) {
+            SProgram program = load("coverage");
+            List<String> expected = referenceStates(program, degree);
+            ExecutionDebugger debugger = new ExecutionDebugger(null, program, INPUTS, degree);
+            while (!debugger.isFinished()) {
+                debugger.step();
+            }
+            assertEquals(expected.size() - 1, debugger.getStepCount());
+
+            // One step at a time across every chunk boundary, back to the start
+            while (debugger.canStepBack()) {
+                debugger.stepBack();
+                assertEquals(expected.get(debugger.getStepCount()), state(debugger), "degree " + degree);
+            }
+            assertEquals(expected.get(0), state(debugger));
+        }
+    }
+
+    @Test
+    void goToStepReachesArbitraryStepsAcrossChunks() throws Exception {
+        SProgram program = load("coverage");
+        List<String> expected = referenceStates(program, 0);
+        ExecutionDebugger debugger = new ExecutionDebugger(null, program, INPUTS, 0);
+        while (!debugger.isFinished()) {
+            debugger.step();
+        }
+
+        // Going back drops the later history, so a target ahead is reached by stepping there again
+        Random random = new Random(7);
+        List<Integer> targets = targets(expected.size() - 1, random);
+        Collections.shuffle(targets, random);
+        for (int target : targets) {
+            if (target > debugger.getStepCount()) {
+                while (debugger.getStepCount() < target) {
+                    debugger.step();
+                }
+            } else {
+                debugger.goToStep(target);
+            }
+            assertEquals(target, debugger.getStepCount());
+            assertEquals(expected.get(target), state(debugger), "step " + target);
+        }
+    }
+
+    @Test
+    void resumedStretchesReplayToTheSameStates() throws Exception {
+        for (int degree : List.of(0, 1)) {
+            SProgram program = load("coverage");
+            List<String> expected = referenceStates(program, degree);
+            ExecutionDebugger debugger = resumedSession(program, degree);
+            assertEquals(expected.size() - 1, debugger.getStepCount());
+            assertEquals(expected.get(expected.size() - 1), state(debugger));
+
+            // The last resume ran to the end at full speed: stepping back rebuilds those chunks one at a time
+            for (int back = 0; back <= DebugHistory.CHUNK_STEPS + 1; back++) {
+                debugger.stepBack();
+                assertEquals(expected.get(debugger.getStepCount()), state(debugger), "degree " + degree);
+            }
+
+            // Descending, so the history before each target is still what the resumes left
+            for (int target : targets(debugger.getStepCount(), new Random(11 + degree))) {
+                debugger.goToStep(target);
+                assertEquals(target, debugger.getStepCount());
+                assertEquals(expected.get(target), state(debugger), "degree " + degree + " step " + target);
+
+                // Inside a replayed chunk the states just before it come from its deltas
+                for (int back = 0; back < 3 && debugger.canStepBack(); back++) {
+                    debugger.stepBack();
+                    assertEquals(expected.get(debugger.getStepCount()), state(debugger));
+                }
+                // and stepping on from there records over what followed
+                for (int forward = 0; forward < 5 && !debugger.isFinished(); forward++) {
+                    debugger.step();
+                    assertEquals(expected.get(debugger.getStepCount()), state(debugger));
+                }
+            }
+        }
+    }
+
+    @Test
+    void spilledHistoryRestoresEveryStep() throws Exception {
+        SProgram program = load("coverage");
+        List<String> expected = referenceStates(program, 0);
+        ExecutionDebugger debugger = resumedSession(program, 0);
+        ExecutionDebugger twin = resumedSession(program, 0);
+
+        ByteArrayOutputStream spilled = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(spilled)) {
+            debugger.spillHistory(out);
+        }
+        assertTrue(debugger.getHistoryBytes() < twin.getHistoryBytes(), "spilling did not free the history");
+        assertEquals(expected.get(expected.size() - 1), state(debugger), "the current state stays while spilled");
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(spilled.toByteArray()))) {
+            debugger.restoreHistory(in);
+        }
+        assertEquals(twin.getStepCount(), debugger.getStepCount());
+
+        // The searches use the restored chunk index; they must land where the twin's do
+        assertEquals(twin.reverseToLastChange("z2"), debugger.reverseToLastChange("z2"));
+        assertEquals(state(twin), state(debugger));
+        assertEquals(twin.reverseToLastChange("y"), debugger.reverseToLastChange("y"));
+        assertEquals(state(twin), state(debugger));
+
+        List<Integer> targets = targets(debugger.getStepCount(), new Random(13));
+        targets.removeIf(target -> target >= debugger.getStepCount());
+        Collections.sort(targets, Collections.reverseOrder());
+        for (int target : targets) {
+            debugger.goToStep(target);
+            assertEquals(target, debugger.getStepCount());
+            assertEquals(expected.get(target), state(debugger), "step " + target);
+        }
+    }
+
+    // Steps, resumes to a breakpoint, steps again and resumes to the end, so the history mixes recorded
+    // deltas with checkpoint-only stretches
+    private static ExecutionDebugger resumedSession(SProgram program, int degree) {
+        ExecutionDebugger debugger = new ExecutionDebugger(null, program, INPUTS, degree);
+        for (int i = 0; i < 100; i++) {
+            debugger.step();
+        }
+        int line = debugger.getCurrentLine();
+        debugger.setBreakpoints(Set.of(line));
+        for (int i = 0; i < 1500; i++) {
+            assertNull(debugger.resume(Integer.MAX_VALUE, new CancellationToken()));
+        }
+        debugger.setBreakpoints(Collections.emptySet());
+        for (int i = 0; i < 100; i++) {
+            debugger.step();
+        }
+        assertNull(debugger.resume(Integer.MAX_VALUE, new CancellationToken()));
+        assertTrue(debugger.isFinished());
+        return debugger;
+    }
+
+    // The state after each number of steps, from a fresh session stepped one instruction at a time
+    private static List<String> referenceStates(SProgram program, int degree) {
+        ExecutionDebugger reference = new ExecutionDebugger(null, program, INPUTS, degree);
+        List<String> states = new ArrayList<>();
+        states.add(state(reference));
+        while (!reference.isFinished()) {
+            reference.step();
+            states.add(state(reference));
+        }
+        assertTrue(states.size() > 4 * DebugHistory.CHUNK_STEPS, "run too short to span several chunks");
+        return states;
+    }
+
+    // Every chunk boundary and its neighbours, then random steps, in descending order
+    private static List<Integer> targets(int steps, Random random) {
+        Set<Integer> targets = new TreeSet<>(Collections.reverseOrder());
+        for (int boundary = 0; boundary <= steps; boundary += DebugHistory.CHUNK_STEPS) {
+            for (int offset = -1; offset <= 1; offset++) {
+                if (boundary + offset >= 0 && boundary + offset < steps) {
+                    targets.add(boundary + offset);
+                }
+            }
+        }
+        while (targets.size() < TARGETS) {
+            targets.add(random.nextInt(steps));
+        }
+        return new ArrayList<>(targets);
+    }
+
+    private static String state(ExecutionDebugger debugger) {
+        return debugger.getCurrentLine() + " " + debugger.getCurrentCycles() + " " + debugger.getCurrentVariables();
+    }
+
+    private static SProgram load(String name) throws IOException {
+        try (InputStream in = ExecutionDebuggerHistoryTest.class.getResourceAsStream("/programs/" + name + ".xml")) {
+            assertNotNull(in, "missing program " + name);
+            ParseResult result = XMLParser.parseXMLString(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            assertTrue(result.isSuccess(), result.getErrorMessage());
+            return result.getProgram();
+        }
+    }
+}
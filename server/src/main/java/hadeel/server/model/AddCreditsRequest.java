@@ -0,0 +1,19 @@
+package hadeel.server.model;
+
+public class AddCreditsRequest {
+    private final String username;
+    private final Integer amount;
+
+    public AddCreditsRequest(String username, Integer amount) {
+        this.username = username;
+        this.amount = amount;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Integer getAmount() {
+        return amount;
+    }
+}
@@ -0,0 +1,49 @@
+package hadeel.server.model;
+
+import java.util.*;
+
+public class BatchExecutionRequest {
+    private final String username;
+    private final String programName;
+    private final String architecture;
+    private final Integer degree;
+    private final List<List<Integer>> inputSets;
+
+    public BatchExecutionRequest(String username, String programName, String architecture, Integer degree,
+                                 List<List<Integer>> inputSets) {
+        this.username = username;
+        this.programName = programName;
+        this.architecture = architecture;
+        this.degree = degree;
+        this.inputSets = inputSets != null ? inputSets : new ArrayList<>();
+    }
+
+    public boolean hasRequiredFields() {
+        return username != null && programName != null && architecture != null && degree != null
+            && inputSets != null && !inputSets.isEmpty() && !inputSets.contains(null);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    public String getArchitecture() {
+        return architecture;
+    }
+
+    public Integer getDegree() {
+        return degree;
+    }
+
+    public List<List<Integer>> getInputSets() {
+        return inputSets;
+    }
+
+    public int size() {
+        return inputSets != null ? inputSets.size() : 0;
+    }
+}
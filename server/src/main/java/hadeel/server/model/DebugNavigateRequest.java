@@ -0,0 +1,32 @@
+package hadeel.server.model;
+
+// Body of a navigate request: action is "goto" (with step), "reverseContinue" or "lastChange" (with variable)
+public class DebugNavigateRequest {
+    private final String sessionId;
+    private final String action;
+    private final Integer step;
+    private final String variable;
+
+    public DebugNavigateRequest(String sessionId, String action, Integer step, String variable) {
+        this.sessionId = sessionId;
+        this.action = action;
+        this.step = step;
+        this.variable = variable;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public Integer getStep() {
+        return step;
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+}
@@ -0,0 +1,20 @@
+package hadeel.server.model;
+
+// Body of the step, step-back, resume and stop requests; username is only sent where credits are charged
+public class DebugSessionRequest {
+    private final String sessionId;
+    private final String username;
+
+    public DebugSessionRequest(String sessionId, String username) {
+        this.sessionId = sessionId;
+        this.username = username;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
@@ -0,0 +1,71 @@
+package hadeel.server.model;
+
+import java.util.*;
+
+// breakpointConditions maps a line to a condition such as "z3 == 0"; breakConditions stop wherever they hold
+public class DebugStartRequest {
+    private final String username;
+    private final String programName;
+    private final String architecture;
+    private final Integer degree;
+    private final List<Integer> inputs;
+    private final List<Integer> breakpoints;
+    private final Map<Integer, String> breakpointConditions;
+    private final List<String> watchpoints;
+    private final List<String> breakConditions;
+
+    public DebugStartRequest(String username, String programName, String architecture, Integer degree,
+                             List<Integer> inputs, List<Integer> breakpoints,
+                             Map<Integer, String> breakpointConditions, List<String> watchpoints,
+                             List<String> breakConditions) {
+        this.username = username;
+        this.programName = programName;
+        this.architecture = architecture;
+        this.degree = degree;
+        this.inputs = inputs;
+        this.breakpoints = breakpoints;
+        this.breakpointConditions = breakpointConditions;
+        this.watchpoints = watchpoints;
+        this.breakConditions = breakConditions;
+    }
+
+    public boolean hasRequiredFields() {
+        return username != null && programName != null && architecture != null && degree != null;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    public String getArchitecture() {
+        return architecture;
+    }
+
+    public Integer getDegree() {
+        return degree;
+    }
+
+    public List<Integer> getInputs() {
+        return inputs != null ? inputs : Collections.emptyList();
+    }
+
+    public List<Integer> getBreakpoints() {
+        return breakpoints != null ? breakpoints : Collections.emptyList();
+    }
+
+    public Map<Integer, String> getBreakpointConditions() {
+        return breakpointConditions != null ? breakpointConditions : Collections.emptyMap();
+    }
+
+    public List<String> getWatchpoints() {
+        return watchpoints != null ? watchpoints : Collections.emptyList();
+    }
+
+    public List<String> getBreakConditions() {
+        return breakConditions != null ? breakConditions : Collections.emptyList();
+    }
+}
@@ -17,6 +17,14 @@ public class ExecutionRecord {
     public ExecutionRecord(int runNumber, String programName, boolean isFunction,
                           Architecture architecture, int degree, List<Integer> inputs,
                           int outputValue, int cyclesConsumed, int creditsUsed) {
+        this(runNumber, programName, isFunction, architecture, degree, inputs, outputValue, cyclesConsumed,
+            creditsUsed, System.currentTimeMillis());
+    }
+
+    // Restores a record with its original timestamp
+    public ExecutionRecord(int runNumber, String programName, boolean isFunction,
+                          Architecture architecture, int degree, List<Integer> inputs,
+                          int outputValue, int cyclesConsumed, int creditsUsed, long timestamp) {
         this.runNumber = runNumber;
         this.programName = programName;
         this.isFunction = isFunction;
@@ -26,7 +34,7 @@ public class ExecutionRecord {
         this.outputValue = outputValue;
         this.cyclesConsumed = cyclesConsumed;
         this.creditsUsed = creditsUsed;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = timestamp;
     }
 
     public int getRunNumber() {
@@ -0,0 +1,59 @@
+package hadeel.server.model;
+
+import com.google.gson.annotations.SerializedName;
+import java.util.*;
+
+// Decoded directly from the JSON body by RequestDecoder; fields are left null when absent
+public class ExecutionRequest {
+    private final String username;
+    private final String programName;
+    private final String architecture;
+    private final Integer degree;
+    private final List<Integer> inputs;
+    @SerializedName("trace")
+    private final String traceMode;
+    private final Integer traceLimit;
+
+    public ExecutionRequest(String username, String programName, String architecture, Integer degree,
+                            List<Integer> inputs, String traceMode, Integer traceLimit) {
+        this.username = username;
+        this.programName = programName;
+        this.architecture = architecture;
+        this.degree = degree;
+        this.inputs = inputs != null ? inputs : new ArrayList<>();
+        this.traceMode = traceMode;
+        this.traceLimit = traceLimit;
+    }
+
+    public boolean hasRequiredFields() {
+        return username != null && programName != null && architecture != null && degree != null;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    public String getArchitecture() {
+        return architecture;
+    }
+
+    public Integer getDegree() {
+        return degree;
+    }
+
+    public List<Integer> getInputs() {
+        return inputs != null ? inputs : Collections.emptyList();
+    }
+
+    public String getTraceMode() {
+        return traceMode;
+    }
+
+    public Integer getTraceLimit() {
+        return traceLimit;
+    }
+}
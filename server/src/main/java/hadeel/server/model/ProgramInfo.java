@@ -10,10 +10,15 @@ public class ProgramInfo {
     private final AtomicInteger totalCreditsUsed;
 
     public ProgramInfo(SProgram program, String ownerUsername) {
+        this(program, ownerUsername, 0, 0);
+    }
+
+    // Restores a program's statistics from storage
+    public ProgramInfo(SProgram program, String ownerUsername, int executionCount, int totalCreditsUsed) {
         this.program = program;
         this.ownerUsername = ownerUsername;
-        this.executionCount = new AtomicInteger(0);
-        this.totalCreditsUsed = new AtomicInteger(0);
+        this.executionCount = new AtomicInteger(executionCount);
+        this.totalCreditsUsed = new AtomicInteger(totalCreditsUsed);
     }
 
     public SProgram getProgram() {
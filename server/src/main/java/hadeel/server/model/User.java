@@ -12,10 +12,17 @@ public class User {
     private final List<ExecutionRecord> executionHistory;
     private final AtomicInteger executionCount;
 
+    public static final int INITIAL_CREDITS = 1000;
+
     public User(String username) {
+        this(username, INITIAL_CREDITS, 0);
+    }
+
+    // Restores a user from storage
+    public User(String username, int credits, int creditsUsed) {
         this.username = username;
-        this.credits = new AtomicInteger(1000); // Start with 1000 credits
-        this.creditsUsed = new AtomicInteger(0);
+        this.credits = new AtomicInteger(credits);
+        this.creditsUsed = new AtomicInteger(creditsUsed);
         this.uploadedPrograms = Collections.synchronizedList(new ArrayList<>());
         this.contributedFunctions = Collections.synchronizedList(new ArrayList<>());
         this.executionHistory = Collections.synchronizedList(new ArrayList<>());
@@ -49,6 +56,12 @@ public class User {
         return true;
     }
 
+    // Gives back part of an earlier deduction that turned out not to be spent
+    public void refundCredits(int amount) {
+        credits.addAndGet(amount);
+        creditsUsed.addAndGet(-amount);
+    }
+
     public int getCreditsUsed() {
         return creditsUsed.get();
     }
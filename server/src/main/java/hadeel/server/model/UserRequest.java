@@ -0,0 +1,14 @@
+package hadeel.server.model;
+
+// Body of login and logout
+public class UserRequest {
+    private final String username;
+
+    public UserRequest(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+}
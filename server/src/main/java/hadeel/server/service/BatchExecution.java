@@ -0,0 +1,308 @@
+package hadeel.server.service;
+
+import hadeel.server.model.*;
+import hadeel.engine.model.*;
+import hadeel.engine.execution.CancellationToken;
+import hadeel.engine.execution.CompiledProgram;
+import hadeel.engine.execution.ExecutionEngine;
+import hadeel.engine.execution.ExecutionTracer;
+import hadeel.engine.execution.ProgramCompiler;
+import javax.servlet.http.HttpServletResponse;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One program run over many input vectors: validated, expanded and compiled once, then run by several lanes
+// that take the next input vector until none are left. Results are queued in completion order.
+public class BatchExecution {
+    public static final int MAX_BATCH_SIZE = 10000;
+
+    private final ServerManager serverManager;
+    private final BatchExecutionRequest request;
+    private final Architecture architecture;
+    private final SProgram expandedProgram;
+    private final CompiledProgram compiledProgram;
+
+    // Deducted from the user in prepare; settle refunds what the batch did not spend
+    private final int heldCredits;
+    private final AtomicInteger nextIndex;
+    private final AtomicInteger remainingBudget;
+    private final AtomicLong cyclesConsumed;
+    private final AtomicBoolean cancelled;
+    private final AtomicBoolean released;
+    private final BlockingQueue<Map<String, Object>> results;
+
+    // Written by the lane that ran the index; read by settle() after every result has been taken
+    private final boolean[] completed;
+    private final int[] outputs;
+    private final int[] cycles;
+
+    private BatchExecution(ServerManager serverManager, BatchExecutionRequest request, Architecture architecture,
+                           SProgram expandedProgram, int heldCredits) {
+        this.serverManager = serverManager;
+        this.request = request;
+        this.architecture = architecture;
+        this.expandedProgram = expandedProgram;
+        this.compiledProgram = ProgramCompiler.compile(expandedProgram);
+        this.heldCredits = heldCredits;
+        this.nextIndex = new AtomicInteger(0);
+        this.remainingBudget = new AtomicInteger(heldCredits - architecture.getCost());
+        this.cyclesConsumed = new AtomicLong(0);
+        this.cancelled = new AtomicBoolean(false);
+        this.released = new AtomicBoolean(false);
+        this.results = new LinkedBlockingQueue<>();
+        this.completed = new boolean[request.size()];
+        this.outputs = new int[request.size()];
+        this.cycles = new int[request.size()];
+    }
+
+    // Same checks as a single execution, done once for the whole batch. A batch that cannot run is
+    // reported through the rejection outcome instead. An accepted batch holds all of the user's credits
+    // until settle or release, so nothing else can spend what its runs are billed against.
+    public static Preparation prepare(ServerManager serverManager, BatchExecutionRequest request) {
+        if (request.size() > MAX_BATCH_SIZE) {
+            return Preparation.rejected(ExecutionOutcome.error(HttpServletResponse.SC_BAD_REQUEST,
+                "Too many input sets (limit " + MAX_BATCH_SIZE + ")"));
+        }
+
+        User user = serverManager.getUser(request.getUsername());
+        if (user == null) {
+            return Preparation.rejected(ExecutionOutcome.error(HttpServletResponse.SC_NOT_FOUND, "User not found"));
+        }
+
+        ProgramInfo programInfo = serverManager.getProgram(request.getProgramName());
+        if (programInfo == null) {
+            return Preparation.rejected(ExecutionOutcome.error(HttpServletResponse.SC_NOT_FOUND, "Program not found"));
+        }
+
+        Architecture architecture = Architecture.fromString(request.getArchitecture());
+
+        // Repository functions resolve through the shared function table
+        SProgram program = serverManager.getScopedProgram(programInfo);
+
+        SProgram expandedProgram = serverManager.getExpandedProgram(program, request.getDegree());
+
+        for (SInstruction inst : expandedProgram.getInstructions()) {
+            if (!architecture.supports(inst.getName())) {
+                return Preparation.rejected(ExecutionOutcome.error(HttpServletResponse.SC_BAD_REQUEST,
+                    "Program contains instructions not supported by architecture: " + inst.getName()));
+            }
+        }
+
+        // Architecture cost is charged once per batch; the estimate covers every run
+        long estimatedCost = architecture.getCost() + (long) expandedProgram.getTotalCycles() * request.size();
+        int held;
+        do {
+            held = user.getCredits();
+            if (held < estimatedCost) {
+                Map<String, Object> errorResp = new HashMap<>();
+                errorResp.put("error", "Insufficient credits");
+                errorResp.put("required", estimatedCost);
+                errorResp.put("available", held);
+                return Preparation.rejected(new ExecutionOutcome(HttpServletResponse.SC_PAYMENT_REQUIRED, errorResp));
+            }
+            // Fails only if another request changed the balance in between; then look again
+        } while (!serverManager.deductCredits(request.getUsername(), held));
+
+        return new Preparation(new BatchExecution(serverManager, request, architecture, expandedProgram, held), null);
+    }
+
+    public String getUsername() {
+        return request.getUsername();
+    }
+
+    public int size() {
+        return request.size();
+    }
+
+    // Called by each lane; returns when every input vector has been taken. Every index gets exactly one
+    // result, since the servlet waits for all of them.
+    void runLane() {
+        Error failure = null;
+        int index;
+        while ((index = nextIndex.getAndIncrement()) < request.size()) {
+            Map<String, Object> result;
+            try {
+                result = runOne(index);
+            } catch (RuntimeException e) {
+                result = failedRun(index, e.getMessage());
+            } catch (StackOverflowError e) {
+                // Deeply nested QUOTEs recurse once per level; only this run is affected
+                result = failedRun(index, "function calls nest too deeply");
+            } catch (Error e) {
+                // Rethrown once the inputs left are reported; they are skipped like after a cancel
+                failure = e;
+                cancelled.set(true);
+                result = failedRun(index, "execution failed unexpectedly");
+            }
+            results.add(result);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static Map<String, Object> failedRun(int index, String message) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("index", index);
+        result.put("error", "Error executing program: " + message);
+        return result;
+    }
+
+    private Map<String, Object> runOne(int index) {
+        List<Integer> inputs = request.getInputSets().get(index);
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("index", index);
+        entry.put("inputs", inputs);
+
+        if (cancelled.get()) {
+            entry.put("status", ExecutionStatus.CANCELLED.name());
+            return entry;
+        }
+
+        // Every run may use all that is left; runs finishing at the same time are settled in charge()
+        int budget = remainingBudget.get();
+        if (budget <= 0) {
+            entry.put("status", ExecutionStatus.BUDGET_EXCEEDED.name());
+            return entry;
+        }
+
+        CancellationToken cancellation = new CancellationToken();
+        ScheduledFuture<?> timeout = serverManager.scheduleExecutionTimeout(cancellation);
+        ExecutionResult result;
+        try {
+            result = new ExecutionEngine().executeCompiled(compiledProgram, expandedProgram, inputs,
+                request.getDegree(), ExecutionTracer.NONE, serverManager.getQuoteMemo(), budget, cancellation);
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+
+        int runCycles = result.getCyclesConsumed();
+        int charged = charge(runCycles);
+        cyclesConsumed.addAndGet(charged);
+
+        if (charged < runCycles) {
+            // Runs that finished first used up the credits this one needed; it is billed for what was left
+            // and, like any run that runs out, returns no output
+            cycles[index] = charged;
+            entry.put("status", ExecutionStatus.BUDGET_EXCEEDED.name());
+            entry.put("cycles", charged);
+            return entry;
+        }
+
+        completed[index] = result.isComplete();
+        outputs[index] = result.getOutputValue();
+        cycles[index] = runCycles;
+
+        entry.put("status", result.getStatus().name());
+        entry.put("output", result.getOutputValue());
+        entry.put("cycles", runCycles);
+        entry.put("variables", result.getFinalVariables());
+        return entry;
+    }
+
+    // Takes a finished run's cycles from the shared budget, or all that is left when that is less, so the
+    // runs together never spend more than the credits held for the batch
+    private int charge(int runCycles) {
+        while (true) {
+            int remaining = remainingBudget.get();
+            int charged = Math.max(0, Math.min(runCycles, remaining));
+            if (remainingBudget.compareAndSet(remaining, remaining - charged)) {
+                return charged;
+            }
+        }
+    }
+
+    // Blocks until the next run finishes
+    public Map<String, Object> takeResult() throws InterruptedException {
+        return results.take();
+    }
+
+    // Runs that have not started yet are skipped, e.g. after the client went away
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    // Gives back every held credit; for a batch that was accepted but never submitted
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            serverManager.refundCredits(request.getUsername(), heldCredits);
+        }
+    }
+
+    // Called once every result has been taken: refunds what the batch did not spend and records the runs
+    public Map<String, Object> settle() {
+        long totalCycles = cyclesConsumed.get();
+        int totalCredits = architecture.getCost() + (int) totalCycles;
+        String username = request.getUsername();
+
+        int completedCount = 0;
+        for (boolean done : completed) {
+            if (done) {
+                completedCount++;
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("summary", true);
+        summary.put("runs", request.size());
+        summary.put("completed", completedCount);
+        summary.put("cycles", totalCycles);
+
+        if (released.compareAndSet(false, true)) {
+            serverManager.refundCredits(username, heldCredits - totalCredits);
+        }
+
+        // One history record per completed run, in input order; the architecture cost is in the summary only
+        User user = serverManager.getUser(username);
+        if (user == null) {
+            summary.put("success", false);
+            summary.put("error", "User not found");
+            return summary;
+        }
+        for (int i = 0; i < completed.length; i++) {
+            if (completed[i]) {
+                serverManager.addExecutionRecord(username, new ExecutionRecord(
+                    user.getExecutionCount() + 1, request.getProgramName(), false, architecture,
+                    request.getDegree(), request.getInputSets().get(i), outputs[i], cycles[i], cycles[i]));
+            }
+        }
+
+        summary.put("success", true);
+        summary.put("creditsUsed", totalCredits);
+        summary.put("remainingCredits", user.getCredits());
+        return summary;
+    }
+
+    public static class Preparation {
+        private final BatchExecution batch;
+        private final ExecutionOutcome rejection;
+
+        private Preparation(BatchExecution batch, ExecutionOutcome rejection) {
+            this.batch = batch;
+            this.rejection = rejection;
+        }
+
+        static Preparation rejected(ExecutionOutcome rejection) {
+            return new Preparation(null, rejection);
+        }
+
+        public boolean isRejected() {
+            return rejection != null;
+        }
+
+        public BatchExecution getBatch() {
+            return batch;
+        }
+
+        public ExecutionOutcome getRejection() {
+            return rejection;
+        }
+    }
+}
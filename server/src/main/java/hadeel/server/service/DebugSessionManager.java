@@ -0,0 +1,316 @@
+package hadeel.server.service;
+
+import hadeel.engine.execution.ExecutionDebugger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Owns the live debug sessions. Every session records when it was last used and how much step history it
+// holds. A background sweep closes sessions nobody has touched for idleTimeoutMillis, and spills the
+// history of sessions idle for spillAfterMillis to spillDir. Limits are enforced as sessions are used:
+// a user's oldest session is closed when they open one too many, and the least recently used sessions
+// are spilled, or closed without a spill directory, while resident history exceeds maxHistoryBytes.
+public class DebugSessionManager {
+
+    private static class Session {
+        final String id;
+        final String username;
+        final ExecutionDebugger debugger;
+        // Held while a request uses the session; the sweep only ever tries it
+        final ReentrantLock lock = new ReentrantLock();
+        volatile long lastAccessMillis;
+        // Resident history; 0 while spilled
+        volatile long historyBytes;
+        volatile Path spillFile;
+        boolean closed;
+
+        Session(String id, String username, ExecutionDebugger debugger) {
+            this.id = id;
+            this.username = username;
+            this.debugger = debugger;
+            this.lastAccessMillis = System.currentTimeMillis();
+        }
+    }
+
+    private final Map<String, Session> sessions;
+    private final long idleTimeoutMillis;
+    private final int maxSessionsPerUser;
+    private final long maxHistoryBytes;
+    private final long spillAfterMillis;
+    // Null when spilling is off
+    private final Path spillDir;
+    private final ScheduledThreadPoolExecutor sweeper;
+
+    private final AtomicLong residentBytes;
+    private final AtomicLong spillCounter;
+    private final AtomicLong created;
+    private final AtomicLong idleEvictions;
+    private final AtomicLong userCapEvictions;
+    private final AtomicLong memoryEvictions;
+    private final AtomicLong spills;
+    private final AtomicLong restores;
+
+    public DebugSessionManager(long idleTimeoutMillis, int maxSessionsPerUser, long maxHistoryBytes,
+                               long spillAfterMillis, Path spillDir) {
+        this.sessions = new ConcurrentHashMap<>();
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxSessionsPerUser = maxSessionsPerUser;
+        this.maxHistoryBytes = maxHistoryBytes;
+        this.spillAfterMillis = spillAfterMillis;
+        this.spillDir = spillDir;
+        this.residentBytes = new AtomicLong(0);
+        this.spillCounter = new AtomicLong(0);
+        this.created = new AtomicLong(0);
+        this.idleEvictions = new AtomicLong(0);
+        this.userCapEvictions = new AtomicLong(0);
+        this.memoryEvictions = new AtomicLong(0);
+        this.spills = new AtomicLong(0);
+        this.restores = new AtomicLong(0);
+
+        if (spillDir != null) {
+            try {
+                Files.createDirectories(spillDir);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to create debug spill directory " + spillDir + ": "
+                    + e.getMessage(), e);
+            }
+        }
+
+        this.sweeper = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "semulator-debug-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = sweepPeriodMillis();
+        if (period > 0) {
+            sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Often enough that no threshold is overshot by more than a quarter, but never busier than once a second
+    private long sweepPeriodMillis() {
+        long shortest = Long.MAX_VALUE;
+        if (idleTimeoutMillis > 0) {
+            shortest = idleTimeoutMillis;
+        }
+        if (spillDir != null && spillAfterMillis > 0) {
+            shortest = Math.min(shortest, spillAfterMillis);
+        }
+        return shortest == Long.MAX_VALUE ? 0 : Math.max(1000, shortest / 4);
+    }
+
+    public void create(String sessionId, String username, ExecutionDebugger debugger) {
+        Session session = new Session(sessionId, username, debugger);
+        session.historyBytes = debugger.getHistoryBytes();
+        residentBytes.addAndGet(session.historyBytes);
+        sessions.put(sessionId, session);
+        created.incrementAndGet();
+
+        if (maxSessionsPerUser > 0) {
+            List<Session> owned = new ArrayList<>();
+            for (Session other : sessions.values()) {
+                if (other.username.equals(username) && other != session) {
+                    owned.add(other);
+                }
+            }
+            owned.sort(Comparator.comparingLong(other -> other.lastAccessMillis));
+            for (int i = 0; i < owned.size() - (maxSessionsPerUser - 1); i++) {
+                if (close(owned.get(i), true)) {
+                    userCapEvictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    // Locks the session for the calling request and brings its history back if it was spilled. Returns
+    // null when there is no such session or its history could not be read back; every non-null result
+    // must be handed to release.
+    public ExecutionDebugger acquire(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+        session.lock.lock();
+        if (session.closed) {
+            session.lock.unlock();
+            return null;
+        }
+        session.lastAccessMillis = System.currentTimeMillis();
+        if (session.spillFile != null && !restore(session)) {
+            closeLocked(session);
+            session.lock.unlock();
+            return null;
+        }
+        return session.debugger;
+    }
+
+    public void release(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null || !session.lock.isHeldByCurrentThread()) {
+            return;
+        }
+        try {
+            session.lastAccessMillis = System.currentTimeMillis();
+            long bytes = session.debugger.getHistoryBytes();
+            residentBytes.addAndGet(bytes - session.historyBytes);
+            session.historyBytes = bytes;
+        } finally {
+            session.lock.unlock();
+        }
+        if (maxHistoryBytes > 0 && residentBytes.get() > maxHistoryBytes) {
+            shrinkResidentHistory(session);
+        }
+    }
+
+    // Waits for a request still using the session, so the stop takes effect once it is done
+    public void remove(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session != null) {
+            close(session, true);
+        }
+    }
+
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        for (Session session : sessions.values()) {
+            long idle = now - session.lastAccessMillis;
+            if (idleTimeoutMillis > 0 && idle >= idleTimeoutMillis) {
+                if (close(session, false)) {
+                    idleEvictions.incrementAndGet();
+                }
+            } else if (spillDir != null && spillAfterMillis > 0 && idle >= spillAfterMillis) {
+                spill(session);
+            }
+        }
+    }
+
+    // Least recently used first; the session that just went over the limit is left alone
+    private void shrinkResidentHistory(Session current) {
+        List<Session> candidates = new ArrayList<>();
+        for (Session session : sessions.values()) {
+            if (session != current && session.historyBytes > 0) {
+                candidates.add(session);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(session -> session.lastAccessMillis));
+        for (Session session : candidates) {
+            if (residentBytes.get() <= maxHistoryBytes) {
+                return;
+            }
+            if (spillDir != null) {
+                spill(session);
+            } else if (close(session, false)) {
+                memoryEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    // Skips sessions a request is using; they are looked at again on the next sweep or release
+    private void spill(Session session) {
+        if (!session.lock.tryLock()) {
+            return;
+        }
+        try {
+            if (session.closed || session.spillFile != null) {
+                return;
+            }
+            Path file = spillDir.resolve("session-" + spillCounter.incrementAndGet() + ".history");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                session.debugger.spillHistory(out);
+            } catch (IOException e) {
+                // The history is gone from memory either way, so the session cannot continue
+                System.out.println("[DebugSessionManager] Failed to spill session " + session.id + ": " + e.getMessage());
+                closeLocked(session);
+                deleteQuietly(file);
+                return;
+            }
+            session.spillFile = file;
+            residentBytes.addAndGet(-session.historyBytes);
+            session.historyBytes = 0;
+            spills.incrementAndGet();
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    private boolean restore(Session session) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(session.spillFile)))) {
+            session.debugger.restoreHistory(in);
+        } catch (IOException e) {
+            System.out.println("[DebugSessionManager] Failed to restore session " + session.id + ": " + e.getMessage());
+            return false;
+        }
+        deleteQuietly(session.spillFile);
+        session.spillFile = null;
+        session.historyBytes = session.debugger.getHistoryBytes();
+        residentBytes.addAndGet(session.historyBytes);
+        restores.incrementAndGet();
+        return true;
+    }
+
+    // With wait false a session in use is skipped and false returned
+    private boolean close(Session session, boolean wait) {
+        if (wait) {
+            session.lock.lock();
+        } else if (!session.lock.tryLock()) {
+            return false;
+        }
+        try {
+            return closeLocked(session);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    private boolean closeLocked(Session session) {
+        if (session.closed) {
+            return false;
+        }
+        session.closed = true;
+        sessions.remove(session.id, session);
+        residentBytes.addAndGet(-session.historyBytes);
+        session.historyBytes = 0;
+        if (session.spillFile != null) {
+            deleteQuietly(session.spillFile);
+            session.spillFile = null;
+        }
+        return true;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("[DebugSessionManager] Failed to delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        int spilled = 0;
+        for (Session session : sessions.values()) {
+            if (session.spillFile != null) {
+                spilled++;
+            }
+        }
+        stats.put("sessions", sessions.size());
+        stats.put("spilledSessions", spilled);
+        stats.put("residentHistoryBytes", residentBytes.get());
+        stats.put("maxHistoryBytes", maxHistoryBytes);
+        stats.put("maxSessionsPerUser", maxSessionsPerUser);
+        stats.put("idleTimeoutMillis", idleTimeoutMillis);
+        stats.put("spillEnabled", spillDir != null);
+        stats.put("created", created.get());
+        stats.put("idleEvictions", idleEvictions.get());
+        stats.put("userCapEvictions", userCapEvictions.get());
+        stats.put("memoryEvictions", memoryEvictions.get());
+        stats.put("spills", spills.get());
+        stats.put("restores", restores.get());
+        return stats;
+    }
+}
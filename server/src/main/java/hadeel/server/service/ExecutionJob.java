@@ -0,0 +1,122 @@
+package hadeel.server.service;
+
+import hadeel.engine.execution.CancellationToken;
+import hadeel.server.model.ExecutionRequest;
+
+import java.util.concurrent.CompletableFuture;
+
+public class ExecutionJob {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        REJECTED
+    }
+
+    private final String id;
+    private final ExecutionRequest request;
+    private final CancellationToken cancellation;
+    private final CompletableFuture<ExecutionOutcome> completion;
+    private final long submittedAt;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile State state;
+
+    ExecutionJob(String id, ExecutionRequest request) {
+        this.id = id;
+        this.request = request;
+        this.cancellation = new CancellationToken();
+        this.completion = new CompletableFuture<>();
+        this.submittedAt = System.currentTimeMillis();
+        this.state = State.QUEUED;
+    }
+
+    // False when the job was cancelled while it waited; it must then not run
+    synchronized boolean markRunning() {
+        if (state != State.QUEUED) {
+            return false;
+        }
+        startedAt = System.currentTimeMillis();
+        state = State.RUNNING;
+        return true;
+    }
+
+    // Only a job that has not started can be cancelled; it completes with the outcome without running
+    public synchronized boolean cancelIfQueued(ExecutionOutcome outcome) {
+        if (state != State.QUEUED) {
+            return false;
+        }
+        finishedAt = System.currentTimeMillis();
+        state = State.COMPLETED;
+        completion.complete(outcome);
+        return true;
+    }
+
+    void complete(ExecutionOutcome outcome) {
+        finishedAt = System.currentTimeMillis();
+        state = State.COMPLETED;
+        completion.complete(outcome);
+    }
+
+    void reject(ExecutionOutcome outcome) {
+        finishedAt = System.currentTimeMillis();
+        state = State.REJECTED;
+        completion.complete(outcome);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return request.getUsername();
+    }
+
+    public ExecutionRequest getRequest() {
+        return request;
+    }
+
+    public CancellationToken getCancellation() {
+        return cancellation;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isFinished() {
+        return state == State.COMPLETED || state == State.REJECTED;
+    }
+
+    // Completes exactly once, whether the job ran or was rejected
+    public CompletableFuture<ExecutionOutcome> getCompletion() {
+        return completion;
+    }
+
+    // Null until the job has finished
+    public ExecutionOutcome getOutcome() {
+        return completion.getNow(null);
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    // Time spent in the queue so far, or in total once the job has started
+    public long getWaitMillis() {
+        long started = startedAt;
+        if (started > 0) {
+            return started - submittedAt;
+        }
+        return (isFinished() ? finishedAt : System.currentTimeMillis()) - submittedAt;
+    }
+
+    public long getRunMillis() {
+        long started = startedAt;
+        if (started == 0) {
+            return 0;
+        }
+        return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - started;
+    }
+}
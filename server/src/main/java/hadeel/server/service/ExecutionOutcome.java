@@ -0,0 +1,26 @@
+package hadeel.server.service;
+
+import hadeel.server.util.JsonUtil;
+
+// HTTP status and JSON body of a finished execution, so it can be sent now or fetched later
+public class ExecutionOutcome {
+    private final int statusCode;
+    private final Object body;
+
+    public ExecutionOutcome(int statusCode, Object body) {
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    public static ExecutionOutcome error(int statusCode, String message) {
+        return new ExecutionOutcome(statusCode, new JsonUtil.ErrorResponse(message));
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Object getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,241 @@
+package hadeel.server.service;
+
+import hadeel.server.model.ExecutionRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs executions on a fixed set of engine workers instead of the servlet container's request threads
+public class ExecutionScheduler {
+    // Not defined as a constant by the Servlet 4 API
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+
+    // Finished jobs stay fetchable until this many newer ones have finished
+    private static final int MAX_RETAINED_JOBS = 1000;
+
+    private final ExecutionService executionService;
+    private final ThreadPoolExecutor workers;
+    private final int queueCapacity;
+    private final int perUserLimit;
+
+    private final Map<String, ExecutionJob> jobs;
+    private final ConcurrentLinkedQueue<String> finishedJobIds;
+    private final Map<String, Integer> jobsPerUser;
+
+    private final AtomicLong jobIdCounter;
+    private final AtomicLong submitted;
+    private final AtomicLong rejected;
+    private final AtomicLong started;
+    private final AtomicLong completed;
+    private final AtomicLong totalWaitMillis;
+    private final AtomicLong maxWaitMillis;
+
+    public ExecutionScheduler(ExecutionService executionService, int workerCount, int queueCapacity,
+                              int perUserLimit) {
+        this.executionService = executionService;
+        this.queueCapacity = queueCapacity;
+        this.perUserLimit = perUserLimit;
+
+        AtomicInteger threadCounter = new AtomicInteger(0);
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                Thread thread = new Thread(runnable, "semulator-executor-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        this.jobs = new ConcurrentHashMap<>();
+        this.finishedJobIds = new ConcurrentLinkedQueue<>();
+        this.jobsPerUser = new HashMap<>();
+        this.jobIdCounter = new AtomicLong(0);
+        this.submitted = new AtomicLong(0);
+        this.rejected = new AtomicLong(0);
+        this.started = new AtomicLong(0);
+        this.completed = new AtomicLong(0);
+        this.totalWaitMillis = new AtomicLong(0);
+        this.maxWaitMillis = new AtomicLong(0);
+    }
+
+    // Never blocks; a job that cannot be queued comes back already REJECTED with its error outcome
+    public ExecutionJob submit(ExecutionRequest request) {
+        ExecutionJob job = new ExecutionJob("job_" + jobIdCounter.incrementAndGet(), request);
+        submitted.incrementAndGet();
+
+        String username = request.getUsername();
+        if (!acquireUserSlot(username)) {
+            rejected.incrementAndGet();
+            job.reject(ExecutionOutcome.error(SC_TOO_MANY_REQUESTS,
+                "Too many executions in progress for user (limit " + perUserLimit + ")"));
+            return job;
+        }
+
+        jobs.put(job.getId(), job);
+        try {
+            workers.execute(() -> runJob(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            releaseUserSlot(username);
+            rejected.incrementAndGet();
+            job.reject(ExecutionOutcome.error(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "Execution queue is full, try again later"));
+        }
+        return job;
+    }
+
+    // Runs the batch on up to one lane per worker; null when accepted, otherwise the rejection outcome.
+    // The whole batch takes one of the user's slots and queue entries for its lanes.
+    public ExecutionOutcome submitBatch(BatchExecution batch) {
+        submitted.incrementAndGet();
+
+        String username = batch.getUsername();
+        if (!acquireUserSlot(username)) {
+            rejected.incrementAndGet();
+            return ExecutionOutcome.error(SC_TOO_MANY_REQUESTS,
+                "Too many executions in progress for user (limit " + perUserLimit + ")");
+        }
+
+        int lanes = Math.min(workers.getMaximumPoolSize(), batch.size());
+        // Counts the queued lanes plus this thread, so lanes finishing before the loop ends cannot
+        // release the user's slot while more lanes may still be queued
+        AtomicInteger activeLanes = new AtomicInteger(1);
+        AtomicBoolean batchStarted = new AtomicBoolean(false);
+        long queuedAt = System.currentTimeMillis();
+
+        int accepted = 0;
+        for (int i = 0; i < lanes; i++) {
+            activeLanes.incrementAndGet();
+            try {
+                workers.execute(() -> runLane(batch, activeLanes, batchStarted, queuedAt));
+                accepted++;
+            } catch (RejectedExecutionException e) {
+                // The lanes already queued will take the remaining inputs
+                activeLanes.decrementAndGet();
+                break;
+            }
+        }
+
+        if (accepted == 0) {
+            releaseUserSlot(username);
+            rejected.incrementAndGet();
+            return ExecutionOutcome.error(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "Execution queue is full, try again later");
+        }
+        finishLane(batch, activeLanes);
+        return null;
+    }
+
+    private void runLane(BatchExecution batch, AtomicInteger activeLanes, AtomicBoolean batchStarted,
+                         long queuedAt) {
+        // Statistics count the batch once, as started when its first lane starts
+        if (batchStarted.compareAndSet(false, true)) {
+            long waited = System.currentTimeMillis() - queuedAt;
+            started.incrementAndGet();
+            totalWaitMillis.addAndGet(waited);
+            maxWaitMillis.accumulateAndGet(waited, Math::max);
+        }
+
+        try {
+            batch.runLane();
+        } finally {
+            finishLane(batch, activeLanes);
+        }
+    }
+
+    // Whoever leaves last frees the user's slot and counts the batch as completed
+    private void finishLane(BatchExecution batch, AtomicInteger activeLanes) {
+        if (activeLanes.decrementAndGet() == 0) {
+            releaseUserSlot(batch.getUsername());
+            completed.incrementAndGet();
+        }
+    }
+
+    private void runJob(ExecutionJob job) {
+        if (!job.markRunning()) {
+            // Cancelled while queued; it was already completed and nothing ran
+            releaseUserSlot(job.getUsername());
+            completed.incrementAndGet();
+            retire(job);
+            return;
+        }
+        long waited = job.getWaitMillis();
+        started.incrementAndGet();
+        totalWaitMillis.addAndGet(waited);
+        maxWaitMillis.accumulateAndGet(waited, Math::max);
+
+        ExecutionOutcome outcome = null;
+        try {
+            outcome = executionService.run(job.getRequest(), job.getCancellation());
+        } catch (RuntimeException e) {
+            outcome = ExecutionOutcome.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error executing program: " + e.getMessage());
+        } catch (StackOverflowError e) {
+            // Deeply nested QUOTEs recurse once per level; only this run is affected
+            outcome = ExecutionOutcome.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error executing program: function calls nest too deeply");
+        } finally {
+            releaseUserSlot(job.getUsername());
+            // Any other Error still propagates, but the job completes first so nobody waiting on it blocks forever
+            if (outcome == null) {
+                outcome = ExecutionOutcome.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                    "Error executing program: execution failed unexpectedly");
+            }
+            job.complete(outcome);
+            completed.incrementAndGet();
+            retire(job);
+        }
+    }
+
+    private void retire(ExecutionJob job) {
+        finishedJobIds.add(job.getId());
+        while (finishedJobIds.size() > MAX_RETAINED_JOBS) {
+            String oldest = finishedJobIds.poll();
+            if (oldest != null) {
+                jobs.remove(oldest);
+            }
+        }
+    }
+
+    private synchronized boolean acquireUserSlot(String username) {
+        int active = jobsPerUser.getOrDefault(username, 0);
+        if (active >= perUserLimit) {
+            return false;
+        }
+        jobsPerUser.put(username, active + 1);
+        return true;
+    }
+
+    private synchronized void releaseUserSlot(String username) {
+        int active = jobsPerUser.getOrDefault(username, 0);
+        if (active <= 1) {
+            jobsPerUser.remove(username);
+        } else {
+            jobsPerUser.put(username, active - 1);
+        }
+    }
+
+    // Null once a finished job has been retired
+    public ExecutionJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long startedJobs = started.get();
+        stats.put("workers", workers.getMaximumPoolSize());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("queueDepth", workers.getQueue().size());
+        stats.put("running", workers.getActiveCount());
+        stats.put("perUserLimit", perUserLimit);
+        stats.put("submitted", submitted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("completed", completed.get());
+        stats.put("averageWaitMillis", startedJobs > 0 ? totalWaitMillis.get() / startedJobs : 0);
+        stats.put("maxWaitMillis", maxWaitMillis.get());
+        stats.put("retainedJobs", jobs.size());
+        return stats;
+    }
+}
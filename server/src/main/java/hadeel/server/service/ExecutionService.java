@@ -0,0 +1,224 @@
+package hadeel.server.service;
+
+import hadeel.server.model.*;
+import hadeel.engine.model.*;
+import hadeel.engine.execution.CancellationToken;
+import hadeel.engine.execution.ExecutionEngine;
+import hadeel.engine.execution.ExecutionTracer;
+import hadeel.engine.execution.FileTracer;
+import hadeel.engine.execution.RingBufferTracer;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+
+// Runs one /api/execute request end to end: validation, expansion, credits, execution and history
+public class ExecutionService {
+    private static final int DEFAULT_TRACE_LIMIT = 1000;
+    private static final int MAX_TRACE_LIMIT = 100000;
+    private static final long DEFAULT_TRACE_FILE_BYTES = 64L * 1024 * 1024;
+
+    private final ServerManager serverManager;
+
+    public ExecutionService(ServerManager serverManager) {
+        this.serverManager = serverManager;
+    }
+
+    public ExecutionOutcome run(ExecutionRequest request, CancellationToken cancellation) {
+        ExecutionTracer tracer = ExecutionTracer.NONE;
+        String username = request.getUsername();
+        // Credits taken from the user for this run, and how many of them it has spent; the rest go back
+        int held = 0;
+        int spent = 0;
+        try {
+            String programName = request.getProgramName();
+            List<Integer> inputs = request.getInputs();
+
+            User user = serverManager.getUser(username);
+            if (user == null) {
+                return ExecutionOutcome.error(HttpServletResponse.SC_NOT_FOUND, "User not found");
+            }
+
+            ProgramInfo programInfo = serverManager.getProgram(programName);
+            if (programInfo == null) {
+                return ExecutionOutcome.error(HttpServletResponse.SC_NOT_FOUND, "Program not found");
+            }
+
+            Architecture architecture = Architecture.fromString(request.getArchitecture());
+            int degree = request.getDegree();
+
+            // Tracing is off unless the request asks for it
+            tracer = createTracer(request.getTraceMode(), request.getTraceLimit(), username);
+
+            // Repository functions resolve through the shared function table
+            SProgram program = serverManager.getScopedProgram(programInfo);
+
+            // Expand program to requested degree (shared, read-only when served from the cache)
+            SProgram expandedProgram = serverManager.getExpandedProgram(program, degree, tracer);
+
+            // Validate architecture support
+            for (SInstruction inst : expandedProgram.getInstructions()) {
+                if (!architecture.supports(inst.getName())) {
+                    return ExecutionOutcome.error(HttpServletResponse.SC_BAD_REQUEST,
+                        "Program contains instructions not supported by architecture: " + inst.getName());
+                }
+            }
+
+            // Check credits (architecture cost + estimated cycles) and hold all of them for the run, so that
+            // nothing running alongside can spend what its cycle budget is based on
+            int estimatedCost = architecture.getCost() + expandedProgram.getTotalCycles();
+            int available;
+            do {
+                available = user.getCredits();
+                if (available < estimatedCost) {
+                    Map<String, Object> errorResp = new HashMap<>();
+                    errorResp.put("error", "Insufficient credits");
+                    errorResp.put("required", estimatedCost);
+                    errorResp.put("available", available);
+                    return new ExecutionOutcome(HttpServletResponse.SC_PAYMENT_REQUIRED, errorResp);
+                }
+                // Fails only if another request changed the balance in between; then look again
+            } while (!serverManager.deductCredits(username, available));
+            held = available;
+
+            // The architecture cost is spent up front
+            spent = architecture.getCost();
+
+            // Execute program; the credits held after the architecture cost cap the cycles it may run
+            ExecutionEngine engine = new ExecutionEngine();
+            ScheduledFuture<?> timeout = serverManager.scheduleExecutionTimeout(cancellation);
+            ExecutionResult result;
+            try {
+                result = engine.executeExpanded(expandedProgram, inputs, degree, tracer,
+                    serverManager.getQuoteMemo(), held - spent, cancellation);
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+
+            // The budget kept the cycles within what is held
+            int cycleCredits = result.getCyclesConsumed();
+            spent += cycleCredits;
+            refundUnspent(username, held, spent);
+            held = 0;
+
+            if (!result.isComplete()) {
+                // Stopped early: the cycles that did run are billed, and the state at that point is returned
+                boolean timedOut = result.getStatus() == ExecutionStatus.CANCELLED;
+                Map<String, Object> errorResp = new HashMap<>();
+                errorResp.put("error", timedOut ? "Execution timed out" : "Ran out of credits during execution");
+                errorResp.put("partialResult", true);
+                errorResp.put("status", result.getStatus().name());
+                errorResp.put("output", result.getOutputValue());
+                errorResp.put("cycles", result.getCyclesConsumed());
+                errorResp.put("creditsUsed", architecture.getCost() + cycleCredits);
+                errorResp.put("remainingCredits", user.getCredits());
+                errorResp.put("variables", result.getFinalVariables());
+                return new ExecutionOutcome(timedOut ? HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                    : HttpServletResponse.SC_PAYMENT_REQUIRED, errorResp);
+            }
+
+            // Record execution
+            int totalCredits = architecture.getCost() + cycleCredits;
+            ExecutionRecord record = new ExecutionRecord(
+                user.getExecutionCount() + 1,
+                programName,
+                false,
+                architecture,
+                degree,
+                inputs,
+                result.getOutputValue(),
+                result.getCyclesConsumed(),
+                totalCredits
+            );
+            serverManager.addExecutionRecord(username, record);
+
+            // Prepare response
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("status", result.getStatus().name());
+            response.put("output", result.getOutputValue());
+            response.put("cycles", result.getCyclesConsumed());
+            response.put("creditsUsed", totalCredits);
+            response.put("remainingCredits", user.getCredits());
+            response.put("variables", result.getFinalVariables());
+
+            if (tracer instanceof RingBufferTracer) {
+                RingBufferTracer ringTracer = (RingBufferTracer) tracer;
+                response.put("trace", ringTracer.getEntries());
+                response.put("traceDropped", ringTracer.getDroppedCount());
+            } else if (tracer instanceof FileTracer) {
+                FileTracer fileTracer = (FileTracer) tracer;
+                response.put("traceFile", fileTracer.getPath().getFileName().toString());
+                response.put("traceTruncated", fileTracer.isTruncated());
+            }
+
+            return new ExecutionOutcome(HttpServletResponse.SC_OK, response);
+
+        } catch (Exception e) {
+            return ExecutionOutcome.error(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error executing program: " + e.getMessage());
+        } finally {
+            // A run that failed part way is billed only what it had spent when it did
+            if (held > 0) {
+                refundUnspent(username, held, spent);
+            }
+            if (tracer instanceof FileTracer) {
+                closeQuietly((FileTracer) tracer);
+            }
+        }
+    }
+
+    private void refundUnspent(String username, int held, int spent) {
+        if (held > spent) {
+            serverManager.refundCredits(username, held - spent);
+        }
+    }
+
+    // The response is already decided; a trace file that fails to close must not change it
+    private void closeQuietly(FileTracer tracer) {
+        try {
+            tracer.close();
+        } catch (IOException e) {
+            System.out.println("[ExecutionService] Failed to close trace file " + tracer.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private ExecutionTracer createTracer(String mode, Integer limit, String username) throws IOException {
+        if (mode == null || mode.equalsIgnoreCase("none")) {
+            return ExecutionTracer.NONE;
+        }
+
+        if (mode.equalsIgnoreCase("ring")) {
+            int capacity = limit != null ? limit : DEFAULT_TRACE_LIMIT;
+            return new RingBufferTracer(Math.max(1, Math.min(capacity, MAX_TRACE_LIMIT)));
+        }
+
+        if (mode.equalsIgnoreCase("file")) {
+            Path directory = Paths.get(System.getProperty("semulator.trace.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "semulator-traces").toString()))
+                .toAbsolutePath().normalize();
+            // The username only labels the file; the name itself is generated so it cannot leave the directory
+            String fileName = traceLabel(username) + "_" + UUID.randomUUID() + ".trace";
+            Path path = directory.resolve(fileName).normalize();
+            if (!path.startsWith(directory) || !directory.equals(path.getParent())) {
+                throw new IllegalArgumentException("Invalid trace file name");
+            }
+            long maxBytes = Long.getLong("semulator.trace.maxBytes", DEFAULT_TRACE_FILE_BYTES);
+            return new FileTracer(path, maxBytes);
+        }
+
+        throw new IllegalArgumentException("Unknown trace mode: " + mode);
+    }
+
+    private static String traceLabel(String username) {
+        String label = username.replaceAll("[^A-Za-z0-9_-]", "_");
+        if (label.length() > 32) {
+            label = label.substring(0, 32);
+        }
+        return label.isEmpty() ? "user" : label;
+    }
+}
@@ -0,0 +1,173 @@
+package hadeel.server.service;
+
+import hadeel.engine.execution.ExecutionTracer;
+import hadeel.engine.execution.ExpansionEngine;
+import hadeel.engine.model.SInstruction;
+import hadeel.engine.model.SProgram;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ExpansionCache {
+
+    // Rough per-object footprint of an expanded SInstruction and of each of its arguments
+    private static final long INSTRUCTION_BYTES = 160;
+    private static final long ARGUMENT_BYTES = 96;
+
+    private static class Key {
+        final String programName;
+        final int degree;
+        final long functionVersion;
+
+        Key(String programName, int degree, long functionVersion) {
+            this.programName = programName;
+            this.degree = degree;
+            this.functionVersion = functionVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return degree == key.degree && functionVersion == key.functionVersion
+                && programName.equals(key.programName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(programName, degree, functionVersion);
+        }
+    }
+
+    private static class Entry {
+        final SProgram program;
+        final long bytes;
+
+        Entry(SProgram program, long bytes) {
+            this.program = program;
+            this.bytes = bytes;
+        }
+    }
+
+    private final long maxBytes;
+    private final boolean parallelExpansion;
+    private final LinkedHashMap<Key, Entry> entries;
+    private long currentBytes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private final AtomicLong invalidations;
+
+    public ExpansionCache(long maxBytes) {
+        this(maxBytes, false);
+    }
+
+    public ExpansionCache(long maxBytes, boolean parallelExpansion) {
+        this.maxBytes = maxBytes;
+        this.parallelExpansion = parallelExpansion;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.evictions = new AtomicLong(0);
+        this.invalidations = new AtomicLong(0);
+    }
+
+    // The returned program is shared between requests, so its instruction list is read-only
+    public SProgram getExpanded(SProgram program, int degree, long functionVersion, ExecutionTracer tracer) {
+        Key key = new Key(program.getName(), degree, functionVersion);
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                if (tracer.isEnabled()) {
+                    tracer.onMessage("ExpansionCache", "Hit for " + key.programName + " at degree " + degree);
+                }
+                return entry.program;
+            }
+        }
+
+        // Expand outside the lock so a slow expansion does not block hits on other programs
+        misses.incrementAndGet();
+        SProgram expanded = parallelExpansion
+            ? ExpansionEngine.expandParallel(program, degree, ForkJoinPool.commonPool(), tracer)
+            : ExpansionEngine.expand(program, degree, tracer);
+        if (expanded == null) {
+            return null;
+        }
+
+        SProgram frozen = new SProgram(expanded.getName());
+        frozen.setInstructions(Collections.unmodifiableList(expanded.getInstructions()));
+        frozen.setFunctions(expanded.getFunctions());
+        frozen.setFunctionScope(expanded.getFunctionScope());
+        long bytes = estimateBytes(frozen);
+
+        synchronized (this) {
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                return existing.program;
+            }
+            if (bytes <= maxBytes) {
+                entries.put(key, new Entry(frozen, bytes));
+                currentBytes += bytes;
+                evictToFit();
+            }
+        }
+        return frozen;
+    }
+
+    // Entries built against an older function repository can never be hit again
+    public synchronized void invalidateBefore(long functionVersion) {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> mapEntry = iterator.next();
+            if (mapEntry.getKey().functionVersion < functionVersion) {
+                currentBytes -= mapEntry.getValue().bytes;
+                iterator.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        invalidations.addAndGet(entries.size());
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    private void evictToFit() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Key, Entry> eldest = iterator.next();
+            currentBytes -= eldest.getValue().bytes;
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long estimateBytes(SProgram program) {
+        long bytes = 0;
+        for (SInstruction instruction : program.getInstructions()) {
+            bytes += INSTRUCTION_BYTES + ARGUMENT_BYTES * instruction.getArguments().size();
+        }
+        return bytes;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("parallelExpansion", parallelExpansion);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("invalidations", invalidations.get());
+        return stats;
+    }
+}
@@ -0,0 +1,152 @@
+package hadeel.server.service;
+
+import hadeel.engine.model.SFunction;
+import hadeel.engine.model.SProgram;
+import hadeel.engine.validation.FunctionReferences;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Which functions each program and each repository function calls, kept up to date as programs are uploaded.
+// Functions are never removed or replaced, so an upload is validated against the graph as it stands without
+// rescanning anything already registered.
+public class FunctionDependencyGraph {
+
+    // Calls made by one upload: its main body and each function it defines
+    public static class UploadDependencies {
+        private final Set<String> programCalls;
+        private final Map<String, Set<String>> functionCalls;
+
+        UploadDependencies(Set<String> programCalls, Map<String, Set<String>> functionCalls) {
+            this.programCalls = programCalls;
+            this.functionCalls = functionCalls;
+        }
+
+        public Set<String> getProgramCalls() {
+            return programCalls;
+        }
+
+        public Map<String, Set<String>> getFunctionCalls() {
+            return functionCalls;
+        }
+    }
+
+    private final Map<String, Set<String>> programCalls = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> functionCalls = new ConcurrentHashMap<>();
+
+    public static UploadDependencies collect(SProgram program) {
+        Map<String, Set<String>> functionCalls = new LinkedHashMap<>();
+        for (SFunction function : program.getFunctions()) {
+            functionCalls.put(function.getName(),
+                Collections.unmodifiableSet(FunctionReferences.collect(function.getInstructions())));
+        }
+        return new UploadDependencies(Collections.unmodifiableSet(FunctionReferences.collect(program.getInstructions())),
+            functionCalls);
+    }
+
+    // Error for the first call to a function that is neither registered nor defined by the upload, or null
+    public String findUndefined(UploadDependencies upload) {
+        for (String name : upload.programCalls) {
+            if (!isDefined(name, upload)) {
+                return "Program references undefined function: " + name;
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : upload.functionCalls.entrySet()) {
+            for (String name : entry.getValue()) {
+                if (!isDefined(name, upload)) {
+                    return "Function '" + entry.getKey() + "' references undefined function: " + name;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isDefined(String name, UploadDependencies upload) {
+        return functionCalls.containsKey(name) || upload.functionCalls.containsKey(name);
+    }
+
+    // A registered function can only call functions registered before it, so a new cycle has to run
+    // through the uploaded functions alone. Returns the cycle as "A -> B -> A", or null.
+    public static String findCycle(UploadDependencies upload) {
+        Map<String, Set<String>> calls = upload.functionCalls;
+        Set<String> finished = new HashSet<>();
+        for (String start : calls.keySet()) {
+            if (finished.contains(start)) {
+                continue;
+            }
+            // Iterative DFS: the path holds the functions currently being visited, in call order
+            List<String> path = new ArrayList<>();
+            Deque<Iterator<String>> pending = new ArrayDeque<>();
+            path.add(start);
+            pending.push(calls.get(start).iterator());
+            while (!pending.isEmpty()) {
+                Iterator<String> next = pending.peek();
+                if (!next.hasNext()) {
+                    pending.pop();
+                    finished.add(path.remove(path.size() - 1));
+                    continue;
+                }
+                String callee = next.next();
+                if (!calls.containsKey(callee) || finished.contains(callee)) {
+                    continue;
+                }
+                int onPath = path.indexOf(callee);
+                if (onPath >= 0) {
+                    List<String> cycle = new ArrayList<>(path.subList(onPath, path.size()));
+                    cycle.add(callee);
+                    return String.join(" -> ", cycle);
+                }
+                path.add(callee);
+                pending.push(calls.get(callee).iterator());
+            }
+        }
+        return null;
+    }
+
+    public void addProgram(String programName, Set<String> calls) {
+        programCalls.put(programName, calls);
+    }
+
+    public void addFunction(String functionName, Set<String> calls) {
+        functionCalls.put(functionName, calls);
+    }
+
+    public boolean containsFunction(String functionName) {
+        return functionCalls.containsKey(functionName);
+    }
+
+    public Set<String> getProgramCalls(String programName) {
+        return programCalls.getOrDefault(programName, Collections.emptySet());
+    }
+
+    public Set<String> getFunctionCalls(String functionName) {
+        return functionCalls.getOrDefault(functionName, Collections.emptySet());
+    }
+
+    // Registered functions a program reaches directly or through other functions
+    public Set<String> getReachableFunctions(String programName) {
+        Set<String> reached = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>(getProgramCalls(programName));
+        while (!pending.isEmpty()) {
+            String name = pending.pop();
+            if (functionCalls.containsKey(name) && reached.add(name)) {
+                pending.addAll(functionCalls.get(name));
+            }
+        }
+        return reached;
+    }
+
+    public Map<String, Object> getStatistics() {
+        int edges = 0;
+        for (Set<String> calls : programCalls.values()) {
+            edges += calls.size();
+        }
+        for (Set<String> calls : functionCalls.values()) {
+            edges += calls.size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("programs", programCalls.size());
+        stats.put("functions", functionCalls.size());
+        stats.put("edges", edges);
+        return stats;
+    }
+}
@@ -4,27 +4,203 @@ import hadeel.server.model.*;
 import hadeel.engine.model.*;
 import hadeel.engine.parser.XMLParser;
 import hadeel.engine.parser.ParseResult;
+import hadeel.engine.execution.CancellationToken;
 import hadeel.engine.execution.ExecutionDebugger;
-
+import hadeel.engine.execution.ExecutionTracer;
+import hadeel.engine.execution.QuoteMemo;
+import hadeel.server.storage.StorageEngine;
+import hadeel.server.storage.StorageRecord;
+import hadeel.server.storage.StoreState;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ServerManager {
+    private static final long DEFAULT_EXPANSION_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_EXECUTION_TIMEOUT_MILLIS = 30_000;
+    private static final long DEFAULT_EXECUTE_WAIT_MILLIS = 60_000;
+    private static final int DEFAULT_EXECUTION_QUEUE_CAPACITY = 256;
+    private static final int DEFAULT_EXECUTIONS_PER_USER = 4;
+    private static final long DEFAULT_STORAGE_SEGMENT_BYTES = 8L * 1024 * 1024;
+    private static final long DEFAULT_SNAPSHOT_INTERVAL_MILLIS = 60_000;
+    private static final int UPLOAD_NAME_LOCK_STRIPES = 64;
+    private static final long DEFAULT_DEBUG_IDLE_TIMEOUT_MILLIS = 30 * 60_000;
+    private static final int DEFAULT_DEBUG_SESSIONS_PER_USER = 4;
+    private static final long DEFAULT_DEBUG_HISTORY_BYTES = 256L * 1024 * 1024;
+    private static final long DEFAULT_DEBUG_SPILL_AFTER_MILLIS = 5 * 60_000;
+
     private static ServerManager instance;
 
+    // Every account, including ones restored from storage; activeUsers holds the ones logged in right now
     private final Map<String, User> users;
+    private final Set<String> activeUsers;
     private final Map<String, ProgramInfo> programs;
     private final Map<String, FunctionInfo> functions;
-    private final Map<String, ExecutionDebugger> activeDebugSessions;
+    private final FunctionDependencyGraph dependencyGraph;
+    private final ReentrantLock[] nameLocks;
+    private final DebugSessionManager debugSessions;
     private final AtomicInteger executionIdCounter;
+    private final AtomicReference<FunctionTable> functionTable;
+    private final ExpansionCache expansionCache;
+    private final QuoteMemo quoteMemo;
+    private final long executionTimeoutMillis;
+    private final long executeWaitMillis;
+    private final ScheduledThreadPoolExecutor executionWatchdog;
+    private final ExecutionScheduler executionScheduler;
+    private final ExecutorService requestExecutor;
+    private final StorageEngine storage;
+    private final boolean syncStorageWrites;
 
     private ServerManager() {
         this.users = new ConcurrentHashMap<>();
+        this.activeUsers = ConcurrentHashMap.newKeySet();
         this.programs = new ConcurrentHashMap<>();
         this.functions = new ConcurrentHashMap<>();
-        this.activeDebugSessions = new ConcurrentHashMap<>();
+        this.dependencyGraph = new FunctionDependencyGraph();
+        this.nameLocks = new ReentrantLock[UPLOAD_NAME_LOCK_STRIPES];
+        for (int i = 0; i < nameLocks.length; i++) {
+            nameLocks[i] = new ReentrantLock();
+        }
+        // Spilling cold debug history to disk is opt-in; without it, sessions over the memory cap are closed
+        String debugSpillDir = System.getProperty("semulator.debug.spillDir");
+        this.debugSessions = new DebugSessionManager(
+            Long.getLong("semulator.debug.idleTimeoutMillis", DEFAULT_DEBUG_IDLE_TIMEOUT_MILLIS),
+            Integer.getInteger("semulator.debug.maxSessionsPerUser", DEFAULT_DEBUG_SESSIONS_PER_USER),
+            Long.getLong("semulator.debug.maxHistoryBytes", DEFAULT_DEBUG_HISTORY_BYTES),
+            Long.getLong("semulator.debug.spillAfterMillis", DEFAULT_DEBUG_SPILL_AFTER_MILLIS),
+            debugSpillDir != null ? Paths.get(debugSpillDir) : null);
         this.executionIdCounter = new AtomicInteger(0);
+        this.functionTable = new AtomicReference<>(FunctionTable.EMPTY);
+        this.expansionCache = new ExpansionCache(
+            Long.getLong("semulator.expansionCache.maxBytes", DEFAULT_EXPANSION_CACHE_BYTES),
+            Boolean.getBoolean("semulator.expansion.parallel"));
+
+        // Server-wide QUOTE memo is opt-in; every execution still memoizes its own calls
+        int quoteMemoEntries = Integer.getInteger("semulator.quoteMemo.maxEntries", 0);
+        this.quoteMemo = quoteMemoEntries > 0 ? new QuoteMemo(quoteMemoEntries) : null;
+
+        // Cycle budgets bound billed work; this bounds wall-clock time, e.g. inside unbilled function bodies
+        this.executionTimeoutMillis = Long.getLong("semulator.execution.timeoutMillis", DEFAULT_EXECUTION_TIMEOUT_MILLIS);
+        // Bounds how long a synchronous execute request waits for its job, queue time included
+        this.executeWaitMillis = Long.getLong("semulator.execute.waitTimeoutMillis", DEFAULT_EXECUTE_WAIT_MILLIS);
+        this.executionWatchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "semulator-execution-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executionWatchdog.setRemoveOnCancelPolicy(true);
+
+        // Executions run on these workers, never on the container's request threads
+        this.executionScheduler = new ExecutionScheduler(new ExecutionService(this),
+            Integer.getInteger("semulator.executor.workers", Runtime.getRuntime().availableProcessors()),
+            Integer.getInteger("semulator.executor.queueCapacity", DEFAULT_EXECUTION_QUEUE_CAPACITY),
+            Integer.getInteger("semulator.executor.perUserLimit", DEFAULT_EXECUTIONS_PER_USER));
+
+        // Opt-in: execute and debug requests are handled on virtual threads via Servlet async
+        this.requestExecutor = Boolean.getBoolean("semulator.servlet.virtualThreads")
+            ? Executors.newVirtualThreadPerTaskExecutor() : null;
+
+        // Opt-in persistence; without a storage directory all state lives in memory only
+        String storageDir = System.getProperty("semulator.storage.dir");
+        this.syncStorageWrites = Boolean.parseBoolean(System.getProperty("semulator.storage.syncWrites", "true"));
+        if (storageDir != null) {
+            try {
+                this.storage = StorageEngine.open(Paths.get(storageDir),
+                    Long.getLong("semulator.storage.segmentBytes", DEFAULT_STORAGE_SEGMENT_BYTES),
+                    Long.getLong("semulator.storage.snapshotIntervalMillis", DEFAULT_SNAPSHOT_INTERVAL_MILLIS));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open storage in " + storageDir + ": " + e.getMessage(), e);
+            }
+            restore(storage.getRecoveredState());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    storage.close();
+                } catch (IOException e) {
+                    System.out.println("[ServerManager] Failed to close storage: " + e.getMessage());
+                }
+            }, "semulator-storage-shutdown"));
+        } else {
+            this.storage = null;
+        }
+    }
+
+    // Rebuilds users, programs and the function repository from recovered storage state
+    private void restore(StoreState state) {
+        for (Map.Entry<String, StoreState.UserState> entry : state.getUsers().entrySet()) {
+            StoreState.UserState stored = entry.getValue();
+            User user = new User(entry.getKey(), stored.getCredits(), stored.getCreditsUsed());
+            for (String programName : stored.getUploadedPrograms()) {
+                user.addUploadedProgram(programName);
+            }
+            for (String functionName : stored.getContributedFunctions()) {
+                user.addContributedFunction(functionName);
+            }
+            for (ExecutionRecord record : stored.getExecutionHistory()) {
+                user.addExecutionRecord(record);
+            }
+            users.put(entry.getKey(), user);
+        }
+
+        for (Map.Entry<String, StoreState.ProgramState> entry : state.getPrograms().entrySet()) {
+            StoreState.ProgramState stored = entry.getValue();
+            ParseResult parseResult = XMLParser.parseXMLString(stored.getXmlContent());
+            if (!parseResult.isSuccess()) {
+                System.out.println("[ServerManager] Skipping stored program " + entry.getKey() + ": "
+                    + parseResult.getErrorMessage());
+                continue;
+            }
+            SProgram program = parseResult.getProgram();
+            FunctionDependencyGraph.UploadDependencies dependencies = FunctionDependencyGraph.collect(program);
+            programs.put(entry.getKey(), new ProgramInfo(program, stored.getOwnerUsername(),
+                stored.getExecutionCount(), stored.getCreditsUsed()));
+            dependencyGraph.addProgram(entry.getKey(), dependencies.getProgramCalls());
+            for (SFunction function : program.getFunctions()) {
+                if (stored.getFunctionNames().contains(function.getName())) {
+                    functions.put(function.getName(),
+                        new FunctionInfo(function, entry.getKey(), stored.getOwnerUsername()));
+                    dependencyGraph.addFunction(function.getName(),
+                        dependencies.getFunctionCalls().get(function.getName()));
+                }
+            }
+        }
+
+        List<SFunction> restoredFunctions = new ArrayList<>();
+        for (FunctionInfo functionInfo : functions.values()) {
+            restoredFunctions.add(functionInfo.getFunction());
+        }
+        functionTable.set(FunctionTable.EMPTY.with(restoredFunctions));
+        System.out.println("[ServerManager] Restored " + users.size() + " users, " + programs.size()
+            + " programs and " + functions.size() + " functions");
+    }
+
+    // Logs a state change; unless semulator.storage.syncWrites is false, waits until it is durable and
+    // throws if it could not be written. Waiting happens outside any lock: concurrent callers share one fsync
+    // in the log's group commit.
+    private void persist(StorageRecord record) {
+        awaitDurable(append(record));
+    }
+
+    // Queues the record without waiting; the log keeps records in the order they were queued, so a caller can
+    // fix the order under a lock and wait for the disk after releasing it
+    private CompletableFuture<Void> append(StorageRecord record) {
+        return storage != null ? storage.append(record) : null;
+    }
+
+    private void awaitDurable(CompletableFuture<Void> written) {
+        if (written != null && syncStorageWrites) {
+            written.join();
+        }
     }
 
     public static synchronized ServerManager getInstance() {
@@ -35,17 +211,61 @@ public class ServerManager {
     }
 
     // User Management
-    public synchronized User loginUser(String username) {
-        if (users.containsKey(username)) {
-            return null; // User already exists
+    // An account restored from storage that nobody is logged in as is taken over with its credits and history.
+    // A new account becomes visible once its creation is durable; until then the name counts as logged in.
+    public User loginUser(String username) {
+        User user;
+        CompletableFuture<Void> created = null;
+        boolean isNew = false;
+        synchronized (this) {
+            if (activeUsers.contains(username)) {
+                return null; // Already logged in
+            }
+            user = users.get(username);
+            if (user == null) {
+                created = append(StorageRecord.userCreated(username, User.INITIAL_CREDITS));
+                user = new User(username);
+                isNew = true;
+            }
+            activeUsers.add(username);
+        }
+
+        if (isNew) {
+            try {
+                awaitDurable(created);
+            } catch (RuntimeException e) {
+                activeUsers.remove(username);
+                throw e;
+            }
+            users.put(username, user);
         }
-        User user = new User(username);
-        users.put(username, user);
         return user;
     }
 
-    public synchronized boolean logoutUser(String username) {
-        return users.remove(username) != null;
+    public boolean logoutUser(String username) {
+        User user;
+        CompletableFuture<Void> removed;
+        synchronized (this) {
+            user = users.remove(username);
+            if (user == null) {
+                return false;
+            }
+            activeUsers.remove(username);
+            removed = append(StorageRecord.userRemoved(username));
+        }
+
+        try {
+            awaitDurable(removed);
+        } catch (RuntimeException e) {
+            // The log still has the account, so memory keeps it too unless the name was taken again meanwhile
+            synchronized (this) {
+                if (!activeUsers.contains(username) && users.putIfAbsent(username, user) == null) {
+                    activeUsers.add(username);
+                }
+            }
+            throw e;
+        }
+        return true;
     }
 
     public User getUser(String username) {
@@ -57,7 +277,7 @@ public class ServerManager {
     }
 
     // Program Management
-    public synchronized UploadResult uploadProgram(String username, String xmlContent) {
+    public UploadResult uploadProgram(String username, String xmlContent) {
         try {
             System.out.println("[ServerManager] Starting upload for user: " + username);
             // Parse the XML
@@ -68,78 +288,111 @@ public class ServerManager {
             }
 
             SProgram program = parseResult.getProgram();
-            String programName = program.getName();
-            System.out.println("[ServerManager] Parsed program: " + programName + " with " + program.getInstructions().size() + " instructions and " + program.getFunctions().size() + " functions");
-
-            // Validation 1: Check if program name already exists
-            if (programs.containsKey(programName)) {
-                return new UploadResult(false, "Program with name '" + programName + "' already exists");
-            }
-
-            // Validation 2: Check if all referenced functions exist
-            Set<String> referencedFunctions = extractReferencedFunctions(program);
-            for (String funcName : referencedFunctions) {
-                if (!functions.containsKey(funcName) && !isProgramFunction(program, funcName)) {
-                    return new UploadResult(false, "Program references undefined function: " + funcName);
+            System.out.println("[ServerManager] Parsed program: " + program.getName() + " with " + program.getInstructions().size() + " instructions and " + program.getFunctions().size() + " functions");
+            FunctionDependencyGraph.UploadDependencies dependencies = FunctionDependencyGraph.collect(program);
+
+            // Parsing and scanning ran unlocked; only uploads claiming the same names wait for each other
+            List<ReentrantLock> locks = lockNames(program);
+            try {
+                return registerProgram(username, xmlContent, program, dependencies);
+            } finally {
+                for (ReentrantLock lock : locks) {
+                    lock.unlock();
                 }
             }
 
-            // Validation 3: Check if any function in this program already exists
-            for (SFunction function : program.getFunctions()) {
-                if (functions.containsKey(function.getName())) {
-                    return new UploadResult(false, "Function '" + function.getName() + "' already exists in system");
-                }
-            }
+        } catch (Exception e) {
+            return new UploadResult(false, "Error parsing program: " + e.getMessage());
+        }
+    }
 
-            // All validations passed - add program and functions
-            ProgramInfo programInfo = new ProgramInfo(program, username);
-            programs.put(programName, programInfo);
+    // Must hold the name locks of the program and all of its functions
+    private UploadResult registerProgram(String username, String xmlContent, SProgram program,
+            FunctionDependencyGraph.UploadDependencies dependencies) {
+        String programName = program.getName();
 
-            User user = users.get(username);
-            System.out.println("[ServerManager] Looking for user: " + username + ", found: " + (user != null));
-            if (user != null) {
-                user.addUploadedProgram(programName);
+        // Validation 1: Check if program name already exists
+        if (programs.containsKey(programName)) {
+            return new UploadResult(false, "Program with name '" + programName + "' already exists");
+        }
 
-                // Add functions from this program
-                System.out.println("[ServerManager] Adding functions from program. Function count: " + program.getFunctions().size());
-                for (SFunction function : program.getFunctions()) {
-                    FunctionInfo functionInfo = new FunctionInfo(function, programName, username);
-                    functions.put(function.getName(), functionInfo);
-                    user.addContributedFunction(function.getName());
-                    System.out.println("[ServerManager] Added function: " + function.getName() + " with " + function.getInstructions().size() + " instructions");
-                }
-            } else {
-                System.out.println("[ServerManager] ERROR: User not found! Cannot add functions.");
+        // Validation 2: Check if all referenced functions exist, including calls nested in arguments
+        String undefined = dependencyGraph.findUndefined(dependencies);
+        if (undefined != null) {
+            return new UploadResult(false, undefined);
+        }
+
+        // Validation 3: Check if any function in this program already exists
+        for (SFunction function : program.getFunctions()) {
+            if (functions.containsKey(function.getName())) {
+                return new UploadResult(false, "Function '" + function.getName() + "' already exists in system");
             }
+        }
 
-            System.out.println("[ServerManager] Upload complete. Total functions in repository: " + functions.size());
-            return new UploadResult(true, "Program uploaded successfully");
+        // Validation 4: Check that the new functions do not call each other in a cycle
+        String cycle = FunctionDependencyGraph.findCycle(dependencies);
+        if (cycle != null) {
+            return new UploadResult(false, "Cyclic function reference: " + cycle);
+        }
 
-        } catch (Exception e) {
-            return new UploadResult(false, "Error parsing program: " + e.getMessage());
+        // All validations passed - log the upload, then add program and functions
+        User user = users.get(username);
+        List<String> registeredFunctions = new ArrayList<>();
+        if (user != null) {
+            for (SFunction function : program.getFunctions()) {
+                registeredFunctions.add(function.getName());
+            }
         }
-    }
+        persist(StorageRecord.programUploaded(username, programName, xmlContent, registeredFunctions));
 
-    private Set<String> extractReferencedFunctions(SProgram program) {
-        Set<String> functions = new HashSet<>();
-        for (SInstruction inst : program.getInstructions()) {
-            if (inst.getName() == InstructionName.QUOTE) {
-                String funcName = inst.getArgument("functionName");
-                if (funcName != null) {
-                    functions.add(funcName);
+        ProgramInfo programInfo = new ProgramInfo(program, username);
+        programs.put(programName, programInfo);
+        dependencyGraph.addProgram(programName, dependencies.getProgramCalls());
+
+        System.out.println("[ServerManager] Looking for user: " + username + ", found: " + (user != null));
+        if (user != null) {
+            user.addUploadedProgram(programName);
+
+            // Add functions from this program
+            System.out.println("[ServerManager] Adding functions from program. Function count: " + program.getFunctions().size());
+            for (SFunction function : program.getFunctions()) {
+                FunctionInfo functionInfo = new FunctionInfo(function, programName, username);
+                functions.put(function.getName(), functionInfo);
+                dependencyGraph.addFunction(function.getName(), dependencies.getFunctionCalls().get(function.getName()));
+                user.addContributedFunction(function.getName());
+                System.out.println("[ServerManager] Added function: " + function.getName() + " with " + function.getInstructions().size() + " instructions");
+            }
+
+            if (!program.getFunctions().isEmpty()) {
+                // Published after the functions map so a program resolving against the table can list them too
+                FunctionTable table = functionTable.updateAndGet(current -> current.with(program.getFunctions()));
+                expansionCache.invalidateBefore(table.getVersion());
+                if (quoteMemo != null) {
+                    quoteMemo.clear();
                 }
             }
+        } else {
+            System.out.println("[ServerManager] ERROR: User not found! Cannot add functions.");
         }
-        return functions;
+
+        System.out.println("[ServerManager] Upload complete. Total functions in repository: " + functions.size());
+        return new UploadResult(true, "Program uploaded successfully");
     }
 
-    private boolean isProgramFunction(SProgram program, String functionName) {
-        for (SFunction func : program.getFunctions()) {
-            if (func.getName().equals(functionName)) {
-                return true;
-            }
+    // Locks the stripes of the program name and every function name, in stripe order so no two uploads deadlock
+    private List<ReentrantLock> lockNames(SProgram program) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        stripes.add(Math.floorMod(("program:" + program.getName()).hashCode(), nameLocks.length));
+        for (SFunction function : program.getFunctions()) {
+            stripes.add(Math.floorMod(("function:" + function.getName()).hashCode(), nameLocks.length));
+        }
+        List<ReentrantLock> locked = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            ReentrantLock lock = nameLocks[stripe];
+            lock.lock();
+            locked.add(lock);
         }
-        return false;
+        return locked;
     }
 
     public ProgramInfo getProgram(String programName) {
@@ -158,37 +411,131 @@ public class ServerManager {
         return functions.get(functionName);
     }
 
+    // Bumped whenever the function repository changes; part of every expansion cache key
+    public long getFunctionRepositoryVersion() {
+        return functionTable.get().getVersion();
+    }
+
+    // The stored program resolving repository functions through the current table; the stored program is not touched
+    public SProgram getScopedProgram(ProgramInfo programInfo) {
+        return programInfo.getProgram().withFunctionScope(functionTable.get());
+    }
+
+    // Expansion Cache
+    public SProgram getExpandedProgram(SProgram program, int degree) {
+        return getExpandedProgram(program, degree, ExecutionTracer.NONE);
+    }
+
+    public SProgram getExpandedProgram(SProgram program, int degree, ExecutionTracer tracer) {
+        // Keyed by the version of the table the program resolves against, not whatever is current by now
+        return expansionCache.getExpanded(program, degree, program.getFunctionScope().getVersion(), tracer);
+    }
+
+    public ExpansionCache getExpansionCache() {
+        return expansionCache;
+    }
+
+    // Cancels the token once the execution timeout passes; returns null when timeouts are disabled.
+    // Callers cancel the returned future when the execution finishes first.
+    public ScheduledFuture<?> scheduleExecutionTimeout(CancellationToken cancellation) {
+        if (executionTimeoutMillis <= 0) {
+            return null;
+        }
+        return executionWatchdog.schedule(cancellation::cancel, executionTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Null unless semulator.servlet.virtualThreads is set; requests then stay on container threads
+    // 0 when synchronous execute requests wait for their job however long it takes
+    public long getExecuteWaitMillis() {
+        return executeWaitMillis;
+    }
+
+    public ExecutorService getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    // Null unless semulator.storage.dir is set
+    public StorageEngine getStorage() {
+        return storage;
+    }
+
+    public FunctionDependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    public ExecutionScheduler getExecutionScheduler() {
+        return executionScheduler;
+    }
+
+    // Null unless semulator.quoteMemo.maxEntries is set
+    public QuoteMemo getQuoteMemo() {
+        return quoteMemo;
+    }
+
     // Credit Management
+    // Every change reaches memory only if it also reaches the log: a failed write throws and leaves the
+    // balance as it was. Additions and refunds cannot fail in memory, so they are logged first.
     public boolean addCredits(String username, int amount) {
         User user = users.get(username);
         if (user == null) {
             return false;
         }
+        persist(StorageRecord.creditsAdded(username, amount));
         user.addCredits(amount);
         return true;
     }
 
+    // A deduction has to pass the balance check before it is logged, so it is undone if the write fails
     public boolean deductCredits(String username, int amount) {
         User user = users.get(username);
         if (user == null) {
             return false;
         }
-        return user.deductCredits(amount);
+        if (!user.deductCredits(amount)) {
+            return false;
+        }
+        try {
+            persist(StorageRecord.creditsDeducted(username, amount));
+        } catch (RuntimeException e) {
+            user.refundCredits(amount);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean refundCredits(String username, int amount) {
+        User user = users.get(username);
+        if (user == null) {
+            return false;
+        }
+        persist(StorageRecord.creditsRefunded(username, amount));
+        user.refundCredits(amount);
+        return true;
     }
 
     // Debug Session Management
     public String createDebugSession(ExecutionDebugger debugger, String username) {
         String sessionId = username + "_" + executionIdCounter.incrementAndGet();
-        activeDebugSessions.put(sessionId, debugger);
+        debugSessions.create(sessionId, username, debugger);
         return sessionId;
     }
 
-    public ExecutionDebugger getDebugSession(String sessionId) {
-        return activeDebugSessions.get(sessionId);
+    // Null when the session does not exist or was evicted; otherwise the caller owns it until
+    // releaseDebugSession, which must follow in a finally block
+    public ExecutionDebugger acquireDebugSession(String sessionId) {
+        return debugSessions.acquire(sessionId);
+    }
+
+    public void releaseDebugSession(String sessionId) {
+        debugSessions.release(sessionId);
     }
 
     public void removeDebugSession(String sessionId) {
-        activeDebugSessions.remove(sessionId);
+        debugSessions.remove(sessionId);
+    }
+
+    public DebugSessionManager getDebugSessionManager() {
+        return debugSessions;
     }
 
     // Execution History
@@ -196,6 +543,7 @@ public class ServerManager {
         User user = users.get(username);
         if (user != null) {
             user.addExecutionRecord(record);
+            persist(StorageRecord.executionRecorded(username, record));
 
             // Update program statistics
             ProgramInfo programInfo = programs.get(record.getProgramName());
@@ -1,6 +1,8 @@
 package hadeel.server.servlet;
 
+import hadeel.server.model.AddCreditsRequest;
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
 import javax.servlet.http.*;
 import java.io.IOException;
@@ -17,30 +19,25 @@ public class AddCreditsServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try {
-            String jsonBody = req.getReader().lines().reduce("", (acc, line) -> acc + line);
-            Map<String, Object> request = JsonUtil.fromJson(jsonBody, Map.class);
+        AsyncRequestUtil.dispatch(req, resp, null, AddCreditsRequest.class, this::handlePost);
+    }
 
-            String username = (String) request.get("username");
-            Object amountObj = request.get("amount");
+    private void handlePost(AddCreditsRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
+            String username = request.getUsername();
+            Integer amount = request.getAmount();
 
             if (username == null || username.trim().isEmpty()) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Username is required");
                 return;
             }
 
-            if (amountObj == null) {
+            if (amount == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Amount is required");
                 return;
             }
 
-            int amount;
-            if (amountObj instanceof Number) {
-                amount = ((Number) amountObj).intValue();
-            } else {
-                amount = Integer.parseInt(amountObj.toString());
-            }
-
             if (amount <= 0) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Amount must be positive");
                 return;
@@ -60,8 +57,6 @@ public class AddCreditsServlet extends HttpServlet {
 
             JsonUtil.sendSuccess(resp, response);
 
-        } catch (NumberFormatException e) {
-            JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid amount format");
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "Error adding credits: " + e.getMessage());
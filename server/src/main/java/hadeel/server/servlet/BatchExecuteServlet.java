@@ -0,0 +1,112 @@
+package hadeel.server.servlet;
+
+import com.google.gson.JsonIOException;
+import hadeel.server.model.BatchExecutionRequest;
+import hadeel.server.service.BatchExecution;
+import hadeel.server.service.ExecutionOutcome;
+import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
+import hadeel.server.util.JsonUtil;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+// Runs one program over many input vectors. Results are streamed as NDJSON, one line per run in completion
+// order, followed by a summary line once the whole batch has been billed.
+public class BatchExecuteServlet extends HttpServlet {
+    private ServerManager serverManager;
+
+    @Override
+    public void init() {
+        serverManager = ServerManager.getInstance();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        AsyncRequestUtil.dispatch(req, resp, serverManager.getRequestExecutor(), BatchExecutionRequest.class,
+            this::handlePost);
+    }
+
+    private void handlePost(BatchExecutionRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        BatchExecution batch = null;
+        try {
+            // Validation
+            if (!request.hasRequiredFields()) {
+                JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Missing required parameters");
+                return;
+            }
+
+            BatchExecution.Preparation preparation = BatchExecution.prepare(serverManager, request);
+            if (preparation.isRejected()) {
+                ExecutionOutcome outcome = preparation.getRejection();
+                JsonUtil.sendJsonResponse(resp, outcome.getStatusCode(), outcome.getBody());
+                return;
+            }
+
+            batch = preparation.getBatch();
+            ExecutionOutcome rejection = serverManager.getExecutionScheduler().submitBatch(batch);
+            if (rejection != null) {
+                batch.release();
+                JsonUtil.sendJsonResponse(resp, rejection.getStatusCode(), rejection.getBody());
+                return;
+            }
+
+        } catch (Exception e) {
+            // The batch never ran, so none of the credits it held were spent
+            if (batch != null) {
+                batch.release();
+            }
+            JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error executing program: " + e.getMessage());
+            return;
+        }
+
+        // The status is committed with the first line; later failures are reported in the summary line
+        Writer writer = JsonUtil.openNdjsonWriter(resp, HttpServletResponse.SC_OK);
+        boolean clientGone = false;
+
+        // Every run that started is billed, so the whole batch is waited for even if the client goes away
+        boolean interrupted = false;
+        int received = 0;
+        while (received < batch.size()) {
+            Map<String, Object> result;
+            try {
+                result = batch.takeResult();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                batch.cancel();
+                continue;
+            }
+            received++;
+
+            if (!clientGone) {
+                clientGone = !writeLine(writer, result);
+                if (clientGone) {
+                    // Runs not yet started are skipped
+                    batch.cancel();
+                }
+            }
+        }
+
+        Map<String, Object> summary = batch.settle();
+        if (!clientGone) {
+            writeLine(writer, summary);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Each line is flushed so the client sees results as they finish; false once the client has gone away
+    private boolean writeLine(Writer writer, Map<String, Object> line) {
+        try {
+            JsonUtil.writeJsonLine(writer, line);
+            writer.flush();
+            return true;
+        } catch (IOException | JsonIOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package hadeel.server.servlet;
+
+import hadeel.server.model.DebugNavigateRequest;
+import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
+import hadeel.server.util.JsonUtil;
+import hadeel.engine.execution.ExecutionDebugger;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.util.*;
+
+// Moves a debug session back through its history in one request; like step back, it costs no credits
+public class DebugNavigateServlet extends HttpServlet {
+    private ServerManager serverManager;
+
+    @Override
+    public void init() {
+        serverManager = ServerManager.getInstance();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        AsyncRequestUtil.dispatch(req, resp, serverManager.getRequestExecutor(), DebugNavigateRequest.class,
+            this::handlePost);
+    }
+
+    private void handlePost(DebugNavigateRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
+            String sessionId = request.getSessionId();
+            String action = request.getAction();
+
+            if (sessionId == null || action == null) {
+                JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "SessionId and action are required");
+                return;
+            }
+
+            ExecutionDebugger debugger = serverManager.acquireDebugSession(sessionId);
+            if (debugger == null) {
+                JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Debug session not found");
+                return;
+            }
+
+            try {
+                boolean found;
+                switch (action) {
+                    case "goto":
+                        Integer step = request.getStep();
+                        if (step == null || step < 0 || step > debugger.getStepCount()) {
+                            JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST,
+                                "Step must be between 0 and " + debugger.getStepCount());
+                            return;
+                        }
+                        debugger.goToStep(step);
+                        found = true;
+                        break;
+                    case "reverseContinue":
+                        found = debugger.reverseContinue();
+                        break;
+                    case "lastChange":
+                        if (request.getVariable() == null) {
+                            JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Variable is required");
+                            return;
+                        }
+                        found = debugger.reverseToLastChange(request.getVariable());
+                        break;
+                    default:
+                        JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Unknown action: " + action);
+                        return;
+                }
+
+                // Prepare response
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", true);
+                response.put("found", found);
+                response.put("step", debugger.getStepCount());
+                response.put("currentLine", debugger.getCurrentLine());
+                response.put("variables", debugger.getCurrentVariables());
+                response.put("cycles", debugger.getCurrentCycles());
+                response.put("finished", debugger.isFinished());
+                response.put("canStepBack", debugger.canStepBack());
+
+                JsonUtil.sendSuccess(resp, response);
+            } finally {
+                serverManager.releaseDebugSession(sessionId);
+            }
+
+        } catch (Exception e) {
+            JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error navigating debug session: " + e.getMessage());
+        }
+    }
+}
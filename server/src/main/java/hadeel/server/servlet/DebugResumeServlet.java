@@ -1,12 +1,17 @@
 package hadeel.server.servlet;
 
+import hadeel.server.model.DebugSessionRequest;
 import hadeel.server.model.User;
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
+import hadeel.engine.execution.CancellationToken;
 import hadeel.engine.execution.ExecutionDebugger;
+import hadeel.engine.model.ExecutionStatus;
 import javax.servlet.http.*;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
 
 public class DebugResumeServlet extends HttpServlet {
     private ServerManager serverManager;
@@ -18,78 +23,84 @@ public class DebugResumeServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try {
-            String jsonBody = req.getReader().lines().reduce("", (acc, line) -> acc + line);
-            Map<String, Object> request = JsonUtil.fromJson(jsonBody, Map.class);
+        AsyncRequestUtil.dispatch(req, resp, serverManager.getRequestExecutor(), DebugSessionRequest.class,
+            this::handlePost);
+    }
 
-            String sessionId = (String) request.get("sessionId");
-            String username = (String) request.get("username");
+    private void handlePost(DebugSessionRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
+            String sessionId = request.getSessionId();
+            String username = request.getUsername();
 
             if (sessionId == null || username == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "SessionId and username are required");
                 return;
             }
 
-            ExecutionDebugger debugger = serverManager.getDebugSession(sessionId);
+            ExecutionDebugger debugger = serverManager.acquireDebugSession(sessionId);
             if (debugger == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Debug session not found");
                 return;
             }
 
-            User user = serverManager.getUser(username);
-            if (user == null) {
-                JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "User not found");
-                return;
-            }
+            try {
+                User user = serverManager.getUser(username);
+                if (user == null) {
+                    JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "User not found");
+                    return;
+                }
 
-            int cyclesBefore = debugger.getCurrentCycles();
-            int stepCount = 0;
+                int cyclesBefore = debugger.getCurrentCycles();
+                int stepsBefore = debugger.getStepCount();
+
+                // Run at full speed to the next breakpoint or the end; the user's credits are the cycle budget
+                CancellationToken cancellation = new CancellationToken();
+                ScheduledFuture<?> timeout = serverManager.scheduleExecutionTimeout(cancellation);
+                ExecutionStatus stopStatus;
+                try {
+                    stopStatus = debugger.resume(user.getCredits(), cancellation);
+                } finally {
+                    if (timeout != null) {
+                        timeout.cancel(false);
+                    }
+                }
 
-            // Resume execution until breakpoint or finish
-            while (!debugger.isFinished() && stepCount < 10000) { // Safety limit
-                debugger.step();
-                stepCount++;
+                int totalCyclesUsed = debugger.getCurrentCycles() - cyclesBefore;
 
-                // Check if at breakpoint
-                if (debugger.isAtBreakpoint()) {
-                    break;
+                // Deduct credits for what ran, even when the run was cut short
+                if (totalCyclesUsed > 0) {
+                    if (!serverManager.deductCredits(username, totalCyclesUsed)) {
+                        JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Failed to deduct credits");
+                        return;
+                    }
                 }
 
-                // Check if out of credits
-                int currentCycles = debugger.getCurrentCycles();
-                int cyclesUsed = currentCycles - cyclesBefore;
-                if (cyclesUsed > user.getCredits()) {
-                    // Out of credits
+                if (stopStatus == ExecutionStatus.BUDGET_EXCEEDED) {
                     JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Ran out of credits during resume");
                     return;
                 }
-            }
-
-            int cyclesAfter = debugger.getCurrentCycles();
-            int totalCyclesUsed = cyclesAfter - cyclesBefore;
 
-            // Deduct credits
-            if (totalCyclesUsed > 0) {
-                if (!serverManager.deductCredits(username, totalCyclesUsed)) {
-                    JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Failed to deduct credits");
-                    return;
-                }
+                // Prepare response
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", true);
+                response.put("currentLine", debugger.getCurrentLine());
+                response.put("variables", debugger.getCurrentVariables());
+                response.put("cycles", debugger.getCurrentCycles());
+                response.put("finished", debugger.isFinished());
+                response.put("stoppedAtBreakpoint", "BREAKPOINT".equals(debugger.getStopReason()));
+                response.put("stopReason", debugger.getStopReason());
+                response.put("stopDetail", debugger.getStopDetail());
+                response.put("creditsUsed", totalCyclesUsed);
+                response.put("remainingCredits", user.getCredits());
+                response.put("stepCount", debugger.getStepCount() - stepsBefore);
+                response.put("timedOut", stopStatus == ExecutionStatus.CANCELLED);
+
+                JsonUtil.sendSuccess(resp, response);
+            } finally {
+                serverManager.releaseDebugSession(sessionId);
             }
 
-            // Prepare response
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("currentLine", debugger.getCurrentLine());
-            response.put("variables", debugger.getCurrentVariables());
-            response.put("cycles", debugger.getCurrentCycles());
-            response.put("finished", debugger.isFinished());
-            response.put("stoppedAtBreakpoint", debugger.isAtBreakpoint());
-            response.put("creditsUsed", totalCyclesUsed);
-            response.put("remainingCredits", user.getCredits());
-            response.put("stepCount", stepCount);
-
-            JsonUtil.sendSuccess(resp, response);
-
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "Error resuming debug session: " + e.getMessage());
@@ -2,10 +2,10 @@ package hadeel.server.servlet;
 
 import hadeel.server.model.*;
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
 import hadeel.engine.model.*;
 import hadeel.engine.execution.ExecutionDebugger;
-import hadeel.engine.execution.ExpansionEngine;
 import hadeel.engine.SEmulatorEngine;
 import javax.servlet.http.*;
 import java.io.IOException;
@@ -21,43 +21,24 @@ public class DebugStartServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try {
-            String jsonBody = req.getReader().lines().reduce("", (acc, line) -> acc + line);
-            Map<String, Object> request = JsonUtil.fromJson(jsonBody, Map.class);
-
-            String username = (String) request.get("username");
-            String programName = (String) request.get("programName");
-            String archStr = (String) request.get("architecture");
-            Object degreeObj = request.get("degree");
-
-            // Convert inputs from List<Double> to List<Integer> (Gson parses numbers as Double)
-            List<Integer> inputs = new ArrayList<>();
-            Object inputsObj = request.get("inputs");
-            if (inputsObj instanceof List) {
-                for (Object obj : (List<?>) inputsObj) {
-                    if (obj instanceof Number) {
-                        inputs.add(((Number) obj).intValue());
-                    }
-                }
-            }
-
-            // Convert breakpoints from List<Double> to List<Integer>
-            List<Integer> breakpoints = new ArrayList<>();
-            Object breakpointsObj = request.get("breakpoints");
-            if (breakpointsObj instanceof List) {
-                for (Object obj : (List<?>) breakpointsObj) {
-                    if (obj instanceof Number) {
-                        breakpoints.add(((Number) obj).intValue());
-                    }
-                }
-            }
+        AsyncRequestUtil.dispatch(req, resp, serverManager.getRequestExecutor(), DebugStartRequest.class,
+            this::handlePost);
+    }
 
+    private void handlePost(DebugStartRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
             // Validation
-            if (username == null || programName == null || archStr == null || degreeObj == null) {
+            if (!request.hasRequiredFields()) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Missing required parameters");
                 return;
             }
 
+            String username = request.getUsername();
+            String programName = request.getProgramName();
+            List<Integer> inputs = request.getInputs();
+            List<Integer> breakpoints = request.getBreakpoints();
+
             User user = serverManager.getUser(username);
             if (user == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "User not found");
@@ -70,18 +51,14 @@ public class DebugStartServlet extends HttpServlet {
                 return;
             }
 
-            Architecture architecture = Architecture.fromString(archStr);
-            int degree = ((Number) degreeObj).intValue();
+            Architecture architecture = Architecture.fromString(request.getArchitecture());
+            int degree = request.getDegree();
 
-            // Merge all available functions from repository into program
-            SProgram program = programInfo.getProgram();
-            List<FunctionInfo> allFunctions = serverManager.getAllFunctions();
-            for (FunctionInfo funcInfo : allFunctions) {
-                program.addFunction(funcInfo.getFunction());
-            }
+            // Repository functions resolve through the shared function table
+            SProgram program = serverManager.getScopedProgram(programInfo);
 
-            // Expand program
-            SProgram expandedProgram = ExpansionEngine.expand(program, degree);
+            // Expand program (shared, read-only when served from the cache)
+            SProgram expandedProgram = serverManager.getExpandedProgram(program, degree);
 
             // Validate architecture support
             for (SInstruction inst : expandedProgram.getInstructions()) {
@@ -92,6 +69,25 @@ public class DebugStartServlet extends HttpServlet {
                 }
             }
 
+            // Create debugger
+            SEmulatorEngine engine = new SEmulatorEngine();
+            ExecutionDebugger debugger = ExecutionDebugger.forExpandedProgram(
+                engine,
+                expandedProgram,
+                inputs,
+                degree
+            );
+
+            // Set breakpoints, watchpoints and conditions; they are checked before any credits are taken
+            try {
+                debugger.setBreakpoints(new HashSet<>(breakpoints), request.getBreakpointConditions());
+                debugger.setWatchpoints(request.getWatchpoints());
+                debugger.setBreakConditions(request.getBreakConditions());
+            } catch (IllegalArgumentException e) {
+                JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+                return;
+            }
+
             // Check and deduct architecture cost
             if (user.getCredits() < architecture.getCost()) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Insufficient credits");
@@ -103,20 +99,6 @@ public class DebugStartServlet extends HttpServlet {
                 return;
             }
 
-            // Create debugger
-            SEmulatorEngine engine = new SEmulatorEngine();
-            ExecutionDebugger debugger = new ExecutionDebugger(
-                engine,
-                expandedProgram,
-                inputs != null ? inputs : new ArrayList<>(),
-                degree
-            );
-
-            // Set breakpoints
-            if (breakpoints != null && !breakpoints.isEmpty()) {
-                debugger.setBreakpoints(new HashSet<>(breakpoints));
-            }
-
             // Create session
             String sessionId = serverManager.createDebugSession(debugger, username);
 
@@ -1,6 +1,8 @@
 package hadeel.server.servlet;
 
+import hadeel.server.model.DebugSessionRequest;
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
 import hadeel.engine.execution.ExecutionDebugger;
 import javax.servlet.http.*;
@@ -17,41 +19,48 @@ public class DebugStepBackServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try {
-            String jsonBody = req.getReader().lines().reduce("", (acc, line) -> acc + line);
-            Map<String, Object> request = JsonUtil.fromJson(jsonBody, Map.class);
+        AsyncRequestUtil.dispatch(req, resp, serverManager.getRequestExecutor(), DebugSessionRequest.class,
+            this::handlePost);
+    }
 
-            String sessionId = (String) request.get("sessionId");
+    private void handlePost(DebugSessionRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
+            String sessionId = request.getSessionId();
 
             if (sessionId == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "SessionId is required");
                 return;
             }
 
-            ExecutionDebugger debugger = serverManager.getDebugSession(sessionId);
+            ExecutionDebugger debugger = serverManager.acquireDebugSession(sessionId);
             if (debugger == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Debug session not found");
                 return;
             }
 
-            if (!debugger.canStepBack()) {
-                JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Cannot step back further");
-                return;
-            }
+            try {
+                if (!debugger.canStepBack()) {
+                    JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Cannot step back further");
+                    return;
+                }
 
-            // Perform step back (no credit cost)
-            debugger.stepBack();
+                // Perform step back (no credit cost)
+                debugger.stepBack();
 
-            // Prepare response
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("currentLine", debugger.getCurrentLine());
-            response.put("variables", debugger.getCurrentVariables());
-            response.put("cycles", debugger.getCurrentCycles());
-            response.put("finished", debugger.isFinished());
-            response.put("canStepBack", debugger.canStepBack());
+                // Prepare response
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", true);
+                response.put("currentLine", debugger.getCurrentLine());
+                response.put("variables", debugger.getCurrentVariables());
+                response.put("cycles", debugger.getCurrentCycles());
+                response.put("finished", debugger.isFinished());
+                response.put("canStepBack", debugger.canStepBack());
 
-            JsonUtil.sendSuccess(resp, response);
+                JsonUtil.sendSuccess(resp, response);
+            } finally {
+                serverManager.releaseDebugSession(sessionId);
+            }
 
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
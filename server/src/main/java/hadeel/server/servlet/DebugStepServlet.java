@@ -1,12 +1,16 @@
 package hadeel.server.servlet;
 
+import hadeel.server.model.DebugSessionRequest;
 import hadeel.server.model.User;
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
+import hadeel.engine.execution.CancellationToken;
 import hadeel.engine.execution.ExecutionDebugger;
 import javax.servlet.http.*;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
 
 public class DebugStepServlet extends HttpServlet {
     private ServerManager serverManager;
@@ -18,64 +22,79 @@ public class DebugStepServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try {
-            String jsonBody = req.getReader().lines().reduce("", (acc, line) -> acc + line);
-            Map<String, Object> request = JsonUtil.fromJson(jsonBody, Map.class);
+        AsyncRequestUtil.dispatch(req, resp, serverManager.getRequestExecutor(), DebugSessionRequest.class,
+            this::handlePost);
+    }
 
-            String sessionId = (String) request.get("sessionId");
-            String username = (String) request.get("username");
+    private void handlePost(DebugSessionRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
+            String sessionId = request.getSessionId();
+            String username = request.getUsername();
 
             if (sessionId == null || username == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "SessionId and username are required");
                 return;
             }
 
-            ExecutionDebugger debugger = serverManager.getDebugSession(sessionId);
+            ExecutionDebugger debugger = serverManager.acquireDebugSession(sessionId);
             if (debugger == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Debug session not found");
                 return;
             }
 
-            User user = serverManager.getUser(username);
-            if (user == null) {
-                JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "User not found");
-                return;
-            }
-
-            // Check if user has credits for one more cycle (worst case)
-            if (user.getCredits() < 10) { // Safety buffer
-                JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Insufficient credits");
-                return;
-            }
+            try {
+                User user = serverManager.getUser(username);
+                if (user == null) {
+                    JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "User not found");
+                    return;
+                }
 
-            int cyclesBefore = debugger.getCurrentCycles();
+                // Check if user has credits for one more cycle (worst case)
+                if (user.getCredits() < 10) { // Safety buffer
+                    JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Insufficient credits");
+                    return;
+                }
 
-            // Perform step
-            debugger.step();
+                int cyclesBefore = debugger.getCurrentCycles();
+
+                // Perform step; a QUOTE runs its function inside the step, so it gets the execution timeout
+                CancellationToken cancellation = new CancellationToken();
+                ScheduledFuture<?> timeout = serverManager.scheduleExecutionTimeout(cancellation);
+                try {
+                    debugger.step(cancellation);
+                } finally {
+                    if (timeout != null) {
+                        timeout.cancel(false);
+                    }
+                }
 
-            int cyclesAfter = debugger.getCurrentCycles();
-            int cyclesUsed = cyclesAfter - cyclesBefore;
+                int cyclesAfter = debugger.getCurrentCycles();
+                int cyclesUsed = cyclesAfter - cyclesBefore;
 
-            // Deduct credits for this step
-            if (cyclesUsed > 0) {
-                if (!serverManager.deductCredits(username, cyclesUsed)) {
-                    JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Ran out of credits");
-                    return;
+                // Deduct credits for this step
+                if (cyclesUsed > 0) {
+                    if (!serverManager.deductCredits(username, cyclesUsed)) {
+                        JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Ran out of credits");
+                        return;
+                    }
                 }
-            }
 
-            // Prepare response
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("currentLine", debugger.getCurrentLine());
-            response.put("variables", debugger.getCurrentVariables());
-            response.put("cycles", debugger.getCurrentCycles());
-            response.put("finished", debugger.isFinished());
-            response.put("creditsUsed", cyclesUsed);
-            response.put("remainingCredits", user.getCredits());
-            response.put("canStepBack", debugger.canStepBack());
-
-            JsonUtil.sendSuccess(resp, response);
+                // Prepare response
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", true);
+                response.put("currentLine", debugger.getCurrentLine());
+                response.put("variables", debugger.getCurrentVariables());
+                response.put("cycles", debugger.getCurrentCycles());
+                response.put("finished", debugger.isFinished());
+                response.put("creditsUsed", cyclesUsed);
+                response.put("remainingCredits", user.getCredits());
+                response.put("canStepBack", debugger.canStepBack());
+
+                JsonUtil.sendSuccess(resp, response);
+            } finally {
+                serverManager.releaseDebugSession(sessionId);
+            }
 
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
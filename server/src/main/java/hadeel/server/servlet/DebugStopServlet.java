@@ -1,6 +1,8 @@
 package hadeel.server.servlet;
 
+import hadeel.server.model.DebugSessionRequest;
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
 import javax.servlet.http.*;
 import java.io.IOException;
@@ -16,11 +18,14 @@ public class DebugStopServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try {
-            String jsonBody = req.getReader().lines().reduce("", (acc, line) -> acc + line);
-            Map<String, Object> request = JsonUtil.fromJson(jsonBody, Map.class);
+        AsyncRequestUtil.dispatch(req, resp, serverManager.getRequestExecutor(), DebugSessionRequest.class,
+            this::handlePost);
+    }
 
-            String sessionId = (String) request.get("sessionId");
+    private void handlePost(DebugSessionRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
+            String sessionId = request.getSessionId();
 
             if (sessionId == null) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "SessionId is required");
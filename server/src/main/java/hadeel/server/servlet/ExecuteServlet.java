@@ -1,14 +1,17 @@
 package hadeel.server.servlet;
 
-import hadeel.server.model.*;
+import hadeel.server.model.ExecutionRequest;
+import hadeel.server.service.ExecutionJob;
+import hadeel.server.service.ExecutionOutcome;
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
-import hadeel.engine.model.*;
-import hadeel.engine.execution.ExecutionEngine;
-import hadeel.engine.execution.ExpansionEngine;
 import javax.servlet.http.*;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 public class ExecuteServlet extends HttpServlet {
     private ServerManager serverManager;
@@ -18,129 +21,63 @@ public class ExecuteServlet extends HttpServlet {
         serverManager = ServerManager.getInstance();
     }
 
+    // Synchronous API: the run is queued on the execution workers and the response is sent once it finishes.
+    // The request is held in async mode meanwhile, so no container thread waits for the run.
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try {
-            String jsonBody = req.getReader().lines().reduce("", (acc, line) -> acc + line);
-            Map<String, Object> request = JsonUtil.fromJson(jsonBody, Map.class);
-
-            String username = (String) request.get("username");
-            String programName = (String) request.get("programName");
-            String archStr = (String) request.get("architecture");
-            Object degreeObj = request.get("degree");
-
-            // Convert inputs from List<Double> to List<Integer> (Gson parses numbers as Double)
-            List<Integer> inputs = new ArrayList<>();
-            Object inputsObj = request.get("inputs");
-            if (inputsObj instanceof List) {
-                for (Object obj : (List<?>) inputsObj) {
-                    if (obj instanceof Number) {
-                        inputs.add(((Number) obj).intValue());
-                    }
-                }
-            }
+        AsyncRequestUtil.dispatchDeferred(req, resp, ExecutionRequest.class, this::handlePost);
+    }
 
+    private CompletionStage<?> handlePost(ExecutionRequest request, HttpServletRequest req,
+                                          HttpServletResponse resp) throws IOException {
+        try {
             // Validation
-            if (username == null || programName == null || archStr == null || degreeObj == null) {
+            if (!request.hasRequiredFields()) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Missing required parameters");
-                return;
-            }
-
-            User user = serverManager.getUser(username);
-            if (user == null) {
-                JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "User not found");
-                return;
-            }
-
-            ProgramInfo programInfo = serverManager.getProgram(programName);
-            if (programInfo == null) {
-                JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Program not found");
-                return;
-            }
-
-            Architecture architecture = Architecture.fromString(archStr);
-            int degree = ((Number) degreeObj).intValue();
-
-            // Merge all available functions from repository into program
-            SProgram program = programInfo.getProgram();
-            List<FunctionInfo> allFunctions = serverManager.getAllFunctions();
-            for (FunctionInfo funcInfo : allFunctions) {
-                program.addFunction(funcInfo.getFunction());
-            }
-
-            // Expand program to requested degree
-            SProgram expandedProgram = ExpansionEngine.expand(program, degree);
-
-            // Validate architecture support
-            for (SInstruction inst : expandedProgram.getInstructions()) {
-                if (!architecture.supports(inst.getName())) {
-                    JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST,
-                        "Program contains instructions not supported by architecture: " + inst.getName());
-                    return;
-                }
+                return null;
             }
 
-            // Check credits (architecture cost + estimated cycles)
-            int estimatedCost = architecture.getCost() + expandedProgram.getTotalCycles();
-            if (user.getCredits() < estimatedCost) {
-                Map<String, Object> errorResp = new HashMap<>();
-                errorResp.put("error", "Insufficient credits");
-                errorResp.put("required", estimatedCost);
-                errorResp.put("available", user.getCredits());
-                JsonUtil.sendJsonResponse(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, errorResp);
-                return;
+            ExecutionJob job = serverManager.getExecutionScheduler().submit(request);
+            CompletableFuture<ExecutionOutcome> completion = job.getCompletion();
+            long waitMillis = serverManager.getExecuteWaitMillis();
+            if (waitMillis > 0) {
+                completion = completion.copy().orTimeout(waitMillis, TimeUnit.MILLISECONDS);
             }
-
-            // Deduct architecture cost upfront
-            if (!serverManager.deductCredits(username, architecture.getCost())) {
-                JsonUtil.sendError(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, "Failed to deduct credits");
-                return;
-            }
-
-            // Execute program
-            ExecutionEngine engine = new ExecutionEngine();
-            ExecutionResult result = engine.execute(expandedProgram, inputs != null ? inputs : new ArrayList<>(), degree);
-
-            // Deduct cycle credits
-            int cycleCredits = result.getCyclesConsumed();
-            if (!serverManager.deductCredits(username, cycleCredits)) {
-                // Ran out of credits during execution
-                Map<String, Object> errorResp = new HashMap<>();
-                errorResp.put("error", "Ran out of credits during execution");
-                errorResp.put("partialResult", true);
-                JsonUtil.sendJsonResponse(resp, HttpServletResponse.SC_PAYMENT_REQUIRED, errorResp);
-                return;
-            }
-
-            // Record execution
-            int totalCredits = architecture.getCost() + cycleCredits;
-            ExecutionRecord record = new ExecutionRecord(
-                user.getExecutionCount() + 1,
-                programName,
-                false,
-                architecture,
-                degree,
-                inputs != null ? inputs : new ArrayList<>(),
-                result.getOutputValue(),
-                result.getCyclesConsumed(),
-                totalCredits
-            );
-            serverManager.addExecutionRecord(username, record);
-
-            // Prepare response
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("output", result.getOutputValue());
-            response.put("cycles", result.getCyclesConsumed());
-            response.put("creditsUsed", totalCredits);
-            response.put("remainingCredits", user.getCredits());
-            response.put("variables", result.getFinalVariables());
-
-            JsonUtil.sendSuccess(resp, response);
+            return completion.handle((outcome, failure) -> {
+                sendOutcome(resp, outcome != null ? outcome : outcomeAfterWait(job));
+                return null;
+            });
 
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "Error executing program: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // The wait ran out: a job still queued is cancelled, one already running keeps going and can be polled
+    private ExecutionOutcome outcomeAfterWait(ExecutionJob job) {
+        ExecutionOutcome cancelled = ExecutionOutcome.error(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+            "Timed out waiting for an execution worker, try again later");
+        if (job.cancelIfQueued(cancelled)) {
+            return cancelled;
+        }
+        ExecutionOutcome outcome = job.getOutcome();
+        if (outcome != null) {
+            return outcome;
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", "Execution is still running");
+        response.put("jobId", job.getId());
+        response.put("state", job.getState().name());
+        return new ExecutionOutcome(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response);
+    }
+
+    private void sendOutcome(HttpServletResponse resp, ExecutionOutcome outcome) {
+        try {
+            JsonUtil.sendJsonResponse(resp, outcome.getStatusCode(), outcome.getBody());
+        } catch (IOException | IllegalStateException ignored) {
+            // The client has gone away or the response was already committed
         }
     }
 }
@@ -25,9 +25,9 @@ public class ExecutionHistoryServlet extends HttpServlet {
             }
 
             List<ExecutionRecord> history = serverManager.getUserExecutionHistory(username.trim());
-            List<Map<String, Object>> historyList = new ArrayList<>();
 
-            for (ExecutionRecord record : history) {
+            // History can be long: records are converted while streaming, and "?format=ndjson" sends one per line
+            JsonUtil.sendJsonList(req, resp, history, record -> {
                 Map<String, Object> recordData = new HashMap<>();
                 recordData.put("runNumber", record.getRunNumber());
                 recordData.put("programName", record.getProgramName());
@@ -39,10 +39,8 @@ public class ExecutionHistoryServlet extends HttpServlet {
                 recordData.put("cycles", record.getCyclesConsumed());
                 recordData.put("creditsUsed", record.getCreditsUsed());
                 recordData.put("timestamp", record.getTimestamp());
-                historyList.add(recordData);
-            }
-
-            JsonUtil.sendSuccess(resp, historyList);
+                return recordData;
+            });
 
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
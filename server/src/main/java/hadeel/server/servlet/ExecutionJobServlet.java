@@ -0,0 +1,95 @@
+package hadeel.server.servlet;
+
+import hadeel.server.model.ExecutionRequest;
+import hadeel.server.service.ExecutionJob;
+import hadeel.server.service.ExecutionOutcome;
+import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
+import hadeel.server.util.JsonUtil;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.util.*;
+
+// Asynchronous API: POST /api/execute/jobs submits a run, GET /api/execute/jobs/{jobId}?username=... polls it
+public class ExecutionJobServlet extends HttpServlet {
+    private ServerManager serverManager;
+
+    @Override
+    public void init() {
+        serverManager = ServerManager.getInstance();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        AsyncRequestUtil.dispatch(req, resp, null, ExecutionRequest.class, this::handlePost);
+    }
+
+    private void handlePost(ExecutionRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
+            if (!request.hasRequiredFields()) {
+                JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Missing required parameters");
+                return;
+            }
+
+            ExecutionJob job = serverManager.getExecutionScheduler().submit(request);
+            if (job.getState() == ExecutionJob.State.REJECTED) {
+                ExecutionOutcome outcome = job.getOutcome();
+                JsonUtil.sendJsonResponse(resp, outcome.getStatusCode(), outcome.getBody());
+                return;
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("jobId", job.getId());
+            response.put("state", job.getState().name());
+            JsonUtil.sendJsonResponse(resp, HttpServletResponse.SC_ACCEPTED, response);
+
+        } catch (Exception e) {
+            JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error submitting execution: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        try {
+            String pathInfo = req.getPathInfo();
+            if (pathInfo == null || pathInfo.length() <= 1) {
+                JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Job id required");
+                return;
+            }
+
+            String username = req.getParameter("username");
+            if (username == null || username.trim().isEmpty()) {
+                JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Username is required");
+                return;
+            }
+
+            // Unknown, expired and other users' jobs all look the same to the caller
+            ExecutionJob job = serverManager.getExecutionScheduler().getJob(pathInfo.substring(1));
+            if (job == null || !job.getUsername().equals(username.trim())) {
+                JsonUtil.sendError(resp, HttpServletResponse.SC_NOT_FOUND, "Job not found");
+                return;
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("jobId", job.getId());
+            response.put("state", job.getState().name());
+            response.put("waitMillis", job.getWaitMillis());
+            response.put("runMillis", job.getRunMillis());
+
+            ExecutionOutcome outcome = job.getOutcome();
+            if (outcome != null) {
+                response.put("resultStatus", outcome.getStatusCode());
+                response.put("result", outcome.getBody());
+            }
+
+            JsonUtil.sendSuccess(resp, response);
+
+        } catch (Exception e) {
+            JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error fetching job: " + e.getMessage());
+        }
+    }
+}
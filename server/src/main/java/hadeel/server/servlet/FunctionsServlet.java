@@ -19,19 +19,16 @@ public class FunctionsServlet extends HttpServlet {
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         try {
             List<FunctionInfo> functions = serverManager.getAllFunctions();
-            List<Map<String, Object>> functionsList = new ArrayList<>();
 
-            for (FunctionInfo functionInfo : functions) {
+            JsonUtil.sendJsonList(req, resp, functions, functionInfo -> {
                 Map<String, Object> functionData = new HashMap<>();
                 functionData.put("name", functionInfo.getName());
                 functionData.put("parentProgram", functionInfo.getParentProgramName());
                 functionData.put("owner", functionInfo.getOwnerUsername());
                 functionData.put("instructionCount", functionInfo.getInstructionCount());
                 functionData.put("maxDegree", functionInfo.getMaxDegree());
-                functionsList.add(functionData);
-            }
-
-            JsonUtil.sendSuccess(resp, functionsList);
+                return functionData;
+            });
 
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
@@ -1,6 +1,8 @@
 package hadeel.server.servlet;
 
+import hadeel.server.model.UserRequest;
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
 import javax.servlet.http.*;
 import java.io.IOException;
@@ -17,11 +19,13 @@ public class LogoutServlet extends HttpServlet {
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-        try {
-            String jsonBody = req.getReader().lines().reduce("", (acc, line) -> acc + line);
-            Map<String, String> request = JsonUtil.fromJson(jsonBody, Map.class);
+        AsyncRequestUtil.dispatch(req, resp, null, UserRequest.class, this::handlePost);
+    }
 
-            String username = request.get("username");
+    private void handlePost(UserRequest request, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        try {
+            String username = request.getUsername();
             if (username == null || username.trim().isEmpty()) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Username is required");
                 return;
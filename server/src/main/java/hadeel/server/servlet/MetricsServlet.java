@@ -0,0 +1,57 @@
+package hadeel.server.servlet;
+
+import hadeel.server.service.ServerManager;
+import hadeel.server.storage.StorageEngine;
+import hadeel.server.util.JsonUtil;
+import hadeel.engine.execution.QuoteMemo;
+import javax.servlet.http.*;
+import java.io.IOException;
+import java.util.*;
+
+public class MetricsServlet extends HttpServlet {
+    private ServerManager serverManager;
+
+    @Override
+    public void init() {
+        serverManager = ServerManager.getInstance();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        try {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("functionRepositoryVersion", serverManager.getFunctionRepositoryVersion());
+            metrics.put("expansionCache", serverManager.getExpansionCache().getStatistics());
+            metrics.put("dependencyGraph", serverManager.getDependencyGraph().getStatistics());
+
+            QuoteMemo quoteMemo = serverManager.getQuoteMemo();
+            Map<String, Object> memoStats = new LinkedHashMap<>();
+            memoStats.put("enabled", quoteMemo != null);
+            if (quoteMemo != null) {
+                memoStats.put("entries", quoteMemo.size());
+                memoStats.put("maxEntries", quoteMemo.getMaxEntries());
+                memoStats.put("hits", quoteMemo.getHits());
+                memoStats.put("misses", quoteMemo.getMisses());
+                memoStats.put("evictions", quoteMemo.getEvictions());
+                memoStats.put("cyclesSaved", quoteMemo.getCyclesSaved());
+            }
+            metrics.put("quoteMemo", memoStats);
+            metrics.put("executionScheduler", serverManager.getExecutionScheduler().getStatistics());
+            metrics.put("debugSessions", serverManager.getDebugSessionManager().getStatistics());
+
+            StorageEngine storage = serverManager.getStorage();
+            Map<String, Object> storageStats = new LinkedHashMap<>();
+            storageStats.put("enabled", storage != null);
+            if (storage != null) {
+                storageStats.putAll(storage.getStatistics());
+            }
+            metrics.put("storage", storageStats);
+
+            JsonUtil.sendSuccess(resp, metrics);
+
+        } catch (Exception e) {
+            JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error fetching metrics: " + e.getMessage());
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package hadeel.server.servlet;
 
+import com.google.gson.stream.JsonWriter;
 import hadeel.engine.model.SInstruction;
+import hadeel.engine.model.SProgram;
 import hadeel.server.model.ProgramInfo;
 import hadeel.server.service.ServerManager;
 import hadeel.server.util.JsonUtil;
 import javax.servlet.http.*;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.*;
 
 public class ProgramDetailsServlet extends HttpServlet {
@@ -36,42 +39,82 @@ public class ProgramDetailsServlet extends HttpServlet {
                 return;
             }
 
-            // Build response with program details
+            // "?degree=N" shows the program expanded to that degree; the default is the program as uploaded
+            int degree = 0;
+            String degreeParam = req.getParameter("degree");
+            if (degreeParam != null) {
+                degree = Integer.parseInt(degreeParam);
+                if (degree < 0 || degree > programInfo.getMaxDegree()) {
+                    JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST,
+                        "Degree must be between 0 and " + programInfo.getMaxDegree());
+                    return;
+                }
+            }
+
+            SProgram program = programInfo.getProgram();
+            if (degree > 0) {
+                program = serverManager.getExpandedProgram(serverManager.getScopedProgram(programInfo), degree);
+            }
+            List<SInstruction> instructions = program.getInstructions();
+
             Map<String, Object> programData = new HashMap<>();
             programData.put("name", programInfo.getName());
             programData.put("owner", programInfo.getOwnerUsername());
             programData.put("maxDegree", programInfo.getMaxDegree());
+            programData.put("degree", degree);
 
-            // Convert instructions to JSON-friendly format
-            List<Map<String, Object>> instructionsList = new ArrayList<>();
-            List<SInstruction> instructions = programInfo.getProgram().getInstructions();
+            // Expanded programs can have many instructions, so they are converted while streaming.
+            // With NDJSON the first line holds the program fields and each further line one instruction.
+            if (JsonUtil.wantsNdjson(req)) {
+                programData.put("instructionCount", instructions.size());
+                Writer writer = JsonUtil.openNdjsonWriter(resp, HttpServletResponse.SC_OK);
+                JsonUtil.writeJsonLine(writer, programData);
+                for (int i = 0; i < instructions.size(); i++) {
+                    JsonUtil.writeJsonLine(writer, toInstructionData(i, instructions.get(i)));
+                }
+                writer.flush();
+                return;
+            }
 
+            JsonWriter writer = JsonUtil.openJsonWriter(resp, HttpServletResponse.SC_OK);
+            writer.beginObject();
+            for (Map.Entry<String, Object> field : programData.entrySet()) {
+                writer.name(field.getKey());
+                JsonUtil.writeValue(writer, field.getValue());
+            }
+            writer.name("instructions");
+            writer.beginArray();
             for (int i = 0; i < instructions.size(); i++) {
-                SInstruction inst = instructions.get(i);
-                Map<String, Object> instData = new HashMap<>();
-
-                instData.put("number", i + 1);
-                instData.put("type", inst.getType().toString());
-                instData.put("name", inst.getName().toString());
-                instData.put("variable", inst.getVariable());
-                instData.put("label", inst.getLabel());
-                instData.put("cycles", inst.getCycles());
-                instData.put("degree", inst.getDegree());
-
-                // Convert arguments to JSON
-                Map<String, String> arguments = new HashMap<>(inst.getArguments());
-                instData.put("arguments", arguments);
-
-                instructionsList.add(instData);
+                JsonUtil.writeValue(writer, toInstructionData(i, instructions.get(i)));
             }
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
 
-            programData.put("instructions", instructionsList);
-
-            JsonUtil.sendSuccess(resp, programData);
-
+        } catch (NumberFormatException e) {
+            JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "Invalid degree");
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "Error fetching program details: " + e.getMessage());
         }
     }
+
+    // Convert an instruction to JSON-friendly format
+    private Map<String, Object> toInstructionData(int index, SInstruction inst) {
+        Map<String, Object> instData = new HashMap<>();
+
+        instData.put("number", index + 1);
+        instData.put("type", inst.getType().toString());
+        instData.put("name", inst.getName().toString());
+        instData.put("variable", inst.getVariable());
+        instData.put("label", inst.getLabel());
+        instData.put("cycles", inst.getCycles());
+        instData.put("degree", inst.getDegree());
+
+        // Convert arguments to JSON
+        Map<String, String> arguments = new HashMap<>(inst.getArguments());
+        instData.put("arguments", arguments);
+
+        return instData;
+    }
 }
@@ -19,9 +19,8 @@ public class ProgramsServlet extends HttpServlet {
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         try {
             List<ProgramInfo> programs = serverManager.getAllPrograms();
-            List<Map<String, Object>> programsList = new ArrayList<>();
 
-            for (ProgramInfo programInfo : programs) {
+            JsonUtil.sendJsonList(req, resp, programs, programInfo -> {
                 Map<String, Object> programData = new HashMap<>();
                 programData.put("name", programInfo.getName());
                 programData.put("owner", programInfo.getOwnerUsername());
@@ -29,10 +28,8 @@ public class ProgramsServlet extends HttpServlet {
                 programData.put("maxDegree", programInfo.getMaxDegree());
                 programData.put("executionCount", programInfo.getExecutionCount());
                 programData.put("averageCredits", programInfo.getAverageCreditsUsed());
-                programsList.add(programData);
-            }
-
-            JsonUtil.sendSuccess(resp, programsList);
+                return programData;
+            });
 
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
@@ -1,6 +1,7 @@
 package hadeel.server.servlet;
 
 import hadeel.server.service.ServerManager;
+import hadeel.server.util.AsyncRequestUtil;
 import hadeel.server.util.JsonUtil;
 import javax.servlet.http.*;
 import javax.servlet.annotation.MultipartConfig;
@@ -9,7 +10,6 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @MultipartConfig
 public class UploadProgramServlet extends HttpServlet {
@@ -20,8 +20,14 @@ public class UploadProgramServlet extends HttpServlet {
         serverManager = ServerManager.getInstance();
     }
 
+    // Programs can be large, so the body is read without blocking a thread (see AsyncRequestUtil)
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        AsyncRequestUtil.dispatch(req, resp, null, String.class, this::handlePost);
+    }
+
+    private void handlePost(String xmlContent, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
         try {
             // Get username from request parameter
             String username = req.getParameter("username");
@@ -30,9 +36,6 @@ public class UploadProgramServlet extends HttpServlet {
                 return;
             }
 
-            // Get XML content from request body
-            String xmlContent = req.getReader().lines().collect(Collectors.joining("\n"));
-
             if (xmlContent == null || xmlContent.trim().isEmpty()) {
                 JsonUtil.sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "XML content is required");
                 return;
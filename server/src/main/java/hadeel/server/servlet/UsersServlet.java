@@ -19,9 +19,8 @@ public class UsersServlet extends HttpServlet {
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         try {
             List<User> users = serverManager.getAllUsers();
-            List<Map<String, Object>> usersList = new ArrayList<>();
 
-            for (User user : users) {
+            JsonUtil.sendJsonList(req, resp, users, user -> {
                 Map<String, Object> userInfo = new HashMap<>();
                 userInfo.put("username", user.getUsername());
                 userInfo.put("programCount", user.getProgramCount());
@@ -29,10 +28,8 @@ public class UsersServlet extends HttpServlet {
                 userInfo.put("credits", user.getCredits());
                 userInfo.put("creditsUsed", user.getCreditsUsed());
                 userInfo.put("executionCount", user.getExecutionCount());
-                usersList.add(userInfo);
-            }
-
-            JsonUtil.sendSuccess(resp, usersList);
+                return userInfo;
+            });
 
         } catch (Exception e) {
             JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
@@ -0,0 +1,188 @@
+package hadeel.server.storage;
+
+import hadeel.server.model.ExecutionRecord;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// One state change in the write-ahead log. Credit changes are logged as deltas, so records for the same
+// user commute and the log needs no ordering beyond "a user is created before it is used".
+public class StorageRecord {
+
+    public enum Type {
+        USER_CREATED,
+        USER_REMOVED,
+        PROGRAM_UPLOADED,
+        CREDITS_ADDED,
+        CREDITS_DEDUCTED,
+        EXECUTION_RECORDED,
+        // Appended so the ordinals of existing log entries stay valid
+        CREDITS_REFUNDED
+    }
+
+    private final Type type;
+    private final String username;
+    private final int amount;
+    private final String programName;
+    private final String xmlContent;
+    private final List<String> functionNames;
+    private final ExecutionRecord history;
+
+    private StorageRecord(Type type, String username, int amount, String programName, String xmlContent,
+                          List<String> functionNames, ExecutionRecord history) {
+        this.type = type;
+        this.username = username;
+        this.amount = amount;
+        this.programName = programName;
+        this.xmlContent = xmlContent;
+        this.functionNames = functionNames;
+        this.history = history;
+    }
+
+    public static StorageRecord userCreated(String username, int initialCredits) {
+        return new StorageRecord(Type.USER_CREATED, username, initialCredits, null, null, null, null);
+    }
+
+    public static StorageRecord userRemoved(String username) {
+        return new StorageRecord(Type.USER_REMOVED, username, 0, null, null, null, null);
+    }
+
+    // Programs are stored as their source XML; functionNames are the functions registered with the upload
+    public static StorageRecord programUploaded(String username, String programName, String xmlContent,
+                                                List<String> functionNames) {
+        return new StorageRecord(Type.PROGRAM_UPLOADED, username, 0, programName, xmlContent,
+            new ArrayList<>(functionNames), null);
+    }
+
+    public static StorageRecord creditsAdded(String username, int amount) {
+        return new StorageRecord(Type.CREDITS_ADDED, username, amount, null, null, null, null);
+    }
+
+    public static StorageRecord creditsDeducted(String username, int amount) {
+        return new StorageRecord(Type.CREDITS_DEDUCTED, username, amount, null, null, null, null);
+    }
+
+    public static StorageRecord creditsRefunded(String username, int amount) {
+        return new StorageRecord(Type.CREDITS_REFUNDED, username, amount, null, null, null, null);
+    }
+
+    public static StorageRecord executionRecorded(String username, ExecutionRecord history) {
+        return new StorageRecord(Type.EXECUTION_RECORDED, username, 0, history.getProgramName(), null, null,
+            history);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    public String getXmlContent() {
+        return xmlContent;
+    }
+
+    public List<String> getFunctionNames() {
+        return functionNames;
+    }
+
+    public ExecutionRecord getHistory() {
+        return history;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        writeString(out, username);
+        switch (type) {
+            case USER_CREATED:
+            case CREDITS_ADDED:
+            case CREDITS_DEDUCTED:
+            case CREDITS_REFUNDED:
+                out.writeInt(amount);
+                break;
+            case PROGRAM_UPLOADED:
+                writeString(out, programName);
+                writeString(out, xmlContent);
+                writeStrings(out, functionNames);
+                break;
+            case EXECUTION_RECORDED:
+                StoreState.writeExecutionRecord(out, history);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public static StorageRecord read(DataInput in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        if (ordinal >= Type.values().length) {
+            throw new IOException("Unknown storage record type " + ordinal);
+        }
+        Type type = Type.values()[ordinal];
+        String username = readString(in);
+        switch (type) {
+            case USER_CREATED:
+                return userCreated(username, in.readInt());
+            case USER_REMOVED:
+                return userRemoved(username);
+            case PROGRAM_UPLOADED:
+                return programUploaded(username, readString(in), readString(in), readStrings(in));
+            case CREDITS_ADDED:
+                return creditsAdded(username, in.readInt());
+            case CREDITS_DEDUCTED:
+                return creditsDeducted(username, in.readInt());
+            case CREDITS_REFUNDED:
+                return creditsRefunded(username, in.readInt());
+            default:
+                return executionRecorded(username, StoreState.readExecutionRecord(in));
+        }
+    }
+
+    // writeUTF is limited to 64 KB, which uploaded programs can exceed
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStrings(DataOutput out, List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    static List<String> readStrings(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+}
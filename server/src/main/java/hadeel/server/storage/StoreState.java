@@ -0,0 +1,241 @@
+package hadeel.server.storage;
+
+import hadeel.server.model.Architecture;
+import hadeel.server.model.ExecutionRecord;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+// Durable server state rebuilt from a snapshot plus the log records after it. It mirrors what ServerManager
+// keeps in memory, but only as plain data, so snapshots can be compacted without touching live objects.
+public class StoreState {
+
+    public static class UserState {
+        private int credits;
+        private int creditsUsed;
+        private final List<String> uploadedPrograms = new ArrayList<>();
+        private final List<String> contributedFunctions = new ArrayList<>();
+        private final List<ExecutionRecord> executionHistory = new ArrayList<>();
+
+        public int getCredits() {
+            return credits;
+        }
+
+        public int getCreditsUsed() {
+            return creditsUsed;
+        }
+
+        public List<String> getUploadedPrograms() {
+            return uploadedPrograms;
+        }
+
+        public List<String> getContributedFunctions() {
+            return contributedFunctions;
+        }
+
+        public List<ExecutionRecord> getExecutionHistory() {
+            return executionHistory;
+        }
+    }
+
+    public static class ProgramState {
+        private final String ownerUsername;
+        private final String xmlContent;
+        private final List<String> functionNames;
+        private int executionCount;
+        private int creditsUsed;
+
+        ProgramState(String ownerUsername, String xmlContent, List<String> functionNames) {
+            this.ownerUsername = ownerUsername;
+            this.xmlContent = xmlContent;
+            this.functionNames = functionNames;
+        }
+
+        public String getOwnerUsername() {
+            return ownerUsername;
+        }
+
+        public String getXmlContent() {
+            return xmlContent;
+        }
+
+        // Functions that were registered in the repository with this program
+        public List<String> getFunctionNames() {
+            return functionNames;
+        }
+
+        public int getExecutionCount() {
+            return executionCount;
+        }
+
+        public int getCreditsUsed() {
+            return creditsUsed;
+        }
+    }
+
+    // Insertion ordered: programs are restored in upload order
+    private final Map<String, UserState> users = new LinkedHashMap<>();
+    private final Map<String, ProgramState> programs = new LinkedHashMap<>();
+
+    public Map<String, UserState> getUsers() {
+        return users;
+    }
+
+    public Map<String, ProgramState> getPrograms() {
+        return programs;
+    }
+
+    // Same effects as the matching ServerManager operation, without its validation
+    public void apply(StorageRecord record) {
+        UserState user = users.get(record.getUsername());
+        switch (record.getType()) {
+            case USER_CREATED:
+                user = new UserState();
+                user.credits = record.getAmount();
+                users.put(record.getUsername(), user);
+                break;
+            case USER_REMOVED:
+                users.remove(record.getUsername());
+                break;
+            case PROGRAM_UPLOADED:
+                programs.put(record.getProgramName(), new ProgramState(record.getUsername(),
+                    record.getXmlContent(), record.getFunctionNames()));
+                if (user != null) {
+                    user.uploadedPrograms.add(record.getProgramName());
+                    for (String functionName : record.getFunctionNames()) {
+                        if (!user.contributedFunctions.contains(functionName)) {
+                            user.contributedFunctions.add(functionName);
+                        }
+                    }
+                }
+                break;
+            case CREDITS_ADDED:
+                if (user != null) {
+                    user.credits += record.getAmount();
+                }
+                break;
+            case CREDITS_DEDUCTED:
+                if (user != null) {
+                    user.credits -= record.getAmount();
+                    user.creditsUsed += record.getAmount();
+                }
+                break;
+            case CREDITS_REFUNDED:
+                if (user != null) {
+                    user.credits += record.getAmount();
+                    user.creditsUsed -= record.getAmount();
+                }
+                break;
+            case EXECUTION_RECORDED:
+                if (user != null) {
+                    ExecutionRecord history = record.getHistory();
+                    user.executionHistory.add(history);
+                    ProgramState program = programs.get(history.getProgramName());
+                    if (program != null) {
+                        program.executionCount++;
+                        program.creditsUsed += history.getCreditsUsed();
+                    }
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    public int getHistorySize() {
+        int size = 0;
+        for (UserState user : users.values()) {
+            size += user.executionHistory.size();
+        }
+        return size;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(users.size());
+        for (Map.Entry<String, UserState> entry : users.entrySet()) {
+            UserState user = entry.getValue();
+            StorageRecord.writeString(out, entry.getKey());
+            out.writeInt(user.credits);
+            out.writeInt(user.creditsUsed);
+            StorageRecord.writeStrings(out, user.uploadedPrograms);
+            StorageRecord.writeStrings(out, user.contributedFunctions);
+            out.writeInt(user.executionHistory.size());
+            for (ExecutionRecord history : user.executionHistory) {
+                writeExecutionRecord(out, history);
+            }
+        }
+
+        out.writeInt(programs.size());
+        for (Map.Entry<String, ProgramState> entry : programs.entrySet()) {
+            ProgramState program = entry.getValue();
+            StorageRecord.writeString(out, entry.getKey());
+            StorageRecord.writeString(out, program.ownerUsername);
+            StorageRecord.writeString(out, program.xmlContent);
+            StorageRecord.writeStrings(out, program.functionNames);
+            out.writeInt(program.executionCount);
+            out.writeInt(program.creditsUsed);
+        }
+    }
+
+    public static StoreState read(DataInput in) throws IOException {
+        StoreState state = new StoreState();
+        int userCount = in.readInt();
+        for (int i = 0; i < userCount; i++) {
+            String username = StorageRecord.readString(in);
+            UserState user = new UserState();
+            user.credits = in.readInt();
+            user.creditsUsed = in.readInt();
+            user.uploadedPrograms.addAll(StorageRecord.readStrings(in));
+            user.contributedFunctions.addAll(StorageRecord.readStrings(in));
+            int historySize = in.readInt();
+            for (int j = 0; j < historySize; j++) {
+                user.executionHistory.add(readExecutionRecord(in));
+            }
+            state.users.put(username, user);
+        }
+
+        int programCount = in.readInt();
+        for (int i = 0; i < programCount; i++) {
+            String programName = StorageRecord.readString(in);
+            ProgramState program = new ProgramState(StorageRecord.readString(in), StorageRecord.readString(in),
+                StorageRecord.readStrings(in));
+            program.executionCount = in.readInt();
+            program.creditsUsed = in.readInt();
+            state.programs.put(programName, program);
+        }
+        return state;
+    }
+
+    static void writeExecutionRecord(DataOutput out, ExecutionRecord record) throws IOException {
+        out.writeInt(record.getRunNumber());
+        StorageRecord.writeString(out, record.getProgramName());
+        out.writeBoolean(record.isFunction());
+        StorageRecord.writeString(out, record.getArchitecture().name());
+        out.writeInt(record.getDegree());
+        List<Integer> inputs = record.getInputs();
+        out.writeInt(inputs.size());
+        for (int input : inputs) {
+            out.writeInt(input);
+        }
+        out.writeInt(record.getOutputValue());
+        out.writeInt(record.getCyclesConsumed());
+        out.writeInt(record.getCreditsUsed());
+        out.writeLong(record.getTimestamp());
+    }
+
+    static ExecutionRecord readExecutionRecord(DataInput in) throws IOException {
+        int runNumber = in.readInt();
+        String programName = StorageRecord.readString(in);
+        boolean isFunction = in.readBoolean();
+        Architecture architecture = Architecture.valueOf(StorageRecord.readString(in));
+        int degree = in.readInt();
+        int inputCount = in.readInt();
+        List<Integer> inputs = new ArrayList<>(inputCount);
+        for (int i = 0; i < inputCount; i++) {
+            inputs.add(in.readInt());
+        }
+        return new ExecutionRecord(runNumber, programName, isFunction, architecture, degree, inputs,
+            in.readInt(), in.readInt(), in.readInt(), in.readLong());
+    }
+}
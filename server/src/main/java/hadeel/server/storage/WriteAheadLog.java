@@ -0,0 +1,343 @@
+package hadeel.server.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+// Append-only log split into numbered segment files. Appenders only enqueue; one writer thread writes
+// whatever has queued up and fsyncs once per batch (group commit), so concurrent writers share a sync and
+// never take a lock. Each frame is [length][crc32][record], so a torn write at the tail is detected on replay.
+public class WriteAheadLog implements Closeable {
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_BATCH = 4096;
+    private static final int FRAME_HEADER_BYTES = 8;
+
+    private enum Kind {
+        RECORD,
+        ROTATE,
+        SHUTDOWN
+    }
+
+    private static class Pending {
+        final Kind kind;
+        final byte[] frame;
+        final CompletableFuture<Void> written;
+
+        Pending(Kind kind, byte[] frame) {
+            this.kind = kind;
+            this.frame = frame;
+            this.written = new CompletableFuture<>();
+        }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final LongConsumer onRotate;
+    private final LinkedBlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    // Owned by the writer thread
+    private FileChannel channel;
+    private long segmentNumber;
+    private long segmentSize;
+    // Length of the current segment up to its last fsync
+    private long syncedSize;
+    // Set when a failed write could not be cut back off the segment; every later write fails with it
+    private IOException failure;
+
+    private final AtomicLong appended;
+    private final AtomicLong batches;
+    private final AtomicLong bytesWritten;
+
+    // onRotate is called on the writer thread with the number of the new segment; all lower ones are closed
+    public WriteAheadLog(Path directory, long firstSegment, long segmentBytes, LongConsumer onRotate)
+            throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.onRotate = onRotate;
+        this.queue = new LinkedBlockingQueue<>();
+        this.appended = new AtomicLong(0);
+        this.batches = new AtomicLong(0);
+        this.bytesWritten = new AtomicLong(0);
+
+        openSegment(firstSegment);
+        this.writer = new Thread(this::writeLoop, "semulator-wal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Completes once the record is on disk
+    public CompletableFuture<Void> append(StorageRecord record) {
+        Pending pending = new Pending(Kind.RECORD, encode(record));
+        if (closed) {
+            pending.written.completeExceptionally(new IOException("Write-ahead log is closed"));
+            return pending.written;
+        }
+        queue.add(pending);
+        return pending.written;
+    }
+
+    // Starts a new segment unless the current one is empty; completes once everything queued before it is synced
+    public CompletableFuture<Void> requestRotation() {
+        Pending pending = new Pending(Kind.ROTATE, null);
+        queue.add(pending);
+        return pending.written;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            List<Pending> unsynced = new ArrayList<>();
+            try {
+                for (Pending pending : batch) {
+                    if (pending.kind == Kind.SHUTDOWN) {
+                        running = false;
+                    }
+                    if (failure != null) {
+                        refuse(pending, failure);
+                        continue;
+                    }
+                    if (pending.kind == Kind.RECORD) {
+                        writeFully(pending.frame);
+                        unsynced.add(pending);
+                        continue;
+                    }
+
+                    sync(unsynced);
+                    if (pending.kind == Kind.ROTATE && segmentSize > 0) {
+                        rotate();
+                    }
+                    pending.written.complete(null);
+                }
+                sync(unsynced);
+
+                if (failure == null && segmentSize >= segmentBytes) {
+                    rotate();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("[WriteAheadLog] Write failed: " + e.getMessage());
+                discardUnsynced();
+                // Entries completed before the failure keep their result
+                for (Pending pending : batch) {
+                    if (pending.kind == Kind.SHUTDOWN) {
+                        running = false;
+                    }
+                    refuse(pending, e);
+                }
+            }
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("[WriteAheadLog] Failed to close segment: " + e.getMessage());
+        }
+    }
+
+    // A shutdown still completes, so close() returns even after a failure
+    private void refuse(Pending pending, Exception cause) {
+        if (pending.kind == Kind.SHUTDOWN) {
+            pending.written.complete(null);
+        } else {
+            pending.written.completeExceptionally(cause);
+        }
+    }
+
+    // Cuts the segment back to its last fsync. Otherwise a partly written frame would stay in the middle of
+    // the log: replay stops there, so records acknowledged after it would be lost. If the cut fails as well,
+    // the log stops taking writes and the torn frame stays at the tail, where recovery trims it.
+    private void discardUnsynced() {
+        try {
+            channel.truncate(syncedSize);
+            channel.position(syncedSize);
+            channel.force(true);
+            segmentSize = syncedSize;
+        } catch (IOException | RuntimeException e) {
+            failure = new IOException("Write-ahead log stopped after a failed write: " + e.getMessage(), e);
+            System.out.println("[WriteAheadLog] " + failure.getMessage());
+        }
+    }
+
+    private void writeFully(byte[] frame) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        segmentSize += frame.length;
+    }
+
+    private void sync(List<Pending> unsynced) throws IOException {
+        if (unsynced.isEmpty()) {
+            return;
+        }
+        channel.force(false);
+        syncedSize = segmentSize;
+        batches.incrementAndGet();
+        for (Pending pending : unsynced) {
+            appended.incrementAndGet();
+            bytesWritten.addAndGet(pending.frame.length);
+            pending.written.complete(null);
+        }
+        unsynced.clear();
+    }
+
+    private void rotate() throws IOException {
+        channel.force(true);
+        channel.close();
+        openSegment(segmentNumber + 1);
+        onRotate.accept(segmentNumber);
+    }
+
+    private void openSegment(long number) throws IOException {
+        channel = FileChannel.open(segmentPath(directory, number),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segmentNumber = number;
+        segmentSize = 0;
+        syncedSize = 0;
+        syncDirectory(directory);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Pending shutdown = new Pending(Kind.SHUTDOWN, null);
+        queue.add(shutdown);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getAppendedRecords() {
+        return appended.get();
+    }
+
+    public long getSyncedBatches() {
+        return batches.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    static byte[] encode(StorageRecord record) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            record.write(out);
+            out.flush();
+
+            byte[] frame = bytes.toByteArray();
+            int payloadLength = frame.length - FRAME_HEADER_BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(frame, FRAME_HEADER_BYTES, payloadLength);
+            ByteBuffer header = ByteBuffer.wrap(frame, 0, FRAME_HEADER_BYTES);
+            header.putInt(payloadLength);
+            header.putInt((int) crc.getValue());
+            return frame;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Replays a segment; returns the length of its valid prefix, which is shorter than the file after a torn write
+    public static long readSegment(Path segment, Consumer<StorageRecord> consumer)
+            throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment), 65536))) {
+            byte[] payload = new byte[256];
+            while (true) {
+                int length;
+                int expectedCrc;
+                try {
+                    length = in.readInt();
+                    expectedCrc = in.readInt();
+                } catch (EOFException e) {
+                    return valid;
+                }
+                if (length <= 0 || length > Integer.MAX_VALUE - FRAME_HEADER_BYTES) {
+                    return valid;
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                try {
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    return valid;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    return valid;
+                }
+                consumer.accept(StorageRecord.read(new DataInputStream(new ByteArrayInputStream(payload, 0, length))));
+                valid += FRAME_HEADER_BYTES + length;
+            }
+        }
+    }
+
+    static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    // Segment numbers present in the directory, ascending
+    static List<Long> listSegments(Path directory) throws IOException {
+        return listNumbered(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+    }
+
+    static List<Long> listNumbered(Path directory, String prefix, String suffix) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException ignored) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    // Makes a file creation or rename durable; not supported on every platform
+    static void syncDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException ignored) {
+            // Best effort
+        }
+    }
+}
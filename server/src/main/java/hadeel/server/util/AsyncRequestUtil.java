@@ -0,0 +1,263 @@
+package hadeel.server.util;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+public class AsyncRequestUtil {
+
+    public interface RequestHandler {
+        void handle(HttpServletRequest req, HttpServletResponse resp) throws IOException;
+    }
+
+    public interface BodyHandler<T> {
+        void handle(T body, HttpServletRequest req, HttpServletResponse resp) throws IOException;
+    }
+
+    // Returns null once the response is written, or a stage that completes when it has been
+    public interface DeferredBodyHandler<T> {
+        CompletionStage<?> handle(T body, HttpServletRequest req, HttpServletResponse resp) throws IOException;
+    }
+
+    // With an executor, the container thread is released and the handler runs on that executor
+    // (virtual threads in practice); without one, the handler runs inline as before
+    public static void dispatch(HttpServletRequest req, HttpServletResponse resp, ExecutorService executor,
+                                RequestHandler handler) throws IOException {
+        if (executor == null || !req.isAsyncSupported()) {
+            handler.handle(req, resp);
+            return;
+        }
+
+        AsyncContext asyncContext = req.startAsync();
+        // Executions are bounded by their own timeout, so the container must not cut the response off first
+        asyncContext.setTimeout(0);
+        runAsync(asyncContext, executor, () -> {
+            HttpServletRequest asyncRequest = (HttpServletRequest) asyncContext.getRequest();
+            HttpServletResponse asyncResponse = (HttpServletResponse) asyncContext.getResponse();
+            handler.handle(asyncRequest, asyncResponse);
+            return null;
+        });
+    }
+
+    // Like dispatch, with the body decoded into bodyType first. Small bodies are decoded straight from the
+    // input stream; large or unknown-length ones are collected by a non-blocking ReadListener, so no thread
+    // waits on a slow upload, and decoded once complete. Undecodable bodies are answered with 400 or 413.
+    public static <T> void dispatch(HttpServletRequest req, HttpServletResponse resp, ExecutorService executor,
+                                    Class<T> bodyType, BodyHandler<T> handler) throws IOException {
+        long length = req.getContentLengthLong();
+        if (!req.isAsyncSupported() || (length >= 0 && length <= RequestDecoder.BLOCKING_READ_LIMIT)) {
+            dispatch(req, resp, executor, (request, response) -> {
+                T body;
+                try {
+                    body = RequestDecoder.decode(request, bodyType);
+                } catch (IOException e) {
+                    sendReadError(response, e);
+                    return;
+                }
+                handler.handle(body, request, response);
+            });
+            return;
+        }
+
+        if (length > RequestDecoder.MAX_BODY_BYTES) {
+            sendReadError(resp, new RequestDecoder.BodyTooLargeException());
+            return;
+        }
+
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(0);
+        ServletInputStream input = req.getInputStream();
+        input.setReadListener(new BodyReader<>(asyncContext, input, executor, bodyType, (body, request, response) -> {
+            handler.handle(body, request, response);
+            return null;
+        }, RequestDecoder.charsetOf(req), length));
+    }
+
+    // For handlers that wait on work running elsewhere: the request goes async and its response stays open
+    // until the stage the handler returns completes, so no container thread waits for it. The handler bounds
+    // that wait itself. Containers without async support fall back to waiting on the request thread.
+    public static <T> void dispatchDeferred(HttpServletRequest req, HttpServletResponse resp, Class<T> bodyType,
+                                            DeferredBodyHandler<T> handler) throws IOException {
+        long length = req.getContentLengthLong();
+        if (!req.isAsyncSupported()) {
+            T body;
+            try {
+                body = RequestDecoder.decode(req, bodyType);
+            } catch (IOException e) {
+                sendReadError(resp, e);
+                return;
+            }
+            CompletionStage<?> pending = handler.handle(body, req, resp);
+            if (pending != null) {
+                pending.toCompletableFuture().join();
+            }
+            return;
+        }
+
+        if (length > RequestDecoder.MAX_BODY_BYTES) {
+            sendReadError(resp, new RequestDecoder.BodyTooLargeException());
+            return;
+        }
+
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(0);
+        if (length >= 0 && length <= RequestDecoder.BLOCKING_READ_LIMIT) {
+            runDeferred(asyncContext, () -> {
+                HttpServletRequest asyncRequest = (HttpServletRequest) asyncContext.getRequest();
+                HttpServletResponse asyncResponse = (HttpServletResponse) asyncContext.getResponse();
+                T body;
+                try {
+                    body = RequestDecoder.decode(asyncRequest, bodyType);
+                } catch (IOException e) {
+                    sendReadError(asyncResponse, e);
+                    return null;
+                }
+                return handler.handle(body, asyncRequest, asyncResponse);
+            });
+            return;
+        }
+
+        ServletInputStream input = req.getInputStream();
+        input.setReadListener(new BodyReader<>(asyncContext, input, null, bodyType, handler,
+            RequestDecoder.charsetOf(req), length));
+    }
+
+    private static class BodyReader<T> implements ReadListener {
+        private final AsyncContext asyncContext;
+        private final ServletInputStream input;
+        private final ExecutorService executor;
+        private final Class<T> bodyType;
+        private final DeferredBodyHandler<T> handler;
+        private final Charset charset;
+        private final ByteArrayOutputStream buffer;
+        private final byte[] chunk;
+
+        BodyReader(AsyncContext asyncContext, ServletInputStream input, ExecutorService executor,
+                   Class<T> bodyType, DeferredBodyHandler<T> handler, Charset charset, long length) {
+            this.asyncContext = asyncContext;
+            this.input = input;
+            this.executor = executor;
+            this.bodyType = bodyType;
+            this.handler = handler;
+            this.charset = charset;
+            this.buffer = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+            this.chunk = new byte[8192];
+        }
+
+        // Called by the container whenever data can be read without blocking
+        @Override
+        public void onDataAvailable() throws IOException {
+            int read;
+            while (input.isReady() && (read = input.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+                if (buffer.size() > RequestDecoder.MAX_BODY_BYTES) {
+                    throw new RequestDecoder.BodyTooLargeException();
+                }
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            AsyncWork decodeAndHandle = () -> {
+                T body;
+                try {
+                    body = RequestDecoder.decode(buffer.toByteArray(), buffer.size(), charset, bodyType);
+                } catch (IOException e) {
+                    sendReadError(response, e);
+                    return null;
+                }
+                return handler.handle(body, request, response);
+            };
+
+            if (executor != null) {
+                runAsync(asyncContext, executor, decodeAndHandle);
+                return;
+            }
+            runDeferred(asyncContext, decodeAndHandle);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            if (t instanceof IOException) {
+                sendReadError(response, (IOException) t);
+            } else {
+                sendInternalError(response, new IOException(t));
+            }
+            asyncContext.complete();
+        }
+    }
+
+    // Returns null once the response is written, or a stage that completes when it has been
+    private interface AsyncWork {
+        CompletionStage<?> run() throws IOException;
+    }
+
+    private static void runAsync(AsyncContext asyncContext, ExecutorService executor, AsyncWork work) {
+        try {
+            executor.execute(() -> runDeferred(asyncContext, work));
+        } catch (RejectedExecutionException e) {
+            sendInternalError((HttpServletResponse) asyncContext.getResponse(), e);
+            asyncContext.complete();
+        }
+    }
+
+    // Completes the async context once the work and whatever it left pending are done
+    private static void runDeferred(AsyncContext asyncContext, AsyncWork work) {
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        CompletionStage<?> pending = null;
+        try {
+            pending = work.run();
+        } catch (Exception e) {
+            sendInternalError(response, e);
+        } finally {
+            if (pending == null) {
+                asyncContext.complete();
+            }
+        }
+        if (pending == null) {
+            return;
+        }
+        pending.whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                sendInternalError(response, new IOException(failure));
+            }
+            asyncContext.complete();
+        });
+    }
+
+    private static void sendReadError(HttpServletResponse resp, IOException e) {
+        int status = e instanceof RequestDecoder.BodyTooLargeException
+            ? HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE
+            : HttpServletResponse.SC_BAD_REQUEST;
+        // Other IOExceptions mean the client stopped sending or the connection broke mid-body
+        String message = e instanceof RequestDecoder.MalformedRequestException
+            || e instanceof RequestDecoder.BodyTooLargeException
+            ? e.getMessage()
+            : "Failed to read request body: " + e.getMessage();
+        try {
+            JsonUtil.sendError(resp, status, message);
+        } catch (IOException | IllegalStateException ignored) {
+            // The client has gone away or the response was already committed
+        }
+    }
+
+    private static void sendInternalError(HttpServletResponse resp, Exception e) {
+        try {
+            JsonUtil.sendError(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                "Error handling request: " + e.getMessage());
+        } catch (IOException | IllegalStateException ignored) {
+            // The client has gone away or the response was already committed
+        }
+    }
+}
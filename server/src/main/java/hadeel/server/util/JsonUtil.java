@@ -2,11 +2,28 @@ package hadeel.server.util;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
 
+// Responses are written straight to the servlet output stream; nothing is built as one big string first.
+// Output is compact unless -Dsemulator.json.pretty=true.
 public class JsonUtil {
-    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    public static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private static final Gson gson = Boolean.getBoolean("semulator.json.pretty")
+        ? new GsonBuilder().setPrettyPrinting().create()
+        : new Gson();
+
+    // NDJSON needs one document per line, so it never pretty-prints
+    private static final Gson lineGson = new Gson();
 
     public static String toJson(Object obj) {
         return gson.toJson(obj);
@@ -17,10 +34,9 @@ public class JsonUtil {
     }
 
     public static void sendJsonResponse(HttpServletResponse response, int status, Object data) throws IOException {
-        response.setStatus(status);
-        response.setContentType("application/json");
-        response.setCharacterEncoding("UTF-8");
-        response.getWriter().write(toJson(data));
+        JsonWriter writer = openJsonWriter(response, status);
+        writeValue(writer, data);
+        writer.flush();
     }
 
     public static void sendSuccess(HttpServletResponse response, Object data) throws IOException {
@@ -28,10 +44,77 @@ public class JsonUtil {
     }
 
     public static void sendError(HttpServletResponse response, int status, String message) throws IOException {
+        if (response.isCommitted()) {
+            // Part of a streamed body has already gone out; the status can no longer change
+            System.out.println("[JsonUtil] Dropped error after response was committed: " + message);
+            return;
+        }
+        response.reset();
         ErrorResponse error = new ErrorResponse(message);
         sendJsonResponse(response, status, error);
     }
 
+    // Sends a list as a JSON array, or as NDJSON when the client asks for it. Items are converted one at a
+    // time while writing, so the converted list never exists in memory as a whole.
+    public static <T> void sendJsonList(HttpServletRequest request, HttpServletResponse response,
+                                        Iterable<T> items, Function<T, Object> converter) throws IOException {
+        if (wantsNdjson(request)) {
+            Writer writer = openNdjsonWriter(response, HttpServletResponse.SC_OK);
+            for (T item : items) {
+                writeJsonLine(writer, converter.apply(item));
+            }
+            writer.flush();
+            return;
+        }
+
+        JsonWriter writer = openJsonWriter(response, HttpServletResponse.SC_OK);
+        writer.beginArray();
+        for (T item : items) {
+            writeValue(writer, converter.apply(item));
+        }
+        writer.endArray();
+        writer.flush();
+    }
+
+    // NDJSON is chosen with "Accept: application/x-ndjson" or "?format=ndjson"
+    public static boolean wantsNdjson(HttpServletRequest request) {
+        if ("ndjson".equalsIgnoreCase(request.getParameter("format"))) {
+            return true;
+        }
+        String accept = request.getHeader("Accept");
+        return accept != null && accept.contains(NDJSON_CONTENT_TYPE);
+    }
+
+    // For endpoints that write their own document structure; the caller flushes when done
+    public static JsonWriter openJsonWriter(HttpServletResponse response, int status) throws IOException {
+        return gson.newJsonWriter(openWriter(response, status, JSON_CONTENT_TYPE));
+    }
+
+    public static Writer openNdjsonWriter(HttpServletResponse response, int status) throws IOException {
+        return openWriter(response, status, NDJSON_CONTENT_TYPE);
+    }
+
+    public static void writeValue(JsonWriter writer, Object data) throws IOException {
+        if (data == null) {
+            writer.nullValue();
+            return;
+        }
+        gson.toJson(data, data.getClass(), writer);
+    }
+
+    // One compact JSON document per line; callers flush when a line must reach the client right away
+    public static void writeJsonLine(Writer writer, Object data) throws IOException {
+        lineGson.toJson(data, writer);
+        writer.write('\n');
+    }
+
+    private static Writer openWriter(HttpServletResponse response, int status, String contentType) throws IOException {
+        response.setStatus(status);
+        response.setContentType(contentType);
+        response.setCharacterEncoding("UTF-8");
+        return new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
     public static class ErrorResponse {
         private final String error;
 
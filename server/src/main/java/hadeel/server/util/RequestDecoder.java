@@ -0,0 +1,76 @@
+package hadeel.server.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+// Decodes request bodies straight from the input stream into typed request objects (see hadeel.server.model).
+// String.class yields the raw body text, e.g. uploaded XML.
+public class RequestDecoder {
+    // Bodies up to this size are read with one blocking read; larger or unknown-length bodies are read
+    // without blocking where the servlet supports async (see AsyncRequestUtil)
+    public static final int BLOCKING_READ_LIMIT = 64 * 1024;
+
+    public static final long MAX_BODY_BYTES = Long.getLong("semulator.request.maxBodyBytes", 32L * 1024 * 1024);
+
+    private static final Gson gson = new Gson();
+
+    public static <T> T decode(HttpServletRequest request, Class<T> type) throws IOException {
+        long length = request.getContentLengthLong();
+        if (length > MAX_BODY_BYTES) {
+            throw new BodyTooLargeException();
+        }
+        return decode(request.getInputStream(), charsetOf(request), type);
+    }
+
+    public static <T> T decode(InputStream body, Charset charset, Class<T> type) throws IOException {
+        if (type == String.class) {
+            return type.cast(new String(body.readAllBytes(), charset));
+        }
+
+        T decoded;
+        try (Reader reader = new InputStreamReader(body, charset)) {
+            decoded = gson.fromJson(reader, type);
+        } catch (JsonParseException | NumberFormatException e) {
+            throw new MalformedRequestException("Malformed request body: " + e.getMessage());
+        }
+        if (decoded == null) {
+            throw new MalformedRequestException("Request body is required");
+        }
+        return decoded;
+    }
+
+    public static <T> T decode(byte[] body, int length, Charset charset, Class<T> type) throws IOException {
+        return decode(new ByteArrayInputStream(body, 0, length), charset, type);
+    }
+
+    public static Charset charsetOf(HttpServletRequest request) {
+        String encoding = request.getCharacterEncoding();
+        try {
+            return encoding != null ? Charset.forName(encoding) : StandardCharsets.UTF_8;
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    // Reported to the client as 400 Bad Request
+    public static class MalformedRequestException extends IOException {
+        public MalformedRequestException(String message) {
+            super(message);
+        }
+    }
+
+    // Reported to the client as 413 Request Entity Too Large
+    public static class BodyTooLargeException extends IOException {
+        public BodyTooLargeException() {
+            super("Request body exceeds " + MAX_BODY_BYTES + " bytes");
+        }
+    }
+}